@@ -0,0 +1,70 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *  ConvertBenchmark measures XS.convert on generated documents of each shape.
+ *
+ *  One operation converts the whole document.
+ *  The "megabytes" and "lines" counters are reported as rates,
+ *  i.e. input MB/s and lines/s;
+ *  run with -prof gc (the profile default) to get gc.alloc.rate.norm.
+ *
+ *  @author Miguel L. Pardal
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConvertBenchmark {
+
+    @Param({ "TAG_DENSE", "DEEP", "WIDE", "TEXT", "ABBREVIATIONS", "CONTINUATIONS", "INDENTED" })
+    public XSCorpus.Shape shape;
+
+    @Param({ "10000" })
+    public int lines;
+
+    private XSCorpus corpus;
+    private XS xs;
+
+    @Setup
+    public void setUp() {
+        corpus = XSCorpus.generate(shape, lines);
+        xs = new XS();
+        xs.getAbvMap().putAll(XSCorpus.abbreviations());
+    }
+
+    /** Input volume counters, reported per second */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Volume {
+        public double megabytes;
+        public long lines;
+    }
+
+    @Benchmark
+    public void convert(Volume volume) throws Exception {
+        PrintWriter pw = new PrintWriter(new XSCorpus.NullWriter());
+        xs.convert(new StringReader(corpus.getText()), pw);
+        pw.flush();
+        volume.megabytes += corpus.getBytes() / (1024.0 * 1024.0);
+        volume.lines += corpus.getLines();
+    }
+
+}
@@ -0,0 +1,147 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+
+
+/**
+ *  DomBenchmark compares building a DOM document from XS
+ *  by converting to XML text and parsing it ("convertThenParse")
+ *  with building it from the parsed lines (XS.toDocument),
+ *  and with the compact tree of XS.parseDocument ("xsDocument"),
+ *  and with loading that tree from a snapshot file ("xsSnapshot",
+ *  visiting the children of the document element).
+ *
+ *  The default input is about 100 MB, so each operation is timed on its own.
+ *  After each iteration the peak heap usage during the iteration is printed,
+ *  as "peak heap: N MB" (run with -Xmx large enough for both paths).
+ *
+ *  @author Miguel L. Pardal
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xmx3g" })
+@State(Scope.Benchmark)
+public class DomBenchmark {
+
+    @Param({ "DEEP", "TEXT" })
+    public XSCorpus.Shape shape;
+
+    /** input size */
+    @Param({ "100" })
+    public int megabytes;
+
+    private XSCorpus corpus;
+    private XS xs;
+    private DocumentBuilder documentBuilder;
+    private File snapshot;
+
+    /** result of the last operation, kept until the peak is read */
+    private Object document;
+
+    @Setup
+    public void setUp() throws Exception {
+        int lines = (int) (megabytes * 1024L * 1024L * 10000 / XSCorpus.generate(shape, 10000).getBytes());
+        corpus = XSCorpus.generate(shape, lines);
+        xs = new XS();
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        documentBuilder = dbf.newDocumentBuilder();
+        snapshot = File.createTempFile("DomBenchmark", ".xsds");
+        snapshot.deleteOnExit();
+        xs.parseDocument(new StringReader(corpus.getText())).save(snapshot);
+        System.out.printf("input: %d MB, snapshot: %d MB%n",
+            corpus.getBytes() / (1024 * 1024), snapshot.length() / (1024 * 1024));
+    }
+
+    @TearDown
+    public void tearDown() {
+        snapshot.delete();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetPeak() {
+        document = null;
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void printPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.gc();
+        long retained = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        System.out.printf("peak heap: %d MB, retained with document: %d MB%n",
+            peak / (1024 * 1024), retained / (1024 * 1024));
+        document = null;
+    }
+
+    @Benchmark
+    public Document convertThenParse() throws Exception {
+        StringWriter xml = new StringWriter();
+        PrintWriter pw = new PrintWriter(xml);
+        xs.convert(new StringReader(corpus.getText()), pw);
+        pw.flush();
+        Document result = documentBuilder.parse(new InputSource(new StringReader(xml.toString())));
+        document = result;
+        return result;
+    }
+
+    @Benchmark
+    public Document toDocument() throws Exception {
+        Document result = xs.toDocument(new StringReader(corpus.getText()));
+        document = result;
+        return result;
+    }
+
+    @Benchmark
+    public XSDocument xsDocument() throws Exception {
+        XSDocument result = xs.parseDocument(new StringReader(corpus.getText()));
+        document = result;
+        return result;
+    }
+
+    @Benchmark
+    public int xsSnapshot() throws Exception {
+        XSDocument result = XSDocument.load(snapshot);
+        document = result;
+        int children = 0;
+        for (int node = result.getFirstChild(result.getDocumentElement()); node != XSDocument.NONE;
+                node = result.getNextSibling(node)) {
+            children++;
+        }
+        return children;
+    }
+
+}
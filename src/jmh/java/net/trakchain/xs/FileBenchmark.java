@@ -0,0 +1,95 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *  FileBenchmark compares file to file conversion
+ *  through a Reader and Writer with the memory-mapped UTF-8 conversion.
+ *
+ *  One operation converts the whole file.
+ *  The "megabytes" and "lines" counters are reported as rates.
+ *
+ *  @author Miguel L. Pardal
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FileBenchmark {
+
+    @Param({ "TAG_DENSE", "TEXT" })
+    public XSCorpus.Shape shape;
+
+    @Param({ "100000" })
+    public int lines;
+
+    private XSCorpus corpus;
+    private XS xs;
+    private File source;
+    private File target;
+
+    @Setup
+    public void setUp() throws IOException {
+        corpus = XSCorpus.generate(shape, lines);
+        xs = new XS();
+        xs.getAbvMap().putAll(XSCorpus.abbreviations());
+
+        source = File.createTempFile("xs-bench-", ".xs");
+        source.deleteOnExit();
+        target = File.createTempFile("xs-bench-", ".xml");
+        target.deleteOnExit();
+        OutputStream out = new FileOutputStream(source);
+        try {
+            out.write(corpus.getText().getBytes(StandardCharsets.UTF_8));
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        source.delete();
+        target.delete();
+    }
+
+    @Benchmark
+    public void reader(ConvertBenchmark.Volume volume) throws Exception {
+        Reader r = new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8);
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(new FileOutputStream(target), StandardCharsets.UTF_8));
+        try {
+            xs.convert(r, pw);
+        } finally {
+            pw.close();
+        }
+        count(volume);
+    }
+
+    @Benchmark
+    public void mapped(ConvertBenchmark.Volume volume) throws Exception {
+        xs.convertUTF8(source, target);
+        count(volume);
+    }
+
+    private void count(ConvertBenchmark.Volume volume) {
+        volume.megabytes += corpus.getBytes() / (1024.0 * 1024.0);
+        volume.lines += corpus.getLines();
+    }
+
+}
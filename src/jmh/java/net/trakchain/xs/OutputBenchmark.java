@@ -0,0 +1,102 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *  OutputBenchmark measures the output side of the conversion alone.
+ *
+ *  Both methods write the same elements (open tag with attributes and close tag,
+ *  at varying depths): "printf" the way convert() used to,
+ *  with PrintWriter.printf and one print per indentation space,
+ *  and "xsWriter" through the XSWriter output buffer.
+ *
+ *  @author Miguel L. Pardal
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OutputBenchmark {
+
+    private static final String[] ATT_NAMES = { "id", "name", "type", "enabled" };
+    private static final String[] ATT_VALUES = { "42", "item", "entry", "true" };
+
+    @Param({ "10000" })
+    public int elements;
+
+    private int[] depths;
+    private XSWriter xsWriter;
+
+    @Setup
+    public void setUp() {
+        depths = new int[elements];
+        for (int i=0; i < elements; i++) {
+            depths[i] = 1 + (i % 40);
+        }
+        xsWriter = new XSWriter();
+    }
+
+    @Benchmark
+    public void printf() {
+        PrintWriter pw = new PrintWriter(new XSCorpus.NullWriter());
+        for (int depth : depths) {
+            printIndent(pw, depth);
+            pw.printf("<%s", "element");
+            for (int a=0; a < ATT_NAMES.length; a++) {
+                pw.print(" ");
+                pw.printf("%s=\"%s\"", ATT_NAMES[a], ATT_VALUES[a]);
+            }
+            pw.printf(">%n");
+            printIndent(pw, depth);
+            pw.printf("</%s>%n", "element");
+        }
+        pw.flush();
+    }
+
+    private static void printIndent(PrintWriter pw, int indent) {
+        for (int i=0; i < indent*4; i++) {
+            pw.print(" ");
+        }
+    }
+
+    @Benchmark
+    public void xsWriter() throws IOException {
+        PrintWriter pw = new PrintWriter(new XSCorpus.NullWriter());
+        XSWriter out = xsWriter;
+        out.reset(pw, true, 4, false);
+        for (int depth : depths) {
+            out.indent(depth);
+            out.write('<');
+            out.write("element");
+            for (int a=0; a < ATT_NAMES.length; a++) {
+                out.write(' ');
+                out.write(ATT_NAMES[a]);
+                out.write("=\"");
+                out.write(ATT_VALUES[a]);
+                out.write('"');
+            }
+            out.write('>');
+            out.newLine();
+            out.endElement(depth, "element");
+        }
+        out.finish();
+        pw.flush();
+    }
+
+}
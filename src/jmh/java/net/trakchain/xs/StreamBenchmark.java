@@ -0,0 +1,80 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *  StreamBenchmark compares the output modes of the stream (standard input) mode,
+ *  writing to a file descriptor as standard output would be (/dev/null by default).
+ *
+ *  "autoFlush" is the PrintWriter with auto flush on System.out that the stream mode used to have;
+ *  the others are the flush policies of XSWriter (FULL, LINE, ELEMENT) with the large output buffer.
+ *  One operation converts the whole document.
+ *
+ *  @author Miguel L. Pardal
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamBenchmark {
+
+    @Param({ "TEXT", "RECORDS" })
+    public XSCorpus.Shape shape;
+
+    @Param({ "autoFlush", "FULL", "LINE", "ELEMENT" })
+    public String mode;
+
+    @Param({ "100000" })
+    public int lines;
+
+    @Param({ "/dev/null" })
+    public String sink;
+
+    private XSCorpus corpus;
+    private XS xs;
+    private FileOutputStream out;
+
+    @Setup
+    public void setUp() throws IOException {
+        corpus = XSCorpus.generate(shape, lines);
+        xs = new XS();
+        out = new FileOutputStream(sink);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        out.close();
+    }
+
+    @Benchmark
+    public void convert(ConvertBenchmark.Volume volume) throws Exception {
+        Reader r = new StringReader(corpus.getText());
+        if ("autoFlush".equals(mode)) {
+            // as System.out: PrintStream over a small buffered stream, PrintWriter with auto flush
+            PrintStream ps = new PrintStream(new BufferedOutputStream(out, 128), true);
+            xs.convert(r, new PrintWriter(ps, true));
+            ps.flush();
+        } else {
+            xs.convertStream(r, out, XSWriter.Flush.valueOf(mode));
+        }
+        volume.megabytes += corpus.getBytes() / (1024.0 * 1024.0);
+        volume.lines += corpus.getLines();
+    }
+
+}
@@ -0,0 +1,81 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *  TeeBenchmark measures writing three variants of each document
+ *  (indented with spaces, with tabs and with one attribute per line),
+ *  by converting it three times ("convertEach")
+ *  and by one tee conversion to the three outputs ("convertTee").
+ *
+ *  One operation writes the three variants.
+ *
+ *  @author Miguel L. Pardal
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TeeBenchmark {
+
+    @Param({ "TAG_DENSE", "DEEP", "TEXT" })
+    public XSCorpus.Shape shape;
+
+    @Param({ "10000" })
+    public int lines;
+
+    private XSCorpus corpus;
+    private XS xs;
+
+    @Setup
+    public void setUp() {
+        corpus = XSCorpus.generate(shape, lines);
+        xs = new XS();
+    }
+
+    @Benchmark
+    public void convertEach() throws Exception {
+        convert(true, false);
+        convert(false, false);
+        convert(true, true);
+    }
+
+    private void convert(boolean indentWithSpaces, boolean oneAttributePerLine) throws Exception {
+        PrintWriter pw = new PrintWriter(new XSCorpus.NullWriter());
+        xs.optionIndentWithSpaces = indentWithSpaces;
+        xs.optionOneAttributePerLine = oneAttributePerLine;
+        xs.convert(new StringReader(corpus.getText()), pw);
+        pw.flush();
+    }
+
+    @Benchmark
+    public void convertTee() throws Exception {
+        List<XSOutput> outputs = new ArrayList<XSOutput>();
+        outputs.add(new XSOutput(new PrintWriter(new XSCorpus.NullWriter()), true, 4, false));
+        outputs.add(new XSOutput(new PrintWriter(new XSCorpus.NullWriter()), false, 4, false));
+        outputs.add(new XSOutput(new PrintWriter(new XSCorpus.NullWriter()), true, 4, true));
+        xs.convertTee(new StringReader(corpus.getText()), outputs);
+        for (XSOutput output : outputs) {
+            output.getWriter().flush();
+        }
+    }
+
+}
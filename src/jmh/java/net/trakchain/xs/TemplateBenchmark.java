@@ -0,0 +1,86 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ *  TemplateBenchmark measures writing one document for several environments
+ *  (abbreviation maps), by converting the source once per map ("convertEach")
+ *  and by compiling a template once and rendering it once per map ("compileAndRender").
+ *
+ *  One operation writes the XML of all the environments.
+ *
+ *  @author Miguel L. Pardal
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TemplateBenchmark {
+
+    @Param({ "ABBREVIATIONS", "TAG_DENSE", "TEXT" })
+    public XSCorpus.Shape shape;
+
+    @Param({ "10000" })
+    public int lines;
+
+    /** number of abbreviation maps */
+    @Param({ "1", "8" })
+    public int environments;
+
+    private XSCorpus corpus;
+    private XS xs;
+    private List<Map<String,String>> abvMaps;
+
+    @Setup
+    public void setUp() {
+        corpus = XSCorpus.generate(shape, lines);
+        xs = new XS();
+        abvMaps = new ArrayList<Map<String,String>>();
+        for (int i = 0; i < environments; i++) {
+            Map<String,String> abvMap = XSCorpus.abbreviations();
+            abvMap.put("ns", abvMap.get("ns") + ":env" + i);
+            abvMaps.add(abvMap);
+        }
+    }
+
+    @Benchmark
+    public void convertEach() throws Exception {
+        for (Map<String,String> abvMap : abvMaps) {
+            PrintWriter pw = new PrintWriter(new XSCorpus.NullWriter());
+            xs.setAbvMap(abvMap);
+            xs.convert(new StringReader(corpus.getText()), pw);
+            pw.flush();
+        }
+    }
+
+    @Benchmark
+    public void compileAndRender() throws Exception {
+        XSTemplate template = xs.compileTemplate(new StringReader(corpus.getText()));
+        for (Map<String,String> abvMap : abvMaps) {
+            PrintWriter pw = new PrintWriter(new XSCorpus.NullWriter());
+            xs.setAbvMap(abvMap);
+            xs.render(template, pw);
+            pw.flush();
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+
+/**
+ *  XSCorpus generates XS documents of a given shape for the benchmarks.
+ *
+ *  Generation is deterministic, so runs are comparable across commits.
+ *
+ *  @author Miguel L. Pardal
+ */
+public final class XSCorpus {
+
+    /** document shapes */
+    public enum Shape {
+        /** every line is a tag line with several attributes */
+        TAG_DENSE,
+        /** elements nested up to 40 levels deep */
+        DEEP,
+        /** tag lines with long attribute lists */
+        WIDE,
+        /** few elements with long blocks of text lines */
+        TEXT,
+        /** tags, attribute names and values written as $abbreviations */
+        ABBREVIATIONS,
+        /** tag lines split over several lines with \ */
+        CONTINUATIONS,
+        /** text and tag lines 60 to 120 levels deep, indented with spaces */
+        INDENTED,
+        /** a stream of small top-level elements, one record per 4 lines */
+        RECORDS
+    }
+
+    private final String text;
+    private final int lines;
+    private final long bytes;
+
+    private XSCorpus(String text) {
+        this.text = text;
+        int count = 0;
+        for (int i=0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        this.lines = count;
+        this.bytes = text.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /** XS document text */
+    public String getText() {
+        return text;
+    }
+
+    /** number of input lines */
+    public int getLines() {
+        return lines;
+    }
+
+    /** size of the document in UTF-8 bytes */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /** abbreviations used by the ABBREVIATIONS shape */
+    public static Map<String,String> abbreviations() {
+        Map<String,String> abvMap = new LinkedHashMap<String,String>();
+        abvMap.put("ns", "urn:net:trakchain:xs:benchmark");
+        abvMap.put("e", "Element");
+        abvMap.put("c", "ChildElement");
+        abvMap.put("id", "identifier");
+        abvMap.put("t", "type");
+        abvMap.put("v", "value-from-abbreviation");
+        return abvMap;
+    }
+
+    /** Generates a document of the given shape with approximately the given number of lines */
+    public static XSCorpus generate(Shape shape, int lines) {
+        StringBuilder sb = new StringBuilder();
+        switch (shape) {
+            case TAG_DENSE:
+                sb.append("<root xmlns=\"urn:bench\"\n");
+                for (int i=1; i < lines; i++) {
+                    sb.append("    <item id=\"").append(i)
+                      .append("\" name \"item").append(i)
+                      .append("\" type=\"entry\" enabled=\"true\" x:ref=\"r").append(i % 97)
+                      .append("\"\n");
+                }
+                break;
+
+            case DEEP:
+                sb.append("<root xmlns=\"urn:bench\"\n");
+                for (int i=1; i < lines; i++) {
+                    int depth = 1 + (i % 40);
+                    indent(sb, depth);
+                    if (i % 5 == 0) {
+                        sb.append("text at depth ").append(depth).append('\n');
+                    } else {
+                        sb.append("<level d=\"").append(depth).append("\"\n");
+                    }
+                }
+                break;
+
+            case WIDE:
+                sb.append("<root xmlns=\"urn:bench\"\n");
+                for (int i=1; i < lines; i++) {
+                    sb.append("    <item");
+                    for (int a=0; a < 20; a++) {
+                        sb.append(" attr").append(a).append("=\"value").append(a + i).append('"');
+                    }
+                    sb.append('\n');
+                }
+                break;
+
+            case TEXT:
+                sb.append("<root xmlns=\"urn:bench\"\n");
+                for (int i=1; i < lines; i++) {
+                    if (i % 50 == 1) {
+                        sb.append("    <section n=\"").append(i).append("\"\n");
+                    } else {
+                        sb.append("        Lorem ipsum dolor sit amet, consectetur adipiscing elit, ")
+                          .append("sed do eiusmod tempor incididunt ut labore et dolore magna aliqua. ")
+                          .append(i).append('\n');
+                    }
+                }
+                break;
+
+            case ABBREVIATIONS:
+                sb.append("<$e xmlns=\"$ns\"\n");
+                for (int i=1; i < lines; i++) {
+                    sb.append("    <$c $id=\"").append(i).append("\" $t=\"$v\" kind=\"$v\"\n");
+                }
+                break;
+
+            case CONTINUATIONS:
+                sb.append("<root xmlns=\"urn:bench\"\n");
+                for (int i=1; i < lines; i += 3) {
+                    sb.append("    <item id=\"").append(i).append("\" \\\n");
+                    sb.append("        name=\"item").append(i).append("\" \\\n");
+                    sb.append("        type=\"entry\"\n");
+                }
+                break;
+
+            case INDENTED:
+                sb.append("<root xmlns=\"urn:bench\"\n");
+                for (int i=1; i < lines; i++) {
+                    // go down and up between depths 60 and 120
+                    int step = i % 120;
+                    int depth = 60 + (step < 60 ? step : 120 - step);
+                    indent(sb, depth);
+                    if (i % 3 == 0) {
+                        sb.append("<level d=\"").append(depth).append("\"\n");
+                    } else {
+                        sb.append("text ").append(i).append('\n');
+                    }
+                }
+                break;
+
+            case RECORDS:
+                for (int i=0; i < lines; i += 4) {
+                    sb.append("<record id=\"").append(i / 4).append("\"\n");
+                    sb.append("    <name\n");
+                    sb.append("        record ").append(i / 4).append('\n');
+                    sb.append("    <value type=\"int\" v=\"").append(i).append("\" /\n");
+                }
+                break;
+
+            default:
+                throw new IllegalArgumentException("Unknown shape " + shape);
+        }
+        return new XSCorpus(sb.toString());
+    }
+
+    private static void indent(StringBuilder sb, int depth) {
+        for (int i=0; i < depth; i++) {
+            sb.append("    ");
+        }
+    }
+
+    /** Writer that discards everything */
+    public static class NullWriter extends Writer {
+        @Override public void write(char[] cbuf, int off, int len) { }
+        @Override public void write(String str, int off, int len) { }
+        @Override public void write(int c) { }
+        @Override public void flush() { }
+        @Override public void close() { }
+    }
+
+}
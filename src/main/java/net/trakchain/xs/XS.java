@@ -11,8 +11,14 @@
 package net.trakchain.xs;
 
 import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
 import java.util.*;
-import java.util.regex.*;
+import java.util.concurrent.*;
+
+import org.w3c.dom.Document;
 
 
 /**
@@ -64,6 +70,20 @@ import java.util.regex.*;
  *  2012-05-10 - added update (convert if target file is older than source file)
  *  2012-05-11 - output XML comments according to their indentation
  *  2015-06-11 - renamed packages
+ *  2026-10-18 - replaced tag and attribute regular expressions with a hand-written scanner
+ *             - added incremental update based on a manifest of content hashes
+ *             - added memory-mapped UTF-8 file conversion
+ *             - added immutable configuration and thread-safe converter (XSConfig, XSConverter)
+ *             - added in-memory conversion cache (XSCache) and on-disk cache for the command line
+ *             - added conversion daemon on a Unix domain socket and its client (requires Java 16)
+ *             - added watch mode
+ *             - added recursive conversion of directories, largest files first
+ *             - added buffered standard output with flush modes
+ *             - added DOM document construction (toDocument)
+ *             - added compact document tree (XSDocument)
+ *             - added memory-mapped document snapshots (XSDocument.save and load)
+ *             - added templates, parsed once and rendered with different abbreviation maps
+ *             - added tee conversion to several outputs with their own formatting options
  */
 public class XS {
 
@@ -83,13 +103,19 @@ public class XS {
         new XS().run(args);
     }
 
-    private static PrintStream err = System.err;
+    /** console of the command line tool */
+    private PrintStream err = System.err;
 
     public XS() {
         initAbvMap();
     }
 
 
+    /** Set the stream the command line tool reports to (standard error by default) */
+    void setErr(PrintStream err) {
+        this.err = err;
+    }
+
     /* Tool name */
     private String toolName = "Xml Shorthand tool";
 
@@ -107,13 +133,101 @@ public class XS {
     public void run(String[] args) throws IOException {
         err.println(getToolName());
 
-        if (args.length == 0) {
+        // parse options
+        int jobs = Runtime.getRuntime().availableProcessors();
+        File cacheDir = null;
+        long cacheSize = XSDiskCache.DEFAULT_MAX_BYTES;
+        String daemonSocket = null;
+        String clientSocket = null;
+        boolean stopDaemon = false;
+        boolean watch = false;
+        XSWriter.Flush flush = XSWriter.Flush.FULL;
+        List<String> fileArgs = new ArrayList<String>();
+        for (int i=0; i < args.length; i++) {
+            String arg = args[i];
+            if ("-j".equals(arg) || arg.matches("-j[0-9]+")) {
+                String value = arg.length() > 2 ? arg.substring(2) : (i+1 < args.length ? args[++i] : "");
+                try {
+                    jobs = Integer.parseInt(value);
+                } catch(NumberFormatException nfe) {
+                    jobs = 0;
+                }
+                if (jobs < 1) {
+                    err.println("Error: Invalid number of jobs '" + value + "'!");
+                    return;
+                }
+            } else if ("-i".equals(arg) || "--incremental".equals(arg)) {
+                optionIncremental = true;
+            } else if ("--cache".equals(arg)) {
+                if (i+1 == args.length) {
+                    err.println("Error: Missing cache directory!");
+                    return;
+                }
+                cacheDir = new File(args[++i]);
+            } else if ("--daemon".equals(arg) || "--client".equals(arg)) {
+                if (i+1 == args.length) {
+                    err.println("Error: Missing socket file!");
+                    return;
+                }
+                if ("--daemon".equals(arg)) {
+                    daemonSocket = args[++i];
+                } else {
+                    clientSocket = args[++i];
+                }
+            } else if ("--watch".equals(arg)) {
+                watch = true;
+            } else if ("--flush".equals(arg)) {
+                String value = i+1 < args.length ? args[++i] : "";
+                try {
+                    flush = XSWriter.Flush.valueOf(value.toUpperCase(Locale.ROOT));
+                } catch(IllegalArgumentException iae) {
+                    err.println("Error: Invalid flush mode '" + value + "'! (full, line or element)");
+                    return;
+                }
+            } else if ("--stop".equals(arg)) {
+                stopDaemon = true;
+            } else if ("--cache-size".equals(arg)) {
+                String value = i+1 < args.length ? args[++i] : "";
+                cacheSize = XSDiskCache.parseSize(value);
+                if (cacheSize < 0) {
+                    err.println("Error: Invalid cache size '" + value + "'!");
+                    return;
+                }
+            } else {
+                fileArgs.add(arg);
+            }
+        }
+
+        // the watcher also looks for new files in the directory arguments
+        List<String> watchArgs = fileArgs;
+        if (daemonSocket == null) {
+            fileArgs = expandFileArgs(fileArgs);
+        }
+        if (watch && (fileArgs.isEmpty() || daemonSocket != null || clientSocket != null)) {
+            err.println("Error: Watch mode needs files to convert!");
+            return;
+        }
+        if (cacheDir != null) {
+            diskCache = new XSDiskCache(cacheDir, cacheSize);
+        }
+
+        if (daemonSocket != null) {
+            // serve requests until stopped
+            new XSDaemon(this, Paths.get(daemonSocket), err).run();
+            if (diskCache != null) {
+                diskCache.trim();
+                err.println(diskCache.stats());
+            }
+
+        } else if (clientSocket != null) {
+            // send requests to a daemon
+            runClient(Paths.get(clientSocket), fileArgs, stopDaemon);
+
+        } else if (fileArgs.isEmpty()) {
             // no files specified - take input from stdin and write to stdout
             err.println("Reading from standard input...");
             try {
-                BufferedReader br = new BufferedReader(new InputStreamReader(System.in));
-                PrintWriter pw = new PrintWriter(System.out, /*autoFlush*/ true);
-                convert(br,pw);
+                convertStream(new InputStreamReader(System.in), new FileOutputStream(FileDescriptor.out), flush);
 
             } catch(Exception e) {
                 err.println("Error: " + e.getMessage());
@@ -122,46 +236,300 @@ public class XS {
             }
 
         } else {
-            // process one file at a time
             err.println("Processing files...");
+            long start = System.nanoTime();
+            if (jobs == 1 || fileArgs.size() == 1) {
+                // process one file at a time
+                for (String fileArg : fileArgs) {
+                    runFile(fileArg, err);
+                }
+            } else {
+                // process files in parallel
+                runParallel(fileArgs, jobs);
+            }
+            long bytes = 0;
+            for (String fileArg : fileArgs) {
+                bytes += new File(fileArg).length();
+            }
+            err.printf("Processed %d file(s), %s in %d ms%n", fileArgs.size(), XSDiskCache.size(bytes),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        }
+        if (diskCache != null && !fileArgs.isEmpty()) {
+            diskCache.trim();
+            err.println(diskCache.stats());
+        }
+        if (watch) {
+            runWatch(watchArgs, jobs);
+        }
+        err.println("Done!");
+    }
+
+    /** Converts one command line file, reporting progress and errors to the given stream */
+    private void runFile(String fileArg, PrintStream log) throws IOException {
+        try {
+            File file = new File(fileArg);
+            File destFile = checkFileArg(file);
+            String fileName = file.getName();
+
+            if (optionIncremental) {
+                boolean converted = convertFileArg(file, destFile);
+                log.printf("%s -> %s%s%n", fileName, destFile.getName(), converted ? "" : " (unchanged)");
+            } else {
+                log.printf("%s -> %s%n", fileName, destFile.getName());
+                convertFileArg(file, destFile);
+            }
+
+        } catch(Exception e) {
+            log.println("Error: " + e.getMessage());
+            log.println("Details:");
+            e.printStackTrace(log);
+        }
+    }
+
+    /** Checks that a command line file can be converted, returns its XML file */
+    File checkFileArg(File file) throws IOException {
+        if (!file.exists()) {
+            throw new IllegalArgumentException(file.getCanonicalPath() + " does not exist!");
+        }
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException(file.getCanonicalPath() + " is a directory!");
+        }
+        return new File(file.getParentFile(), xsToXMLFileName(file.getName()));
+    }
+
+    /** Converts a command line file (in incremental mode, only if changed), returns true if converted */
+    boolean convertFileArg(File file, File destFile) throws XSException, IOException {
+        if (optionIncremental) {
+            return updateIfChanged(file, destFile);
+        }
+        convert(file, destFile);
+        return true;
+    }
+
+    /**
+     *  Converts the command line files again when they change, until interrupted.
+     *  XS files created later in the directory arguments are converted too.
+     */
+    private void runWatch(List<String> fileArgs, int jobs) throws IOException {
+        XSWatcher watcher = new XSWatcher(this, fileArgs, jobs);
+        try {
+            err.printf("Watching %d file(s) in %d directories (Ctrl-C to stop)...%n",
+                watcher.getFileCount(), watcher.getDirectoryCount());
+            watcher.run();
+        } finally {
+            watcher.close();
+        }
+    }
+
+    /** Converts the command line files (or standard input) in a running daemon */
+    private void runClient(Path socket, List<String> fileArgs, boolean stopDaemon) throws IOException {
+        XSClient client;
+        try {
+            client = new XSClient(socket);
+        } catch(IOException ioe) {
+            err.println("Error: No daemon listening on " + socket + "! (" + ioe.getMessage() + ")");
+            return;
+        }
+        try {
+            if (stopDaemon) {
+                client.stop();
+                err.println("Daemon stopped.");
 
-            for (int i=0; i < args.length; i++) {
-                FileReader fr = null;
-                FileWriter fw = null;
+            } else if (fileArgs.isEmpty()) {
+                err.println("Reading from standard input...");
                 try {
-                    File file = new File(args[i]);
-                    if (!file.exists()) {
-                        throw new IllegalArgumentException(file.getCanonicalPath() + " does not exist!");
-                    }
-                    if (file.isDirectory()) {
-                        throw new IllegalArgumentException(file.getCanonicalPath() + " is a directory!");
+                    PrintWriter pw = new PrintWriter(new OutputStreamWriter(System.out));
+                    client.convert(new InputStreamReader(System.in), pw);
+                } catch(XSException xse) {
+                    err.println("Error: " + xse.getMessage());
+                }
+
+            } else {
+                err.println("Processing files...");
+                for (String fileArg : fileArgs) {
+                    File file = new File(fileArg);
+                    XSClient.Result result = client.convert(file);
+                    if (result.error != null) {
+                        err.println("Error: " + result.error);
+                    } else {
+                        err.printf("%s -> %s%s%n", file.getName(), result.xmlFile.getName(),
+                            result.converted ? "" : " (unchanged)");
                     }
+                }
+            }
+        } finally {
+            client.close();
+        }
+    }
 
-                    String fileName = file.getName();
-                    String destFileName = xsToXMLFileName(fileName);
-                    File destFile = new File(file.getParentFile(), destFileName);
+    /**
+     *  Replaces directory arguments with the XS files they contain, in name order.
+     *  Subdirectories are searched too, except hidden ones (e.g. .git).
+     */
+    List<String> expandFileArgs(List<String> fileArgs) throws IOException {
+        List<String> expanded = new ArrayList<String>();
+        for (String fileArg : fileArgs) {
+            Path root = Paths.get(fileArg);
+            if (!Files.isDirectory(root)) {
+                expanded.add(fileArg);
+                continue;
+            }
+            for (Path file : findXSFiles(root, null)) {
+                expanded.add(file.toString());
+            }
+        }
+        return expanded;
+    }
 
-                    err.printf("%s -> %s%n", fileName, destFile.getName());
+    /**
+     *  XS files in a directory and its subdirectories, except hidden ones, in name order.
+     *  The searched directories are added to dirs (if not null).
+     */
+    List<Path> findXSFiles(final Path root, final List<Path> dirs) throws IOException {
+        final List<Path> found = new ArrayList<Path>();
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                if (!dir.equals(root) && dir.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                if (dirs != null) {
+                    dirs.add(dir);
+                }
+                return FileVisitResult.CONTINUE;
+            }
 
-                    fr = new FileReader(file);
-                    BufferedReader br = new BufferedReader(fr);
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && hasXSFileExt(file.getFileName().toString())) {
+                    found.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
 
-                    fw = new FileWriter(destFile);
-                    PrintWriter pw = new PrintWriter(fw);
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ioe) {
+                err.println("Error: Cannot read " + file + " (" + ioe.getMessage() + ")");
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(found);
+        return found;
+    }
 
-                    convert(br, pw);
+    /**
+     *  Converts the command line files using a pool of worker threads.
+     *  Each worker has its own converter and each file reports to its own buffer,
+     *  so the console output is printed in command line order, as in sequential mode.
+     */
+    private void runParallel(List<String> fileArgs, int jobs) throws IOException {
+        ExecutorService pool = new ForkJoinPool(Math.min(jobs, fileArgs.size()));
+        try {
+            runFiles(fileArgs, pool, newWorkers());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
 
-                } catch(Exception e) {
-                    err.println("Error: " + e.getMessage());
-                    err.println("Details:");
-                    e.printStackTrace(err);
-                } finally {
-                    if (fr != null) fr.close();
-                    if (fw != null) fw.close();
+    /**
+     *  Converts the files on the pool, printing the report of each file in the given order.
+     *  Files are submitted largest first, so that a big file started last
+     *  does not keep the other workers waiting at the end.
+     */
+    void runFiles(List<String> fileArgs, ExecutorService pool, final ThreadLocal<XS> workers) throws IOException {
+        int n = fileArgs.size();
+        final long[] sizes = new long[n];
+        Integer[] order = new Integer[n];
+        for (int i=0; i < n; i++) {
+            sizes[i] = new File(fileArgs.get(i)).length();
+            order[i] = i;
+        }
+        // largest first, in the given order for equal sizes
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(sizes[b], sizes[a]);
+            }
+        });
+
+        List<Future<byte[]>> results = new ArrayList<Future<byte[]>>(Collections.<Future<byte[]>>nCopies(n, null));
+        for (Integer i : order) {
+            final String fileArg = fileArgs.get(i);
+            results.set(i, pool.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws IOException {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    PrintStream log = new PrintStream(buffer);
+                    try {
+                        workers.get().runFile(fileArg, log);
+                    } finally {
+                        log.close();
+                    }
+                    return buffer.toByteArray();
                 }
+            }));
+        }
+
+        // print reports in order, as soon as each one is available
+        for (Future<byte[]> result : results) {
+            err.write(get(result));
+            err.flush();
+        }
+    }
+
+    /** Converters with the same configuration, one per worker thread */
+    ThreadLocal<XS> newWorkers() {
+        return new ThreadLocal<XS>() {
+            @Override
+            protected XS initialValue() {
+                return newWorker();
             }
+        };
+    }
+
+    /** Waits for a worker result, rethrowing its failure */
+    private static byte[] get(Future<byte[]> result) throws IOException {
+        try {
+            return result.get();
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for conversion");
+        } catch(ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
         }
-        err.println("Done!");
+    }
+
+    /**
+     *  Get a snapshot of the current configuration,
+     *  e.g. to compile a converter that can be shared by threads (see XSConverter)
+     */
+    public XSConfig getConfig() {
+        return XSConfig.builder()
+            .clearAbbreviations()
+            .putAbbreviations(abvMap)
+            .tabSpaces(tabSpaces)
+            .indentWithSpaces(optionIndentWithSpaces)
+            .oneAttributePerLine(optionOneAttributePerLine)
+            .build();
+    }
+
+    /** Creates a converter with the same configuration, for use by a worker thread */
+    XS newWorker() {
+        XS worker = new XS();
+        worker.setToolName(toolName);
+        worker.setTabSpaces(tabSpaces);
+        worker.setAbvMap(new LinkedHashMap<String,String>(abvMap));
+        worker.optionIndentWithSpaces = optionIndentWithSpaces;
+        worker.optionOneAttributePerLine = optionOneAttributePerLine;
+        worker.optionIncremental = optionIncremental;
+        worker.manifests = manifests;
+        worker.diskCache = diskCache;
+        worker.err = err;
+        return worker;
     }
 
     /** Does the file have the XS file extension? */
@@ -195,22 +563,8 @@ public class XS {
 
     // core --------------------------------------------------------------------
 
-    /** tag name */
-    private static final String TAG_REGEX = "[\\$a-zA-Z_:][a-zA-Z0-9_:.]+|\\$?[a-zA-Z]";
-    // single word character or
-    // single word character or _ or : followed by at least one word character or digit or _ or : or .
-
-    /** attribute name */
-    private static final String ATT_REGEX = TAG_REGEX;
-
-    /** string */
-    private static final String STR_REGEX = "\"(.*?)\"";
-
-    /** tag line compiled pattern to extract tag name */
-    private final Pattern TAG_PATTERN = Pattern.compile("<(" + TAG_REGEX + ")\\s*");
-
-    /** tag line compiled pattern to extract attribute name and string value */
-    private final Pattern ATT_PATTERN = Pattern.compile("\\s*(" + ATT_REGEX + ")[=|\\s+]?\\s*" + STR_REGEX + "\\s*");
+    /** parser and output buffer, reused from one conversion to the next */
+    private final XSContext context = new XSContext();
 
 
     /** Buffers provided Reader and reads lines of XS language and writes lines of XML */
@@ -220,179 +574,110 @@ public class XS {
 
     /** Reads lines of XS language and writes lines of XML */
     public void convert(BufferedReader br, PrintWriter pw) throws XSException, IOException {
-        String line;
-        int lineCount = 0;
-
-        try {
-            // stacks for tag closing control
-            Stack<Integer> idtStack = new Stack<Integer>();
-            Stack<String> tagStack = new Stack<String>();
-
-            // string builder to put together continued lines
-            StringBuilder sb = new StringBuilder();
-
-            while ((line = br.readLine()) != null) {
-                lineCount++;
-
-                // handle line continuations
-                if (line.endsWith("\\")) {
-                    sb.append(line.substring(0, line.length()-1));
-                    continue;
-                }
-                if (sb.length() > 0) {
-                    sb.append(line);
-                    line = sb.toString();
-                    // reset sb
-                    sb = new StringBuilder();
-                }
-
-                // check indentation level
-                int idt = checkIndent(line);
-
-                // trim line
-                String tLine = line.substring(skipIndent(line, idt), line.length());
-
-                if (tLine.startsWith("//")) {
-                    // xs comment
-                    // (ignore line)
-
-                } else if (tLine.startsWith("<?")) {
-                    // xml preamble
-                    pw.println(line);
-
-                } else if (tLine.startsWith("<!--")) {
-                    // xml comment
-
-                    // close previous tags of equal or greater indentation
-                    while (!idtStack.empty() && idtStack.peek() >= idt) {
-                        int previousIdt = idtStack.pop();
-                        String previousTag = tagStack.pop();
-
-                        // output XML close tag
-                        printIndent(pw, previousIdt);
-                        pw.printf("</%s>%n", expandAbv(previousTag));
-                    }
-                    // print comment
-                    pw.println(line);
-
-                } else if (tLine.startsWith("<!")) {
-                    // dtd element
-                    pw.println(line);
-
-                } else if (tLine.startsWith("<")) {
-                    // tag line
-                    String tag;
-                    List<String> attList = new ArrayList<String>();
-                    Map<String,String> attMap = new HashMap<String,String>();
-
-                    // handle empty tag
-                    int tailIdx = lastNonWhitespace(tLine);
-                    boolean isEmptyTag = ('/' == tLine.charAt(tailIdx));
-                    if (isEmptyTag) {
-                        // trim tail
-                        tLine = tLine.substring(0, tailIdx);
-                    }
-
-                    // extract tag name
-                    Matcher tagMatcher = TAG_PATTERN.matcher(tLine);
-                    if (!tagMatcher.find()) {
-                        throw new XSException(String.format("Invalid tag line #%d '%s'", lineCount, line), lineCount);
-                    } else {
-                        tag = tagMatcher.group(1);
-                        if (tagMatcher.end() < tLine.length()) {
-                            // extract attribute names and values
-                            int idx = tagMatcher.end();
-                            while (idx < tLine.length()) {
-                                Matcher attMatcher = ATT_PATTERN.matcher(tLine);
-                                if (attMatcher.find(idx)) {
-                                    attList.add(attMatcher.group(1));
-                                    attMap.put(attMatcher.group(1), attMatcher.group(2));
-                                    idx = attMatcher.end();
-                                } else {
-                                    throw new XSException(String.format("Invalid attribute in tag line #%d '%s'", lineCount, line), lineCount);
-                                }
-                            }
-                        }
-                    }
+        context.convert(br, pw, abvMap, tabSpaces, optionIndentWithSpaces, optionOneAttributePerLine);
+    }
 
-                    // close previous tags of equal or greater indentation
-                    while (!idtStack.empty() && idtStack.peek() >= idt) {
-                        int previousIdt = idtStack.pop();
-                        String previousTag = tagStack.pop();
+    /**
+     *  Reads lines of XS language once and writes lines of XML to each output,
+     *  formatted with the options of the output (tee mode), closing the reader.
+     *  Abbreviations and the indentation of the input are read with the current settings,
+     *  and each output is the one of convert with its indentation and attribute options.
+     */
+    public void convertTee(Reader r, List<XSOutput> outputs) throws XSException, IOException {
+        context.convertTee(r, outputs, abvMap, tabSpaces);
+    }
 
-                        // output XML close tag
-                        printIndent(pw, previousIdt);
-                        pw.printf("</%s>%n", expandAbv(previousTag));
-                    }
+    /**
+     *  Reads lines of XS language and writes lines of XML to an output stream
+     *  with a large buffer, flushing the stream as given (stream mode of the command line)
+     */
+    void convertStream(Reader r, OutputStream os, XSWriter.Flush flush) throws XSException, IOException {
+        context.convertStream(r, os, flush, abvMap, tabSpaces, optionIndentWithSpaces, optionOneAttributePerLine);
+    }
 
-                    if (!isEmptyTag) {
-                        // push current tag and indent
-                        idtStack.push(idt);
-                        tagStack.push(tag);
-                    }
+    /** DOM builder, created on first use */
+    private XSDocumentBuilder documentBuilder;
 
-                    // output XML open tag with attributes
-                    printIndent(pw,idt);
-
-                    pw.printf("<%s", expandAbv(tag));
-                    int attIdx = 0;
-                    for (String att : attList) {
-                        if (optionOneAttributePerLine && attIdx > 0) {
-                            pw.printf("%n");
-                            printIndent(pw, idt + 1);
-                        } else {
-                            pw.print(" ");
-                        }
-                        pw.printf("%s=\"%s\"", expandAbv(att), expandAbv(attMap.get(att)));
-                        attIdx++;
-                    }
-                    if (isEmptyTag)
-                        pw.print(" /");
-                    pw.printf(">%n");
+    /**
+     *  Reads lines of XS language and builds the DOM document of their XML, closing the reader.
+     *  The document is built from the parsed lines, without XML text,
+     *  and has the nodes a namespace aware DocumentBuilder creates for the output of convert.
+     */
+    public Document toDocument(Reader r) throws XSException, IOException {
+        if (documentBuilder == null) {
+            documentBuilder = new XSDocumentBuilder(this);
+        }
+        return documentBuilder.build(r);
+    }
 
-                } else {
-                    // text line
-                    pw.println(line);
-                }
-            }
-            // end of file
+    /**
+     *  Reads lines of XS language into a compact read-only tree, closing the reader.
+     *  Abbreviations are expanded as in convert.
+     */
+    public XSDocument parseDocument(Reader r) throws XSException, IOException {
+        return context.parseDocument(r, abvMap, tabSpaces);
+    }
 
-            // close remaining tags
-            while (!idtStack.empty()) {
-                int previousIdt = idtStack.pop();
-                String previousTag = tagStack.pop();
+    /** Writes the lines of XML of a parsed document, with the current output options */
+    public void write(XSDocument document, PrintWriter pw) throws IOException {
+        context.write(document, pw, tabSpaces, optionIndentWithSpaces, optionOneAttributePerLine);
+    }
 
-                // output XML close tag
-                printIndent(pw, previousIdt);
-                pw.printf("</%s>%n", expandAbv(previousTag));
-            }
+    /**
+     *  Reads lines of XS language into a template that can be rendered many times, closing the reader.
+     *  Abbreviations are not expanded; they are expanded by render.
+     *  The indentation of the lines is read with the current tab spaces.
+     */
+    public XSTemplate compileTemplate(Reader r) throws XSException, IOException {
+        return context.compileTemplate(r, tabSpaces);
+    }
 
-        } catch(IOException ioe) {
-            throw new XSException(ioe);
-        } finally {
-            // close input stream
-            if (br != null) br.close();
-        }
+    /**
+     *  Writes the lines of XML of a template, expanding its abbreviations
+     *  with the current abbreviation map and with the current output options.
+     *  The XML is the one of convert on the source of the template.
+     */
+    public void render(XSTemplate template, PrintWriter pw) throws XSException, IOException {
+        context.render(template, pw, abvMap, tabSpaces, optionIndentWithSpaces, optionOneAttributePerLine);
     }
 
     /** Convert XS file to XML file - destination file will be overwritten */
     public File convert(File xsFile, File xmlFile) throws XSException, IOException {
-        FileReader fr = null;
-        PrintWriter pw = null;
+        convert(xsFile, xmlFile, null);
+        return xmlFile;
+    }
+
+    /** Convert XS file to XML file, adding the written bytes to the digest (if not null) */
+    private void convert(File xsFile, File xmlFile, MessageDigest digest) throws XSException, IOException {
+        if (diskCache == null) {
+            context.convert(xsFile, xmlFile, digest, abvMap, tabSpaces, optionIndentWithSpaces, optionOneAttributePerLine);
+            return;
+        }
         try {
-            fr = new FileReader(xsFile);
-            pw = new PrintWriter(new FileWriter(xmlFile));
-            convert(fr, pw);
-        } catch(IOException ioe) {
-            throw new XSException(ioe);
-        } finally {
+            String key = diskCache.key(XSManifest.hash(xsFile), XSManifest.hash(abvMap), optionsKey());
+            if (diskCache.get(key, xmlFile, digest)) {
+                return;
+            }
+            context.convert(xsFile, xmlFile, digest, abvMap, tabSpaces, optionIndentWithSpaces, optionOneAttributePerLine);
             try {
-                if (fr != null) fr.close();
+                diskCache.put(key, xmlFile);
             } catch(IOException ioe) {
-                // ignore
+                // the XML file is written, only later runs miss the entry
+                err.println("Warning: Could not store " + xmlFile.getName() + " in the cache! (" + ioe.getMessage() + ")");
             }
-            if (pw != null) pw.close();
+        } catch(IOException ioe) {
+            throw new XSException(ioe);
         }
+    }
+
+    /**
+     *  Convert UTF-8 XS file to UTF-8 XML file - destination file will be overwritten.
+     *  The source file is memory-mapped and text lines are copied without decoding,
+     *  so bytes that are not valid UTF-8 are copied as they are
+     *  (convert(File, File) decodes them with the platform charset).
+     */
+    public File convertUTF8(File xsFile, File xmlFile) throws XSException, IOException {
+        context.convertUTF8(xsFile, xmlFile, null, abvMap, tabSpaces, optionIndentWithSpaces, optionOneAttributePerLine);
         return xmlFile;
     }
 
@@ -405,25 +690,93 @@ public class XS {
     /**
      *  Convert XS file to XML file if necessary
      *  i.e. if source file was modified after target file
+     *  or, in incremental mode, if the source, abbreviations or options
+     *  changed since the recorded conversion (see optionIncremental)
      */
     public File update(File xsFile, File xmlFile) throws XSException, IOException {
-        if (xsFile.exists() && xmlFile.exists() && xsFile.lastModified() < xmlFile.lastModified()) {
-            // convertion not necessary
-            return xmlFile;
-        } else {
-            return convert(xsFile, xmlFile);
-        }
+        updateIfChanged(xsFile, xmlFile);
+        return xmlFile;
     }
 
     /**
      *  Convert XS file to implicit XML file if necessary
      *  i.e. if source file was modified after target file
+     *  or, in incremental mode, if the source, abbreviations or options
+     *  changed since the recorded conversion (see optionIncremental)
      */
     public File update(File xsFile) throws XSException, IOException {
         File xmlFile = xsToXMLFile(xsFile);
         return update(xsFile, xmlFile);
     }
 
+    /** Convert XS file to XML file if necessary, returns true if it was converted */
+    private boolean updateIfChanged(File xsFile, File xmlFile) throws XSException, IOException {
+        if (!optionIncremental) {
+            if (xsFile.exists() && xmlFile.exists() && xsFile.lastModified() < xmlFile.lastModified()) {
+                // convertion not necessary
+                return false;
+            }
+            convert(xsFile, xmlFile);
+            return true;
+        }
+
+        try {
+            XSManifest manifest = getManifest(xmlFile.getAbsoluteFile().getParentFile());
+            XSManifest.Entry previous = manifest.get(xmlFile.getName());
+            String sourceHash = XSManifest.hash(xsFile);
+            String abvHash = XSManifest.hash(abvMap);
+            String options = optionsKey();
+            if (previous != null && previous.sameInputs(sourceHash, abvHash, options)
+                    && xmlFile.exists() && previous.output.equals(XSManifest.hash(xmlFile))) {
+                // output is up to date and was not modified
+                return false;
+            }
+
+            MessageDigest digest = XSManifest.newDigest();
+            convert(xsFile, xmlFile, digest);
+            String outputHash = XSManifest.toHex(digest.digest());
+            manifest.put(xmlFile.getName(), new XSManifest.Entry(sourceHash, abvHash, options, outputHash));
+            return true;
+
+        } catch(IOException ioe) {
+            throw new XSException(ioe);
+        }
+    }
+
+
+    // incremental update and cache --------------------------------------------
+
+    /** Manifests already loaded, by output directory (shared with the workers) */
+    private Map<File,XSManifest> manifests = new HashMap<File,XSManifest>();
+
+    private XSManifest getManifest(File dir) throws IOException {
+        synchronized (manifests) {
+            XSManifest manifest = manifests.get(dir);
+            if (manifest == null) {
+                manifest = XSManifest.load(dir);
+                manifests.put(dir, manifest);
+            }
+            return manifest;
+        }
+    }
+
+    /** Converted files shared by command line runs, null if not caching */
+    private XSDiskCache diskCache;
+
+    /**
+     *  Options that change the output, as recorded in the manifest and cache keys.
+     *  Files are written with the platform charset and line separator,
+     *  so they are part of the key too (as the bytes of the separator, in hex).
+     */
+    String optionsKey() {
+        Charset charset = Charset.defaultCharset();
+        return "tab=" + tabSpaces
+            + ",spaces=" + optionIndentWithSpaces
+            + ",attPerLine=" + optionOneAttributePerLine
+            + ",charset=" + charset.name()
+            + ",eol=" + XSManifest.toHex(System.lineSeparator().getBytes(charset));
+    }
+
 
     // indent handling ---------------------------------------------------------
 
@@ -444,79 +797,6 @@ public class XS {
         this.tabSpaces = nr;
     }
 
-    /** Check what is the indent level of the given line */
-    private int checkIndent(String line) {
-        int spc = 0;
-        int tab = 0;
-        for(int idx = 0; idx < line.length(); idx++) {
-            char c = line.charAt(idx);
-            if (' ' == c) {
-                spc++;
-            } else if ('\t' == c) {
-                tab++;
-            } else {
-                // found non whitespace character
-                break;
-            }
-        }
-        return indentCount(tab,spc);
-    }
-
-    /** Indent count = tabs + spaces/spacesPerTab */
-    private int indentCount(int tab, int spc) {
-        if (tabSpaces == 0) // avoid divide by zero
-            return tab;
-        else
-            return tab + ((int)spc/tabSpaces);
-    }
-
-    /* returns index of first character in line after indent */
-    private int skipIndent(String line, int indent) {
-        if (indent == 0)
-            return 0;
-        int spc = 0;
-        int tab = 0;
-        int idx;
-        for (idx=0; idx < line.length(); idx++) {
-            char c = line.charAt(idx);
-            if (' ' == c) {
-                spc++;
-            } else if ('\t' == c) {
-                tab++;
-            } else {
-                throw new IllegalStateException("Only space or tab characters were expected");
-            }
-            if (indentCount(tab, spc) == indent)
-                break;
-        }
-        return idx+1;
-    }
-
-    /** prints the indentation using spaces */
-    private void printIndent(PrintWriter pw, int indent) {
-        if (optionIndentWithSpaces) {
-            for (int i=0; i < indent*tabSpaces; i++) {
-                pw.print(" ");
-            }
-        } else {
-            for (int i=0; i < indent; i++) {
-                pw.print("\t");
-            }
-        }
-    }
-
-    /* returns index of last non-whitespace character in line */
-    private int lastNonWhitespace(String line) {
-        int idx;
-        for (idx=line.length()-1; idx >= 0; idx--) {
-            char c = line.charAt(idx);
-            if (c != ' ' && c != '\t') {
-                break;
-            }
-        }
-        return idx;
-    }
-
     // abbreviations -----------------------------------------------------------
 
     /** Abbreviations map */
@@ -535,31 +815,17 @@ public class XS {
     /** define built-in abbreviations */
     private void initAbvMap() {
         abvMap = new LinkedHashMap<String,String>();
+        putBuiltInAbbreviations(abvMap);
+    }
 
+    /** add the built-in abbreviations to the given map */
+    static void putBuiltInAbbreviations(Map<String,String> abvMap) {
         // XML Schema namespaces
         abvMap.put("ns-xsi","http://www.w3.org/2001/XMLSchema-instance");
         abvMap.put("ns-xs","http://www.w3.org/2001/XMLSchema");
     }
 
 
-    /** Expand abbreviation to mapping in map and return it or return original value */
-    private String expandAbv(String s) throws XSException {
-        if (!s.startsWith("$")) {
-            return s;
-        } else {
-            if (s.length() == 1) {
-                // "$".equals(s)
-                throw new XSException("Invalid abbreviation '$'!");
-            }
-            String key = s.substring(1, s.length());
-            String expanded = abvMap.get(key);
-            if (expanded == null) {
-                throw new XSException(String.format("Abbreviation '%s' not defined!", key));
-            }
-            return expanded;
-        }
-    }
-
     // options -----------------------------------------------------------------
 
     /** print indentation as spaces? */
@@ -568,4 +834,7 @@ public class XS {
     /** write one attribute per line? */
     public boolean optionOneAttributePerLine = false;
 
+    /** update by content, recording conversions in a manifest next to the outputs? */
+    public boolean optionIncremental = false;
+
 }
@@ -0,0 +1,117 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.IOException;
+
+
+/**
+ *  XSAttributes gives access to the attributes of the current tag line.
+ *
+ *  Names and values are kept as offsets into the line (see XSLexer)
+ *  plus the expansion of the ones that are abbreviations,
+ *  so they can be written without creating Strings.
+ *  The instance is reused for every tag line.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSAttributes {
+
+    private final XSLexer lexer;
+    private final XSSymbols symbols;
+
+    /** characters of the current tag line (offsets are the ones of the lexer) */
+    private char[] line;
+
+    /** expanded abbreviations, null if the name or value is not an abbreviation */
+    private String[] names = new String[8];
+    private String[] values = new String[8];
+
+    /** attribute that holds the value of each attribute */
+    private int[] valueIdx = new int[8];
+
+
+    XSAttributes(XSLexer lexer, XSSymbols symbols) {
+        this.lexer = lexer;
+        this.symbols = symbols;
+    }
+
+    /** Prepare for the attributes scanned by the lexer in the given line */
+    void reset(char[] line) {
+        this.line = line;
+        int count = lexer.attCount;
+        if (count > names.length) {
+            names = new String[lexer.attNameStart.length];
+            values = new String[lexer.attNameStart.length];
+            valueIdx = new int[lexer.attNameStart.length];
+        }
+        for (int i = 0; i < count; i++) {
+            valueIdx[i] = lexer.lastOccurrence(line, i);
+        }
+    }
+
+    /** Set the expansions of the name and value of an attribute (null if not abbreviations) */
+    void setExpanded(int i, String name, String value) {
+        names[i] = name;
+        values[i] = value;
+    }
+
+    /** attribute whose value is given to attribute i (repeated names get the last value) */
+    int valueOf(int i) {
+        return valueIdx[i];
+    }
+
+    int getLength() {
+        return lexer.attCount;
+    }
+
+    String getName(int i) {
+        if (names[i] != null) {
+            return names[i];
+        }
+        return symbols.get(line, lexer.attNameStart[i], lexer.attNameEnd[i]);
+    }
+
+    String getValue(int i) {
+        if (values[i] != null) {
+            return values[i];
+        }
+        int v = valueIdx[i];
+        return new String(line, lexer.attValueStart[v], lexer.attValueEnd[v] - lexer.attValueStart[v]);
+    }
+
+    void appendValue(StringBuilder sb, int i) {
+        if (values[i] != null) {
+            sb.append(values[i]);
+        } else {
+            int v = valueIdx[i];
+            sb.append(line, lexer.attValueStart[v], lexer.attValueEnd[v] - lexer.attValueStart[v]);
+        }
+    }
+
+    void writeName(XSWriter out, int i) throws IOException {
+        if (names[i] != null) {
+            out.write(names[i]);
+        } else {
+            out.write(line, lexer.attNameStart[i], lexer.attNameEnd[i]);
+        }
+    }
+
+    void writeValue(XSWriter out, int i) throws IOException {
+        if (values[i] != null) {
+            out.write(values[i]);
+        } else {
+            int v = valueIdx[i];
+            out.write(line, lexer.attValueStart[v], lexer.attValueEnd[v]);
+        }
+    }
+
+}
@@ -0,0 +1,184 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.util.*;
+
+
+/**
+ *  XSCache keeps recently generated XML in memory,
+ *  so that converting the same input again does not parse it.
+ *
+ *  Entries are keyed by the SHA-256 hash of the XS input
+ *  and by the configuration (abbreviations map and options) of the converter.
+ *  The cache is bounded by the total size of the cached XML,
+ *  evicting the least recently used entries first.
+ *
+ *  A cache is given to a converter when it is created
+ *  and can be shared by several converters and threads:
+ *
+ *  XSConverter converter = new XSConverter(config, new XSCache(16 * 1024 * 1024));
+ *
+ *  Two threads that miss the same input at the same time both convert it.
+ *
+ *  @author Miguel L. Pardal
+ */
+public final class XSCache {
+
+    /** estimated bytes used by an entry besides its XML */
+    private static final int ENTRY_OVERHEAD = 160;
+
+    /** Cache key: input hash and configuration */
+    static final class Key {
+        private final byte[] hash;
+        private final XSConfig config;
+        private final int hashCode;
+
+        Key(byte[] hash, XSConfig config) {
+            this.hash = hash;
+            this.config = config;
+            this.hashCode = 31 * Arrays.hashCode(hash) + config.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return Arrays.equals(hash, other.hash) && config.equals(other.config);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private final long maxBytes;
+
+    /** entries in access order, the eldest is the least recently used */
+    private final LinkedHashMap<Key,String> entries = new LinkedHashMap<Key,String>(16, 0.75f, /*accessOrder*/ true);
+    private long bytes;
+
+    // statistics
+    private long hits;
+    private long misses;
+    private long evictions;
+
+
+    /** Create a cache that holds up to the given number of bytes */
+    public XSCache(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException(String.format("The cache size cannot be %d!", maxBytes));
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /** Get the cached XML of the given key, null if none */
+    String get(Key key) {
+        synchronized (entries) {
+            String xml = entries.get(key);
+            if (xml == null) {
+                misses++;
+            } else {
+                hits++;
+            }
+            return xml;
+        }
+    }
+
+    /** Cache the XML of the given key, evicting entries if needed */
+    void put(Key key, String xml) {
+        long size = sizeOf(xml);
+        if (size > maxBytes) {
+            // would evict everything else
+            return;
+        }
+        synchronized (entries) {
+            String previous = entries.put(key, xml);
+            if (previous != null) {
+                bytes -= sizeOf(previous);
+            }
+            bytes += size;
+            Iterator<String> eldest = entries.values().iterator();
+            while (bytes > maxBytes) {
+                bytes -= sizeOf(eldest.next());
+                eldest.remove();
+                evictions++;
+            }
+        }
+    }
+
+    private static long sizeOf(String xml) {
+        return 2L * xml.length() + ENTRY_OVERHEAD;
+    }
+
+    /** Remove all entries (statistics are kept) */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            bytes = 0;
+        }
+    }
+
+
+    // statistics --------------------------------------------------------------
+
+    /** Get the maximum size of the cache, in bytes */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /** Get the estimated size of the cached entries, in bytes */
+    public long getBytes() {
+        synchronized (entries) {
+            return bytes;
+        }
+    }
+
+    /** Get the number of cached entries */
+    public int getEntries() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /** Get the number of conversions answered from the cache */
+    public long getHits() {
+        synchronized (entries) {
+            return hits;
+        }
+    }
+
+    /** Get the number of conversions that were not in the cache */
+    public long getMisses() {
+        synchronized (entries) {
+            return misses;
+        }
+    }
+
+    /** Get the number of entries removed to make room for others */
+    public long getEvictions() {
+        synchronized (entries) {
+            return evictions;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (entries) {
+            return String.format("XSCache[entries=%d,bytes=%d/%d,hits=%d,misses=%d,evictions=%d]",
+                entries.size(), bytes, maxBytes, hits, misses, evictions);
+        }
+    }
+
+}
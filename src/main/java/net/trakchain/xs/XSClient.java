@@ -0,0 +1,144 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+
+/**
+ *  XSClient sends conversion requests to a running XSDaemon
+ *  over its Unix domain socket (see XSDaemon for the protocol).
+ *
+ *  One client is one connection; requests are sent one at a time.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSClient implements Closeable {
+
+    /** Result of a file conversion request */
+    static final class Result {
+        /** XML file, null on error */
+        final File xmlFile;
+        /** false if the file was up to date (incremental mode) */
+        final boolean converted;
+        /** error message, null on success */
+        final String error;
+
+        Result(File xmlFile, boolean converted, String error) {
+            this.xmlFile = xmlFile;
+            this.converted = converted;
+            this.error = error;
+        }
+    }
+
+    private final SocketChannel channel;
+    private final BufferedReader in;
+    private final Writer out;
+
+
+    /** Connect to the daemon listening on the given socket */
+    XSClient(Path socket) throws IOException {
+        channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), XSDaemon.UTF_8));
+        out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), XSDaemon.UTF_8));
+    }
+
+    /** Is the daemon answering? */
+    boolean ping() throws IOException {
+        return "PONG".equals(request("PING"));
+    }
+
+    /** Convert an XS file to its XML file, in the daemon */
+    Result convert(File xsFile) throws IOException {
+        String path = xsFile.getAbsolutePath();
+        if (path.indexOf('\n') >= 0 || path.indexOf('\r') >= 0) {
+            return new Result(null, false, "Invalid file name " + path);
+        }
+        String response = request("CONVERT " + path);
+        if (response.startsWith("OK converted ")) {
+            return new Result(new File(response.substring("OK converted ".length())), true, null);
+        }
+        if (response.startsWith("OK unchanged ")) {
+            return new Result(new File(response.substring("OK unchanged ".length())), false, null);
+        }
+        return new Result(null, false, errorMessage(response));
+    }
+
+    /** Convert XS read from r to XML written to pw, in the daemon - the reader is closed */
+    void convert(Reader r, PrintWriter pw) throws XSException, IOException {
+        BufferedReader br = new BufferedReader(r);
+        String s;
+        try {
+            out.write("STREAM\n");
+            StringBuilder line = new StringBuilder();
+            while ((s = br.readLine()) != null) {
+                line.setLength(0);
+                if (s.startsWith(".")) {
+                    line.append('.');
+                }
+                out.write(line.append(s).append('\n').toString());
+            }
+            out.write(".\n");
+            out.flush();
+        } finally {
+            br.close();
+        }
+
+        String response = readResponse();
+        if (!"OK".equals(response)) {
+            throw new XSException(errorMessage(response));
+        }
+        String xml = XSDaemon.readContent(in);
+        if (xml == null) {
+            throw new EOFException("Connection closed by the daemon");
+        }
+        // lines are written with the local line separator, as in a local conversion
+        BufferedReader lines = new BufferedReader(new StringReader(xml));
+        while ((s = lines.readLine()) != null) {
+            pw.println(s);
+        }
+        pw.flush();
+    }
+
+    /** Ask the daemon to stop */
+    void stop() throws IOException {
+        request("STOP");
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private String request(String line) throws IOException {
+        out.write(line);
+        out.write('\n');
+        out.flush();
+        return readResponse();
+    }
+
+    private String readResponse() throws IOException {
+        String response = in.readLine();
+        if (response == null) {
+            throw new EOFException("Connection closed by the daemon");
+        }
+        return response;
+    }
+
+    private static String errorMessage(String response) {
+        return response.startsWith("ERROR ") ? response.substring("ERROR ".length()) : "Unexpected response '" + response + "'";
+    }
+
+}
@@ -0,0 +1,180 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.util.*;
+
+
+/**
+ *  XSConfig is an immutable conversion configuration:
+ *  abbreviations map, spaces equivalent to a tab and output options.
+ *
+ *  A configuration is created with a builder and compiled into an XSConverter,
+ *  that can be shared by threads:
+ *
+ *  XSConverter converter = XSConfig.builder()
+ *      .putAbbreviation("tag", "RootTag")
+ *      .tabSpaces(2)
+ *      .build()
+ *      .compile();
+ *
+ *  The defaults are the ones of a new XS instance.
+ *
+ *  @author Miguel L. Pardal
+ */
+public final class XSConfig {
+
+    private final Map<String,String> abvMap;
+    private final int tabSpaces;
+    private final boolean indentWithSpaces;
+    private final boolean oneAttributePerLine;
+
+
+    private XSConfig(Builder builder) {
+        this.abvMap = Collections.unmodifiableMap(new LinkedHashMap<String,String>(builder.abvMap));
+        this.tabSpaces = builder.tabSpaces;
+        this.indentWithSpaces = builder.indentWithSpaces;
+        this.oneAttributePerLine = builder.oneAttributePerLine;
+    }
+
+    /** Create a builder with the default configuration */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** Create a builder with this configuration, to make a modified copy */
+    public Builder toBuilder() {
+        Builder builder = new Builder();
+        builder.abvMap.clear();
+        builder.abvMap.putAll(abvMap);
+        builder.tabSpaces = tabSpaces;
+        builder.indentWithSpaces = indentWithSpaces;
+        builder.oneAttributePerLine = oneAttributePerLine;
+        return builder;
+    }
+
+    /** Compile the configuration into a converter that can be shared by threads */
+    public XSConverter compile() {
+        return new XSConverter(this);
+    }
+
+    /** Get abbreviations map (read-only) */
+    public Map<String,String> getAbvMap() {
+        return abvMap;
+    }
+
+    /** Get the number of spaces that are equivalent to a tab */
+    public int getTabSpaces() {
+        return tabSpaces;
+    }
+
+    /** print indentation as spaces? */
+    public boolean isIndentWithSpaces() {
+        return indentWithSpaces;
+    }
+
+    /** write one attribute per line? */
+    public boolean isOneAttributePerLine() {
+        return oneAttributePerLine;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof XSConfig)) {
+            return false;
+        }
+        XSConfig other = (XSConfig) o;
+        return tabSpaces == other.tabSpaces
+            && indentWithSpaces == other.indentWithSpaces
+            && oneAttributePerLine == other.oneAttributePerLine
+            && abvMap.equals(other.abvMap);
+    }
+
+    @Override
+    public int hashCode() {
+        int h = abvMap.hashCode();
+        h = 31 * h + tabSpaces;
+        h = 31 * h + (indentWithSpaces ? 1 : 0);
+        h = 31 * h + (oneAttributePerLine ? 1 : 0);
+        return h;
+    }
+
+    @Override
+    public String toString() {
+        return "XSConfig[tab=" + tabSpaces
+            + ",spaces=" + indentWithSpaces
+            + ",attPerLine=" + oneAttributePerLine
+            + ",abbreviations=" + abvMap.size() + "]";
+    }
+
+
+    /** XSConfig builder - not thread-safe, can build several configurations */
+    public static final class Builder {
+
+        private final Map<String,String> abvMap = new LinkedHashMap<String,String>();
+        private int tabSpaces = 4;
+        private boolean indentWithSpaces = true;
+        private boolean oneAttributePerLine = false;
+
+        private Builder() {
+            XS.putBuiltInAbbreviations(abvMap);
+        }
+
+        /** Add an abbreviation - used to expand tag, attribute and attribute values */
+        public Builder putAbbreviation(String abv, String expanded) {
+            abvMap.put(abv, expanded);
+            return this;
+        }
+
+        /** Add all the mappings of the given map to the abbreviations */
+        public Builder putAbbreviations(Map<String,String> abvMap) {
+            this.abvMap.putAll(abvMap);
+            return this;
+        }
+
+        /** Remove all abbreviations, including the built-in ones */
+        public Builder clearAbbreviations() {
+            abvMap.clear();
+            return this;
+        }
+
+        /** Set the number of spaces that are equivalent to a tab */
+        public Builder tabSpaces(int nr) {
+            if (nr < 0) {
+                String eMsg = String.format("The number of spaces equivalent to a tab cannot be %d!", nr);
+                throw new IllegalArgumentException(eMsg);
+            }
+            this.tabSpaces = nr;
+            return this;
+        }
+
+        /** print indentation as spaces? */
+        public Builder indentWithSpaces(boolean indentWithSpaces) {
+            this.indentWithSpaces = indentWithSpaces;
+            return this;
+        }
+
+        /** write one attribute per line? */
+        public Builder oneAttributePerLine(boolean oneAttributePerLine) {
+            this.oneAttributePerLine = oneAttributePerLine;
+            return this;
+        }
+
+        /** Create the configuration (later changes to the builder do not affect it) */
+        public XSConfig build() {
+            return new XSConfig(this);
+        }
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *  XSContext holds the state of one conversion at a time:
+ *  the parser, the output buffer and their buffers.
+ *
+ *  The configuration is given on each call, so a context can be
+ *  reused by converters with different settings.
+ *  It is not thread-safe: XS has its own context
+ *  and XSConverter lends a context to each concurrent call.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSContext {
+
+    /** output buffer of the stream mode, in bytes */
+    static final int STREAM_BUFFER_BYTES = 1 << 20;
+
+    /** line and indentation logic */
+    private final XSParser parser = new XSParser();
+
+    /** XML output buffer */
+    private final XSWriter out = new XSWriter();
+
+    /** line logic on memory-mapped UTF-8 files */
+    private final XSMappedParser mapped = new XSMappedParser(parser);
+
+    /** output buffers of the tee mode, after out */
+    private XSWriter[] teeWriters = new XSWriter[] { out };
+
+
+    /** Reads lines of XS language and writes lines of XML, closing the reader */
+    void convert(Reader r, PrintWriter pw, Map<String,String> abvMap, int tabSpaces,
+            boolean indentWithSpaces, boolean oneAttributePerLine) throws XSException, IOException {
+        try {
+            out.reset(pw, indentWithSpaces, tabSpaces, oneAttributePerLine);
+            parser.parse(r, out, abvMap, tabSpaces);
+
+        } catch(IOException ioe) {
+            throw new XSException(ioe);
+        } finally {
+            // write buffered output, including any output before an error
+            out.finish();
+            // close input stream
+            if (r != null) r.close();
+        }
+    }
+
+    /**
+     *  Reads lines of XS language once and writes lines of XML to each output,
+     *  with the options of the output, closing the reader
+     */
+    void convertTee(Reader r, List<XSOutput> outputs, Map<String,String> abvMap, int tabSpaces)
+            throws XSException, IOException {
+        int n = outputs.size();
+        if (n > teeWriters.length) {
+            XSWriter[] writers = Arrays.copyOf(teeWriters, n);
+            for (int i = teeWriters.length; i < n; i++) {
+                writers[i] = new XSWriter();
+            }
+            teeWriters = writers;
+        }
+        try {
+            for (int i = 0; i < n; i++) {
+                XSOutput output = outputs.get(i);
+                teeWriters[i].reset(output.getWriter(), output.isIndentWithSpaces(), output.getTabSpaces(),
+                    output.isOneAttributePerLine());
+            }
+            parser.parse(r, new XSTee(teeWriters, n), abvMap, tabSpaces);
+
+        } catch(IOException ioe) {
+            throw new XSException(ioe);
+        } finally {
+            try {
+                // write buffered output, including any output before an error
+                finish(teeWriters, 0, n);
+            } finally {
+                r.close();
+            }
+        }
+    }
+
+    /** finish the writers from start to end, even if one of them fails */
+    private static void finish(XSWriter[] writers, int start, int end) throws IOException {
+        if (start < end) {
+            try {
+                writers[start].finish();
+            } finally {
+                finish(writers, start + 1, end);
+            }
+        }
+    }
+
+    /** Reads lines of XS language into a compact document, closing the reader */
+    XSDocument parseDocument(Reader r, Map<String,String> abvMap, int tabSpaces) throws XSException, IOException {
+        try {
+            XSDocument.Builder builder = new XSDocument.Builder();
+            parser.parse(r, builder, abvMap, tabSpaces);
+            return builder.build();
+        } finally {
+            r.close();
+        }
+    }
+
+    /** Reads lines of XS language into a template, keeping its abbreviations, closing the reader */
+    XSTemplate compileTemplate(Reader r, int tabSpaces) throws XSException, IOException {
+        return new XSTemplate(parseDocument(r, null, tabSpaces));
+    }
+
+    /** Writes the lines of XML of a template, expanding its abbreviations with the given map */
+    void render(XSTemplate template, PrintWriter pw, Map<String,String> abvMap, int tabSpaces,
+            boolean indentWithSpaces, boolean oneAttributePerLine) throws XSException, IOException {
+        try {
+            out.reset(pw, indentWithSpaces, tabSpaces, oneAttributePerLine);
+            template.render(out, abvMap);
+        } finally {
+            out.finish();
+        }
+    }
+
+    /** Writes the lines of XML of a document */
+    void write(XSDocument document, PrintWriter pw, int tabSpaces,
+            boolean indentWithSpaces, boolean oneAttributePerLine) throws IOException {
+        try {
+            out.reset(pw, indentWithSpaces, tabSpaces, oneAttributePerLine);
+            document.write(out);
+        } finally {
+            out.finish();
+        }
+    }
+
+    /**
+     *  Reads lines of XS language and writes lines of XML to an output stream
+     *  (e.g. standard output), closing the reader but not the stream.
+     *  The output is written in large blocks and the stream is flushed as the policy says.
+     */
+    void convertStream(Reader r, OutputStream os, XSWriter.Flush flush, Map<String,String> abvMap, int tabSpaces,
+            boolean indentWithSpaces, boolean oneAttributePerLine) throws XSException, IOException {
+        Writer w = new OutputStreamWriter(new BufferedOutputStream(os, STREAM_BUFFER_BYTES));
+        try {
+            out.reset(w, indentWithSpaces, tabSpaces, oneAttributePerLine);
+            out.setFlush(flush);
+            try {
+                parser.parse(r, out, abvMap, tabSpaces);
+            } finally {
+                // write buffered output, including any output before an error
+                out.finish();
+                w.flush();
+            }
+        } catch(IOException ioe) {
+            throw new XSException(ioe);
+        } finally {
+            r.close();
+        }
+    }
+
+    /** Convert XS file to XML file, adding the written bytes to the digest (if not null) */
+    void convert(File xsFile, File xmlFile, MessageDigest digest, Map<String,String> abvMap, int tabSpaces,
+            boolean indentWithSpaces, boolean oneAttributePerLine) throws XSException, IOException {
+        FileReader fr = null;
+        PrintWriter pw = null;
+        try {
+            fr = new FileReader(xsFile);
+            OutputStream os = new FileOutputStream(xmlFile);
+            if (digest != null) {
+                os = new DigestOutputStream(os, digest);
+            }
+            pw = new PrintWriter(new OutputStreamWriter(os));
+            convert(fr, pw, abvMap, tabSpaces, indentWithSpaces, oneAttributePerLine);
+        } catch(IOException ioe) {
+            throw new XSException(ioe);
+        } finally {
+            try {
+                if (fr != null) fr.close();
+            } catch(IOException ioe) {
+                // ignore
+            }
+            if (pw != null) pw.close();
+        }
+    }
+
+    /**
+     *  Convert UTF-8 XS file to UTF-8 XML file, adding the written bytes to the digest (if not null).
+     *  The source file is memory-mapped and text lines are copied without decoding,
+     *  so bytes that are not valid UTF-8 are copied as they are.
+     */
+    void convertUTF8(File xsFile, File xmlFile, MessageDigest digest, Map<String,String> abvMap, int tabSpaces,
+            boolean indentWithSpaces, boolean oneAttributePerLine) throws XSException, IOException {
+        FileInputStream fis = null;
+        FileOutputStream fos = null;
+        try {
+            fis = new FileInputStream(xsFile);
+            fos = new FileOutputStream(xmlFile);
+            WritableByteChannel channel = fos.getChannel();
+            if (digest != null) {
+                channel = Channels.newChannel(new DigestOutputStream(fos, digest));
+            }
+            try {
+                out.reset(channel, indentWithSpaces, tabSpaces, oneAttributePerLine);
+                mapped.parse(fis.getChannel(), out, abvMap, tabSpaces);
+            } finally {
+                // write buffered output, including any output before an error
+                out.finish();
+            }
+        } catch(IOException ioe) {
+            throw new XSException(ioe);
+        } finally {
+            try {
+                if (fis != null) fis.close();
+            } catch(IOException ioe) {
+                // ignore
+            }
+            if (fos != null) fos.close();
+        }
+    }
+
+}
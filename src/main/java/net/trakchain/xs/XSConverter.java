@@ -0,0 +1,239 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ *  XSConverter converts XS to XML with a fixed configuration (XSConfig).
+ *
+ *  Unlike XS, a converter is thread-safe and is meant to be created once
+ *  and shared, e.g. by the request threads of a service.
+ *  The configuration is immutable and the state of each conversion
+ *  (parser and output buffers) is in a context that is used by one call at a time.
+ *  Idle contexts are kept for reuse, so steady-state calls do not allocate buffers.
+ *
+ *  A converter created with an XSCache answers repeated Reader inputs from the cache.
+ *
+ *  @author Miguel L. Pardal
+ */
+public final class XSConverter {
+
+    /** maximum number of idle contexts kept for reuse */
+    private static final int MAX_IDLE = 2 * Runtime.getRuntime().availableProcessors();
+
+    private final XSConfig config;
+
+    /** generated XML by input, null if not caching */
+    private final XSCache cache;
+
+    /** contexts not in use */
+    private final Queue<XSContext> idle = new ConcurrentLinkedQueue<XSContext>();
+    private final AtomicInteger idleCount = new AtomicInteger();
+
+
+    /** Create a converter with the given configuration */
+    public XSConverter(XSConfig config) {
+        this(config, null);
+    }
+
+    /**
+     *  Create a converter with the given configuration
+     *  that keeps the XML of Reader inputs in the given cache (if not null)
+     */
+    public XSConverter(XSConfig config, XSCache cache) {
+        if (config == null) {
+            throw new IllegalArgumentException("Configuration cannot be null!");
+        }
+        this.config = config;
+        this.cache = cache;
+    }
+
+    /** Get the configuration of this converter */
+    public XSConfig getConfig() {
+        return config;
+    }
+
+    /** Get the cache of this converter, null if none */
+    public XSCache getCache() {
+        return cache;
+    }
+
+
+    // conversion --------------------------------------------------------------
+
+    /** Reads lines of XS language and writes lines of XML - the reader is closed */
+    public void convert(Reader r, PrintWriter pw) throws XSException, IOException {
+        if (cache != null) {
+            convertCached(r, pw);
+            return;
+        }
+        convertInput(r, pw);
+    }
+
+    private void convertInput(Reader r, PrintWriter pw) throws XSException, IOException {
+        XSContext context = acquire();
+        try {
+            context.convert(r, pw, config.getAbvMap(), config.getTabSpaces(),
+                config.isIndentWithSpaces(), config.isOneAttributePerLine());
+        } finally {
+            release(context);
+        }
+    }
+
+    /**
+     *  Reads lines of XS language once and writes lines of XML to each output,
+     *  formatted with the options of the output (see XS.convertTee) - the reader is closed.
+     *  The input is read with the configured abbreviations and tab spaces.
+     */
+    public void convertTee(Reader r, List<XSOutput> outputs) throws XSException, IOException {
+        XSContext context = acquire();
+        try {
+            context.convertTee(r, outputs, config.getAbvMap(), config.getTabSpaces());
+        } finally {
+            release(context);
+        }
+    }
+
+    /**
+     *  Writes the lines of XML of a template (see XS.compileTemplate),
+     *  expanding its abbreviations with the configured map
+     */
+    public void render(XSTemplate template, PrintWriter pw) throws XSException, IOException {
+        XSContext context = acquire();
+        try {
+            context.render(template, pw, config.getAbvMap(), config.getTabSpaces(),
+                config.isIndentWithSpaces(), config.isOneAttributePerLine());
+        } finally {
+            release(context);
+        }
+    }
+
+    /** Convert XS file to XML file - destination file will be overwritten */
+    public File convert(File xsFile, File xmlFile) throws XSException, IOException {
+        XSContext context = acquire();
+        try {
+            context.convert(xsFile, xmlFile, null, config.getAbvMap(), config.getTabSpaces(),
+                config.isIndentWithSpaces(), config.isOneAttributePerLine());
+        } finally {
+            release(context);
+        }
+        return xmlFile;
+    }
+
+    /**
+     *  Convert UTF-8 XS file to UTF-8 XML file - destination file will be overwritten.
+     *  The source file is memory-mapped and text lines are copied without decoding,
+     *  so bytes that are not valid UTF-8 are copied as they are
+     *  (convert(File, File) decodes them with the platform charset).
+     */
+    public File convertUTF8(File xsFile, File xmlFile) throws XSException, IOException {
+        XSContext context = acquire();
+        try {
+            context.convertUTF8(xsFile, xmlFile, null, config.getAbvMap(), config.getTabSpaces(),
+                config.isIndentWithSpaces(), config.isOneAttributePerLine());
+        } finally {
+            release(context);
+        }
+        return xmlFile;
+    }
+
+
+    // cache -------------------------------------------------------------------
+
+    /** read the whole input to look it up in the cache and convert it only on a miss */
+    private void convertCached(Reader r, PrintWriter pw) throws XSException, IOException {
+        String input;
+        try {
+            input = readAll(r);
+        } catch(IOException ioe) {
+            throw new XSException(ioe);
+        } finally {
+            r.close();
+        }
+
+        XSCache.Key key = new XSCache.Key(hash(input), config);
+        String xml = cache.get(key);
+        if (xml == null) {
+            StringWriter sw = new StringWriter(input.length() + input.length() / 4);
+            boolean converted = false;
+            try {
+                convertInput(new StringReader(input), new PrintWriter(sw));
+                converted = true;
+            } finally {
+                if (!converted) {
+                    // output before an error, as in an uncached conversion
+                    pw.write(sw.toString());
+                }
+            }
+            xml = sw.toString();
+            cache.put(key, xml);
+        }
+        pw.write(xml);
+    }
+
+    private static String readAll(Reader r) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[8192];
+        int n;
+        while ((n = r.read(buffer)) >= 0) {
+            sb.append(buffer, 0, n);
+        }
+        return sb.toString();
+    }
+
+    /** SHA-256 of the UTF-16 characters (unpaired surrogates are hashed as they are) */
+    private static byte[] hash(String input) {
+        MessageDigest digest = XSManifest.newDigest();
+        byte[] chunk = new byte[Math.min(2 * input.length(), 8192)];
+        int n = 0;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            chunk[n++] = (byte) (c >>> 8);
+            chunk[n++] = (byte) c;
+            if (n == chunk.length) {
+                digest.update(chunk, 0, n);
+                n = 0;
+            }
+        }
+        digest.update(chunk, 0, n);
+        return digest.digest();
+    }
+
+
+    // contexts ----------------------------------------------------------------
+
+    /** take an idle context or create a new one */
+    private XSContext acquire() {
+        XSContext context = idle.poll();
+        if (context == null) {
+            return new XSContext();
+        }
+        idleCount.decrementAndGet();
+        return context;
+    }
+
+    /** keep the context for reuse, unless there are enough idle contexts */
+    private void release(XSContext context) {
+        if (idleCount.incrementAndGet() <= MAX_IDLE) {
+            idle.offer(context);
+        } else {
+            idleCount.decrementAndGet();
+        }
+    }
+
+}
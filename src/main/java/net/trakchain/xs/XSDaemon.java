@@ -0,0 +1,303 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.*;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ *  XSDaemon keeps converters running and serves conversion requests
+ *  on a Unix domain socket, so that build scripts do not pay
+ *  JVM startup and warm up for every file (see XSClient).
+ *
+ *  The protocol is line based (UTF-8, \n terminated)
+ *  and can be used with local tools, e.g. nc -U socket:
+ *
+ *  PING                  PONG
+ *  CONVERT /dir/a.xs     OK converted /dir/a.xml  |  OK unchanged /dir/a.xml  |  ERROR message
+ *  STREAM                OK, XML lines, .         |  ERROR message
+ *  XS lines
+ *  .
+ *  STOP                  OK
+ *
+ *  Streamed lines that start with . are sent with an extra . (as in SMTP)
+ *  and the content ends with a line with a single dot.
+ *  A connection can send any number of requests.
+ *
+ *  The daemon converts files with the rights of the user that started it,
+ *  so the socket file is readable and writable by that user only (rw-------).
+ *  It is bound in a new directory that only that user can enter (rwx------,
+ *  created next to the socket path), restricted, and then moved to the socket path,
+ *  so other users never see it with wider permissions.
+ *  Where the file system has no POSIX permissions, place the socket in a private directory.
+ *
+ *  Requests are served by worker threads with their own converter,
+ *  configured as the XS instance that started the daemon
+ *  (abbreviations, options, incremental mode and cache).
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSDaemon {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final XS template;
+    private final Path socket;
+    private final PrintStream log;
+
+    private ServerSocketChannel server;
+    private volatile boolean stopping;
+
+    /** open connections, closed when the daemon stops */
+    private final Set<SocketChannel> connections = Collections.newSetFromMap(new ConcurrentHashMap<SocketChannel,Boolean>());
+
+
+    XSDaemon(XS template, Path socket, PrintStream log) {
+        this.template = template;
+        this.socket = socket;
+        this.log = log;
+    }
+
+    /** Serve requests until a STOP request */
+    void run() throws IOException {
+        bind();
+        log.println("Listening on " + socket + "...");
+
+        final ThreadLocal<XS> workers = template.newWorkers();
+        ExecutorService pool = Executors.newCachedThreadPool();
+        try {
+            while (!stopping) {
+                final SocketChannel channel;
+                try {
+                    channel = server.accept();
+                } catch(ClosedChannelException cce) {
+                    // stopped
+                    break;
+                }
+                connections.add(channel);
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            serve(channel, workers.get());
+                        } catch(IOException ioe) {
+                            if (!stopping) {
+                                log.println("Error: " + ioe.getMessage());
+                            }
+                        } finally {
+                            connections.remove(channel);
+                            close(channel);
+                        }
+                    }
+                });
+            }
+        } finally {
+            stop();
+            pool.shutdown();
+            try {
+                pool.awaitTermination(10, TimeUnit.SECONDS);
+            } catch(InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            Files.deleteIfExists(socket);
+        }
+    }
+
+    /**
+     *  bind the socket, replacing a socket file left by a daemon that is not running.
+     *  The socket is bound in a new directory that only the owner can enter,
+     *  restricted to the owner and then moved to its path,
+     *  so no other user can connect before it is restricted.
+     */
+    private void bind() throws IOException {
+        UnixDomainSocketAddress address = UnixDomainSocketAddress.of(socket);
+        if (Files.exists(socket)) {
+            if (isListening(address)) {
+                throw new IOException("A daemon is already listening on " + socket);
+            }
+            // stale socket file
+            Files.delete(socket);
+        }
+        Path parent = socket.toAbsolutePath().getParent();
+        Path privateDir;
+        try {
+            privateDir = Files.createTempDirectory(parent, ".xs",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rwx------")));
+        } catch(UnsupportedOperationException uoe) {
+            // no POSIX permissions (e.g. Windows), the directory of the socket protects it
+            privateDir = Files.createTempDirectory(parent, ".xs");
+        }
+        Path bound = privateDir.resolve("s");
+        server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(bound));
+            try {
+                Files.setPosixFilePermissions(bound, PosixFilePermissions.fromString("rw-------"));
+            } catch(UnsupportedOperationException uoe) {
+                // no POSIX permissions
+            }
+            Files.move(bound, socket, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException ioe) {
+            close(server);
+            Files.deleteIfExists(bound);
+            throw ioe;
+        } finally {
+            Files.deleteIfExists(privateDir);
+        }
+    }
+
+    private static boolean isListening(UnixDomainSocketAddress address) {
+        try {
+            SocketChannel.open(address).close();
+            return true;
+        } catch(IOException ioe) {
+            return false;
+        }
+    }
+
+    /** Stop accepting requests and close the open connections */
+    void stop() {
+        stopping = true;
+        if (server != null) {
+            close(server);
+        }
+        for (SocketChannel channel : connections) {
+            close(channel);
+        }
+    }
+
+    private static void close(Channel channel) {
+        try {
+            channel.close();
+        } catch(IOException ioe) {
+            // ignore
+        }
+    }
+
+
+    // requests ----------------------------------------------------------------
+
+    /** serve the requests of one connection */
+    private void serve(SocketChannel channel, XS worker) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), UTF_8));
+        Writer out = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(channel), UTF_8));
+        String line;
+        while (!stopping && (line = in.readLine()) != null) {
+            int space = line.indexOf(' ');
+            String command = space < 0 ? line : line.substring(0, space);
+            String argument = space < 0 ? "" : line.substring(space + 1);
+
+            if ("PING".equals(command)) {
+                out.write("PONG\n");
+            } else if ("CONVERT".equals(command)) {
+                out.write(convert(worker, argument));
+            } else if ("STREAM".equals(command)) {
+                stream(worker, in, out);
+            } else if ("STOP".equals(command)) {
+                out.write("OK\n");
+                out.flush();
+                log.println("Stopping...");
+                stop();
+                return;
+            } else if (!line.isEmpty()) {
+                out.write(error("Unknown command '" + command + "'"));
+            }
+            out.flush();
+        }
+    }
+
+    /** convert a file, as in the command line */
+    private static String convert(XS worker, String path) {
+        try {
+            File file = new File(path);
+            File destFile = worker.checkFileArg(file);
+            boolean converted = worker.convertFileArg(file, destFile);
+            return "OK " + (converted ? "converted " : "unchanged ") + destFile.getPath() + "\n";
+        } catch(Exception e) {
+            return error(e.getMessage());
+        }
+    }
+
+    /** convert streamed content, answering with the whole output or an error */
+    private static void stream(XS worker, BufferedReader in, Writer out) throws IOException {
+        String input = readContent(in);
+        if (input == null) {
+            // connection closed in the middle of the content
+            return;
+        }
+        StringWriter xml = new StringWriter(input.length() + input.length() / 4);
+        try {
+            worker.convert(new StringReader(input), new PrintWriter(xml));
+        } catch(XSException xse) {
+            out.write(error(xse.getMessage()));
+            return;
+        }
+        out.write("OK\n");
+        writeContent(xml.toString(), out);
+    }
+
+    private static String error(String message) {
+        String text = (message == null) ? "Conversion failed" : message.replace('\n', ' ').replace('\r', ' ');
+        return "ERROR " + text + "\n";
+    }
+
+
+    // content -----------------------------------------------------------------
+
+    /** Read dot-terminated content lines, returns null at end of stream */
+    static String readContent(BufferedReader in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (line.equals(".")) {
+                return sb.toString();
+            }
+            if (line.startsWith(".")) {
+                line = line.substring(1);
+            }
+            sb.append(line).append('\n');
+        }
+        return null;
+    }
+
+    /** Write text as dot-terminated content lines */
+    static void writeContent(String text, Writer out) throws IOException {
+        int start = 0;
+        int length = text.length();
+        while (start < length) {
+            int end = start;
+            while (end < length && text.charAt(end) != '\n' && text.charAt(end) != '\r') {
+                end++;
+            }
+            if (text.charAt(start) == '.') {
+                out.write('.');
+            }
+            out.write(text, start, end - start);
+            out.write('\n');
+            if (end < length && text.charAt(end) == '\r' && end + 1 < length && text.charAt(end + 1) == '\n') {
+                end++;
+            }
+            start = end + 1;
+        }
+        out.write(".\n");
+    }
+
+}
@@ -0,0 +1,269 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ *  XSDiskCache is a directory of converted XML files, addressed by content,
+ *  shared by command line runs (e.g. the builds of a CI machine).
+ *
+ *  The key of an entry is the hash of the source file contents,
+ *  of the abbreviations map, of the output options (with the charset and line separator
+ *  the output is written with) and of the tool version.
+ *  Entries are stored as dir/ab/abcd...ef.xml and are written to a temporary
+ *  file first, so concurrent runs never read a partial entry.
+ *
+ *  On a hit the entry is copied to the output (not linked,
+ *  so editing an output cannot change the cache) and its modification time
+ *  is updated; trim removes the entries least recently used first
+ *  until the cache fits its size limit.
+ *
+ *  Instances are thread-safe.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSDiskCache {
+
+    /** default size limit */
+    static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+    /** changes when the layout of the cache or the conversion output changes */
+    private static final String FORMAT = "xs-cache 1";
+
+    private static final String EXT = ".xml";
+    private static final String TMP_EXT = ".tmp";
+
+    /** temporary files left by interrupted runs are removed after this age */
+    private static final long STALE_TMP_MILLIS = 24L * 60 * 60 * 1000;
+
+    private final File dir;
+    private final long maxBytes;
+    private final String version;
+
+    // statistics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long evictions;
+    private long entries;
+    private long bytes;
+
+
+    XSDiskCache(File dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.version = toolVersion();
+    }
+
+    /** Key of the conversion of a source with the given hashes and options */
+    String key(String sourceHash, String abvHash, String options) {
+        return XSManifest.hash(FORMAT, version, sourceHash, abvHash, options);
+    }
+
+    private File entry(String key) {
+        return new File(new File(dir, key.substring(0, 2)), key + EXT);
+    }
+
+    /**
+     *  Copy the entry of the given key to the XML file, adding the written bytes
+     *  to the digest (if not null), returns false if there is no entry
+     */
+    boolean get(String key, File xmlFile, MessageDigest digest) throws IOException {
+        File entry = entry(key);
+        InputStream in;
+        try {
+            in = new FileInputStream(entry);
+        } catch(FileNotFoundException fnfe) {
+            misses.incrementAndGet();
+            return false;
+        }
+        try {
+            OutputStream out = new FileOutputStream(xmlFile);
+            if (digest != null) {
+                out = new DigestOutputStream(out, digest);
+            }
+            try {
+                copy(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        // recently used
+        entry.setLastModified(System.currentTimeMillis());
+        hits.incrementAndGet();
+        return true;
+    }
+
+    /** Store the XML file as the entry of the given key */
+    void put(String key, File xmlFile) throws IOException {
+        File entry = entry(key);
+        File parent = entry.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Could not create cache directory " + parent);
+        }
+        File temp = File.createTempFile(key.substring(0, 8), TMP_EXT, parent);
+        try {
+            InputStream in = new FileInputStream(xmlFile);
+            try {
+                OutputStream out = new FileOutputStream(temp);
+                try {
+                    copy(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+            Files.move(temp.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+    }
+
+    /** Remove the least recently used entries until the cache fits its size limit */
+    synchronized void trim() throws IOException {
+        List<File> files = new ArrayList<File>();
+        long total = 0;
+        long now = System.currentTimeMillis();
+        File[] subdirs = dir.listFiles();
+        if (subdirs != null) {
+            for (File subdir : subdirs) {
+                File[] children = subdir.listFiles();
+                if (children == null) {
+                    continue;
+                }
+                for (File file : children) {
+                    String name = file.getName();
+                    if (name.endsWith(EXT)) {
+                        files.add(file);
+                        total += file.length();
+                    } else if (name.endsWith(TMP_EXT) && now - file.lastModified() > STALE_TMP_MILLIS) {
+                        file.delete();
+                    }
+                }
+            }
+        }
+
+        // least recently used first
+        final Map<File,Long> used = new HashMap<File,Long>();
+        for (File file : files) {
+            used.put(file, file.lastModified());
+        }
+        Collections.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return used.get(a).compareTo(used.get(b));
+            }
+        });
+        int count = files.size();
+        for (Iterator<File> it = files.iterator(); total > maxBytes && it.hasNext(); ) {
+            File file = it.next();
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                count--;
+                evictions++;
+            }
+        }
+        entries = count;
+        bytes = total;
+    }
+
+    /** Statistics line, e.g. for the end of a command line run (after trim) */
+    synchronized String stats() {
+        return String.format("Cache: %d hits, %d misses, %d evicted (%d entries, %s of %s)",
+            hits.get(), misses.get(), evictions, entries, size(bytes), size(maxBytes));
+    }
+
+    long getHits() {
+        return hits.get();
+    }
+
+    long getMisses() {
+        return misses.get();
+    }
+
+    synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /** human-readable size */
+    static String size(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        }
+        if (bytes < 1024L * 1024 * 1024) {
+            return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+        }
+        return String.format(Locale.ROOT, "%.1f GB", bytes / (1024.0 * 1024 * 1024));
+    }
+
+    /** Parse a size with an optional K, M or G suffix, returns -1 if invalid */
+    static long parseSize(String value) {
+        long unit = 1;
+        String digits = value;
+        if (!value.isEmpty()) {
+            switch (Character.toUpperCase(value.charAt(value.length() - 1))) {
+                case 'K': unit = 1024L; break;
+                case 'M': unit = 1024L * 1024; break;
+                case 'G': unit = 1024L * 1024 * 1024; break;
+                default: break;
+            }
+            if (unit > 1) {
+                digits = value.substring(0, value.length() - 1);
+            }
+        }
+        try {
+            long n = Long.parseLong(digits);
+            return (n < 0 || n > Long.MAX_VALUE / unit) ? -1 : n * unit;
+        } catch(NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /** version of the tool, as recorded by the build */
+    private static String toolVersion() {
+        Properties properties = new Properties();
+        InputStream in = XSDiskCache.class.getResourceAsStream("xs.properties");
+        if (in != null) {
+            try {
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch(IOException ioe) {
+                // unknown version
+            }
+        }
+        return properties.getProperty("version", "unknown");
+    }
+
+}
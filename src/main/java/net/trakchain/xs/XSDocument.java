@@ -0,0 +1,500 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ *  XSDocument is a compact, read-only tree of a parsed XS document
+ *  (see XS.parseDocument), for programs that inspect large documents.
+ *
+ *  Nodes are numbers, from 0 (the document node) in document order,
+ *  and their fields are kept in parallel arrays
+ *  (kind, parent, first child, next sibling, indentation, name and content)
+ *  instead of one object per node.
+ *  Text, comment, preamble and DTD lines and attribute values
+ *  are ranges of one shared String (one byte per char when the text is Latin-1),
+ *  and element and attribute names are numbers in a table of names.
+ *
+ *  Names and values are stored with abbreviations already expanded.
+ *  Lines are stored as written (including their indentation)
+ *  and the document can be written back as the XML that XS.convert writes.
+ *  It can also be saved to a snapshot file and loaded again
+ *  by mapping the file to memory, without parsing.
+ *
+ *  The tree can be read by several threads.
+ *
+ *  @author Miguel L. Pardal
+ */
+public final class XSDocument {
+
+    /** No node */
+    public static final int NONE = -1;
+
+    /** Node kinds */
+    public enum Kind {
+        /** the document node (node 0), parent of the top-level lines */
+        DOCUMENT,
+        /** element with its attributes */
+        ELEMENT,
+        /** text line */
+        TEXT,
+        /** XML comment line */
+        COMMENT,
+        /** processing instruction line, e.g. the XML declaration */
+        PREAMBLE,
+        /** DTD or other markup declaration line */
+        DTD
+    }
+
+    private static final Kind[] KINDS = Kind.values();
+
+    /** flag of elements written as empty tags */
+    private static final byte EMPTY = (byte) 0x80;
+
+    final int size;
+
+    /** kind ordinal, with the EMPTY flag */
+    final ByteBuffer kind;
+    final IntBuffer parent;
+    final IntBuffer firstChild;
+    final IntBuffer nextSibling;
+    final IntBuffer indent;
+
+    /** elements: name number; other nodes: unused */
+    final IntBuffer name;
+    /** elements: first and end attribute; lines: first and end char */
+    final IntBuffer start;
+    final IntBuffer end;
+
+    /** attributes: name number and value chars */
+    final int attCount;
+    final IntBuffer attName;
+    final IntBuffer attValueStart;
+    final IntBuffer attValueEnd;
+
+    /** shared text of lines and attribute values */
+    final CharSequence text;
+
+    /** names by number */
+    final String[] names;
+
+
+    private XSDocument(Builder b) {
+        this(b.size, ByteBuffer.wrap(Arrays.copyOf(b.kind, b.size)),
+            wrap(b.parent, b.size), wrap(b.firstChild, b.size), wrap(b.nextSibling, b.size),
+            wrap(b.indent, b.size), wrap(b.name, b.size), wrap(b.start, b.size), wrap(b.end, b.size),
+            b.attCount, wrap(b.attName, b.attCount), wrap(b.attValueStart, b.attCount), wrap(b.attValueEnd, b.attCount),
+            b.text.toString(), b.names.toArray(new String[0]));
+    }
+
+    /** Tree on the given columns, in memory or mapped from a snapshot (see XSSnapshot) */
+    XSDocument(int size, ByteBuffer kind, IntBuffer parent, IntBuffer firstChild, IntBuffer nextSibling,
+            IntBuffer indent, IntBuffer name, IntBuffer start, IntBuffer end,
+            int attCount, IntBuffer attName, IntBuffer attValueStart, IntBuffer attValueEnd,
+            CharSequence text, String[] names) {
+        this.size = size;
+        this.kind = kind;
+        this.parent = parent;
+        this.firstChild = firstChild;
+        this.nextSibling = nextSibling;
+        this.indent = indent;
+        this.name = name;
+        this.start = start;
+        this.end = end;
+        this.attCount = attCount;
+        this.attName = attName;
+        this.attValueStart = attValueStart;
+        this.attValueEnd = attValueEnd;
+        this.text = text;
+        this.names = names;
+    }
+
+    private static IntBuffer wrap(int[] column, int length) {
+        return IntBuffer.wrap(Arrays.copyOf(column, length));
+    }
+
+
+    // navigation --------------------------------------------------------------
+
+    /** Number of nodes, including the document node */
+    public int size() {
+        return size;
+    }
+
+    /** The document node */
+    public int getRoot() {
+        return 0;
+    }
+
+    /** The first top-level element, NONE if there is none */
+    public int getDocumentElement() {
+        return getChild(0, null);
+    }
+
+    public Kind getKind(int node) {
+        return KINDS[kind.get(node) & ~EMPTY];
+    }
+
+    /** Parent node, NONE for the document node */
+    public int getParent(int node) {
+        return parent.get(node);
+    }
+
+    /** First child node, NONE if there are no children */
+    public int getFirstChild(int node) {
+        return firstChild.get(node);
+    }
+
+    /** Next node with the same parent, NONE if it is the last one */
+    public int getNextSibling(int node) {
+        return nextSibling.get(node);
+    }
+
+    /** First child element with the given name (any name if null), NONE if there is none */
+    public int getChild(int node, String elementName) {
+        for (int child = firstChild.get(node); child != NONE; child = nextSibling.get(child)) {
+            if (getKind(child) == Kind.ELEMENT && (elementName == null || elementName.equals(names[name.get(child)]))) {
+                return child;
+            }
+        }
+        return NONE;
+    }
+
+    /** Indentation level of the line of the node */
+    public int getIndent(int node) {
+        return indent.get(node);
+    }
+
+    /** Element name, null for other nodes */
+    public String getName(int node) {
+        return getKind(node) == Kind.ELEMENT ? names[name.get(node)] : null;
+    }
+
+    /** Was the element written as an empty tag? */
+    public boolean isEmptyElement(int node) {
+        return (kind.get(node) & EMPTY) != 0;
+    }
+
+    /** Number of attributes of an element (0 for other nodes) */
+    public int getAttributeCount(int node) {
+        return getKind(node) == Kind.ELEMENT ? end.get(node) - start.get(node) : 0;
+    }
+
+    public String getAttributeName(int node, int i) {
+        return names[attName.get(attribute(node, i))];
+    }
+
+    public String getAttributeValue(int node, int i) {
+        int att = attribute(node, i);
+        return text.subSequence(attValueStart.get(att), attValueEnd.get(att)).toString();
+    }
+
+    /** Value of the attribute with the given name, null if the element does not have it */
+    public String getAttribute(int node, String attributeName) {
+        for (int i = 0; i < getAttributeCount(node); i++) {
+            if (getAttributeName(node, i).equals(attributeName)) {
+                return getAttributeValue(node, i);
+            }
+        }
+        return null;
+    }
+
+    private int attribute(int node, int i) {
+        if (i < 0 || i >= getAttributeCount(node)) {
+            throw new IndexOutOfBoundsException("Attribute " + i + " of node " + node);
+        }
+        return start.get(node) + i;
+    }
+
+    /** The line of a text, comment, preamble or DTD node as written (null for elements and the document) */
+    public String getText(int node) {
+        Kind k = getKind(node);
+        if (k == Kind.ELEMENT || k == Kind.DOCUMENT) {
+            return null;
+        }
+        return text.subSequence(start.get(node), end.get(node)).toString();
+    }
+
+
+    // snapshots ---------------------------------------------------------------
+
+    /**
+     *  Save the document to a binary snapshot file,
+     *  that can be loaded again with load (see XSSnapshot for the format)
+     */
+    public void save(File file) throws IOException {
+        XSSnapshot.save(this, file);
+    }
+
+    /**
+     *  Load a document from a snapshot file.
+     *  The file is mapped to memory and nodes are read from it when they are visited,
+     *  so loading does not depend on the size of the document.
+     *  Files larger than 2 GB are mapped in several regions; a document can have
+     *  at most 2^29 nodes and 2^29 attributes and 2^31-1 chars of text.
+     *  The file must not be changed while the document is used.
+     */
+    public static XSDocument load(File file) throws IOException {
+        return XSSnapshot.load(file);
+    }
+
+
+    // output ------------------------------------------------------------------
+
+    /** Write the XML lines of the document, in the order they were parsed */
+    void write(XSWriter out) throws IOException {
+        try {
+            write(out, null);
+        } catch(XSException xse) {
+            // only templates expand abbreviations
+            throw new IllegalStateException(xse);
+        }
+    }
+
+    /**
+     *  Write the XML lines of the document.
+     *  If abvMap is not null, the document is a template (see XSTemplate)
+     *  and its abbreviations are expanded as they are written, in the order of the parser.
+     */
+    void write(XSWriter out, Map<String,String> abvMap) throws XSException, IOException {
+        // names of this output, expanded on first use
+        String[] expanded = (abvMap == null) ? names : new String[names.length];
+        int node = firstChild.get(0);
+        while (node != NONE) {
+            writeNode(node, out, expanded, abvMap);
+            if (getKind(node) == Kind.ELEMENT && firstChild.get(node) != NONE) {
+                node = firstChild.get(node);
+                continue;
+            }
+            if (getKind(node) == Kind.ELEMENT && !isEmptyElement(node)) {
+                out.endElement(indent.get(node), expanded[name.get(node)]);
+            }
+            // next node, closing the elements that end
+            while (nextSibling.get(node) == NONE && parent.get(node) != 0) {
+                node = parent.get(node);
+                out.endElement(indent.get(node), expanded[name.get(node)]);
+            }
+            node = nextSibling.get(node);
+        }
+    }
+
+    private void writeNode(int node, XSWriter out, String[] expanded, Map<String,String> abvMap)
+            throws XSException, IOException {
+        switch (getKind(node)) {
+            case ELEMENT:
+                int idt = indent.get(node);
+                out.startTag(idt, name(name.get(node), expanded, abvMap));
+                for (int att = start.get(node); att < end.get(node); att++) {
+                    String attributeName = name(attName.get(att), expanded, abvMap);
+                    int valueStart = attValueStart.get(att);
+                    int valueEnd = attValueEnd.get(att);
+                    String value = null;
+                    if (abvMap != null && valueStart < valueEnd && text.charAt(valueStart) == '$') {
+                        value = expand(text.subSequence(valueStart + 1, valueEnd).toString(), abvMap);
+                    }
+                    out.attributeSeparator(idt, att - start.get(node));
+                    out.write(attributeName);
+                    out.write("=\"");
+                    if (value != null) {
+                        out.write(value);
+                    } else {
+                        out.write(text, valueStart, valueEnd);
+                    }
+                    out.write('"');
+                }
+                out.finishTag(isEmptyElement(node));
+                break;
+            case TEXT:
+            case COMMENT:
+            case PREAMBLE:
+            case DTD:
+                // lines are written as they were read
+                out.write(text, start.get(node), end.get(node));
+                out.newLine();
+                break;
+            default:
+                throw new IllegalStateException("Unexpected node " + node);
+        }
+    }
+
+    /** name by number, expanded the first time it is used if it is an abbreviation of a template */
+    private String name(int number, String[] expanded, Map<String,String> abvMap) throws XSException {
+        String s = expanded[number];
+        if (s == null) {
+            s = names[number];
+            if (s.charAt(0) == '$') {
+                s = expand(s.substring(1), abvMap);
+            }
+            expanded[number] = s;
+        }
+        return s;
+    }
+
+    private static String expand(String key, Map<String,String> abvMap) throws XSException {
+        String s = abvMap.get(key);
+        if (s == null) {
+            // same error as the parser
+            throw XSParser.notDefined(key);
+        }
+        return s;
+    }
+
+
+    /**
+     *  Builder receives the lines of a document from the parser.
+     *  Arrays grow as nodes are added and are trimmed when the document is built.
+     */
+    static final class Builder implements XSHandler {
+
+        private int size;
+        private byte[] kind = new byte[64];
+        private int[] parent = new int[64];
+        private int[] firstChild = new int[64];
+        private int[] lastChild = new int[64];
+        private int[] nextSibling = new int[64];
+        private int[] indent = new int[64];
+        private int[] name = new int[64];
+        private int[] start = new int[64];
+        private int[] end = new int[64];
+
+        private int attCount;
+        private int[] attName = new int[64];
+        private int[] attValueStart = new int[64];
+        private int[] attValueEnd = new int[64];
+
+        private final StringBuilder text = new StringBuilder();
+
+        private final List<String> names = new ArrayList<String>();
+        private final Map<String,Integer> nameNumbers = new HashMap<String,Integer>();
+
+        /** innermost open element (or the document node) */
+        private int current;
+
+        Builder() {
+            current = add(Kind.DOCUMENT, NONE, 0);
+        }
+
+        XSDocument build() {
+            return new XSDocument(this);
+        }
+
+        /** add a node as the last child of its parent */
+        private int add(Kind k, int parentNode, int idt) {
+            if (size == kind.length) {
+                int capacity = size * 2;
+                kind = Arrays.copyOf(kind, capacity);
+                parent = Arrays.copyOf(parent, capacity);
+                firstChild = Arrays.copyOf(firstChild, capacity);
+                lastChild = Arrays.copyOf(lastChild, capacity);
+                nextSibling = Arrays.copyOf(nextSibling, capacity);
+                indent = Arrays.copyOf(indent, capacity);
+                name = Arrays.copyOf(name, capacity);
+                start = Arrays.copyOf(start, capacity);
+                end = Arrays.copyOf(end, capacity);
+            }
+            int node = size++;
+            kind[node] = (byte) k.ordinal();
+            parent[node] = parentNode;
+            firstChild[node] = NONE;
+            lastChild[node] = NONE;
+            nextSibling[node] = NONE;
+            indent[node] = idt;
+            name[node] = NONE;
+            if (parentNode != NONE) {
+                if (lastChild[parentNode] == NONE) {
+                    firstChild[parentNode] = node;
+                } else {
+                    nextSibling[lastChild[parentNode]] = node;
+                }
+                lastChild[parentNode] = node;
+            }
+            return node;
+        }
+
+        private int nameNumber(String s) {
+            Integer number = nameNumbers.get(s);
+            if (number == null) {
+                number = names.size();
+                names.add(s);
+                nameNumbers.put(s, number);
+            }
+            return number;
+        }
+
+        private void line(Kind k, int idt, char[] buf, int from, int to) {
+            int node = add(k, current, idt);
+            start[node] = text.length();
+            text.append(buf, from, to - from);
+            end[node] = text.length();
+        }
+
+        public void preamble(int idt, char[] buf, int from, int to) {
+            line(Kind.PREAMBLE, idt, buf, from, to);
+        }
+
+        public void dtd(int idt, char[] buf, int from, int to) {
+            line(Kind.DTD, idt, buf, from, to);
+        }
+
+        public void comment(int idt, char[] buf, int from, int to) {
+            line(Kind.COMMENT, idt, buf, from, to);
+        }
+
+        public void text(int idt, char[] buf, int from, int to) {
+            line(Kind.TEXT, idt, buf, from, to);
+        }
+
+        public void startElement(int idt, String tag, XSAttributes atts, boolean empty) {
+            int node = add(Kind.ELEMENT, current, idt);
+            name[node] = nameNumber(tag);
+            if (empty) {
+                kind[node] |= EMPTY;
+            }
+
+            int n = atts.getLength();
+            if (attCount + n > attName.length) {
+                int capacity = Math.max(attCount + n, attName.length * 2);
+                attName = Arrays.copyOf(attName, capacity);
+                attValueStart = Arrays.copyOf(attValueStart, capacity);
+                attValueEnd = Arrays.copyOf(attValueEnd, capacity);
+            }
+            start[node] = attCount;
+            for (int i = 0; i < n; i++) {
+                attName[attCount] = nameNumber(atts.getName(i));
+                attValueStart[attCount] = text.length();
+                atts.appendValue(text, i);
+                attValueEnd[attCount] = text.length();
+                attCount++;
+            }
+            end[node] = attCount;
+
+            if (!empty) {
+                current = node;
+            }
+        }
+
+        public void endElement(int idt, String tag) {
+            current = parent[current];
+        }
+
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.*;
+import org.xml.sax.*;
+import org.xml.sax.ext.DefaultHandler2;
+
+
+/**
+ *  XSDocumentBuilder builds a DOM Document from XS lines (see XS.toDocument),
+ *  without writing XML text and parsing it again.
+ *
+ *  The lines are parsed by an XSReader, so the nodes are the ones
+ *  a namespace aware DocumentBuilder creates for the output of XS.convert,
+ *  including the indentation whitespace, comments, CDATA sections,
+ *  processing instructions and the elements written inside text lines.
+ *  Element and attribute names are interned.
+ *
+ *  An instance is reused by its converter for each document and is not thread-safe.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSDocumentBuilder extends DefaultHandler2 {
+
+    private static final String PROPERTY_LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+    private static final String FEATURE_NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+
+    /** maximum number of names kept (as in XSSymbols) */
+    private static final int MAX_NAMES = 4096;
+
+    private final XSReader reader;
+    private final DocumentBuilder documentBuilder;
+
+    /** interned names, by the name given by the reader */
+    private final Map<String,String> names = new HashMap<String,String>();
+
+    // current document
+    private Document document;
+    private Node current;
+    private boolean inCDATA;
+
+
+    XSDocumentBuilder(XS xs) {
+        try {
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setNamespaceAware(true);
+            documentBuilder = dbf.newDocumentBuilder();
+
+            reader = new XSReader(xs);
+            // namespace declarations are attributes in the DOM
+            reader.setFeature(FEATURE_NAMESPACE_PREFIXES, true);
+            reader.setProperty(PROPERTY_LEXICAL_HANDLER, this);
+            reader.setContentHandler(this);
+        } catch(ParserConfigurationException pce) {
+            throw new IllegalStateException(pce);
+        } catch(SAXException se) {
+            throw new IllegalStateException(se);
+        }
+    }
+
+    /** Build the document for the XS lines read from r, closing the reader */
+    Document build(Reader r) throws XSException, IOException {
+        document = documentBuilder.newDocument();
+        // names were checked by the XS parser
+        document.setStrictErrorChecking(false);
+        current = document;
+        inCDATA = false;
+        try {
+            reader.parse(new InputSource(r));
+            document.setStrictErrorChecking(true);
+            return document;
+
+        } catch(SAXException se) {
+            if (se.getCause() instanceof XSException) {
+                // same error as convert
+                throw (XSException) se.getCause();
+            }
+            if (se instanceof SAXParseException) {
+                throw new XSException(se.getMessage(), se, ((SAXParseException) se).getLineNumber());
+            }
+            throw new XSException(se);
+        } finally {
+            document = null;
+            current = null;
+            r.close();
+        }
+    }
+
+    /** same String instance for equal names, in this and other documents */
+    private String name(String name) {
+        String interned = names.get(name);
+        if (interned == null) {
+            interned = name.intern();
+            if (names.size() < MAX_NAMES) {
+                names.put(interned, interned);
+            }
+        }
+        return interned;
+    }
+
+
+    // ContentHandler ----------------------------------------------------------
+
+    @Override
+    public void startElement(String uri, String localName, String qName, Attributes atts) {
+        Element element = document.createElementNS(uri.isEmpty() ? null : name(uri), name(qName));
+        for (int i = 0; i < atts.getLength(); i++) {
+            String attUri = atts.getURI(i);
+            String attName = atts.getQName(i);
+            if (attUri.isEmpty() && (attName.equals("xmlns") || attName.startsWith("xmlns:"))) {
+                attUri = XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+            }
+            element.setAttributeNS(attUri.isEmpty() ? null : name(attUri), name(attName), atts.getValue(i));
+        }
+        current.appendChild(element);
+        current = element;
+    }
+
+    @Override
+    public void endElement(String uri, String localName, String qName) {
+        current = current.getParentNode();
+    }
+
+    @Override
+    public void characters(char[] ch, int start, int length) {
+        String data = new String(ch, start, length);
+        Node last = current.getLastChild();
+        if (inCDATA) {
+            current.appendChild(document.createCDATASection(data));
+        } else if (last != null && last.getNodeType() == Node.TEXT_NODE) {
+            ((Text) last).appendData(data);
+        } else {
+            current.appendChild(document.createTextNode(data));
+        }
+    }
+
+    @Override
+    public void processingInstruction(String target, String data) {
+        current.appendChild(document.createProcessingInstruction(name(target), data));
+    }
+
+
+    // LexicalHandler ----------------------------------------------------------
+
+    @Override
+    public void comment(char[] ch, int start, int length) {
+        current.appendChild(document.createComment(new String(ch, start, length)));
+    }
+
+    @Override
+    public void startCDATA() {
+        inCDATA = true;
+    }
+
+    @Override
+    public void endCDATA() {
+        inCDATA = false;
+    }
+
+}
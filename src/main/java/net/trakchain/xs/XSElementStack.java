@@ -0,0 +1,73 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.util.Arrays;
+
+
+/**
+ *  XSElementStack keeps the open elements for tag closing control.
+ *
+ *  Each entry is an indentation level and a tag name,
+ *  stored in parallel arrays that grow as needed.
+ *  Unlike java.util.Stack it is not synchronized and does not box the indentation.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSElementStack {
+
+    private int[] indents = new int[16];
+    private String[] tags = new String[16];
+    private int size;
+
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /** indentation of the innermost open element */
+    int peekIndent() {
+        return indents[size - 1];
+    }
+
+    /** tag of the innermost open element */
+    String peekTag() {
+        return tags[size - 1];
+    }
+
+    void push(int indent, String tag) {
+        if (size == indents.length) {
+            indents = Arrays.copyOf(indents, size * 2);
+            tags = Arrays.copyOf(tags, size * 2);
+        }
+        indents[size] = indent;
+        tags[size] = tag;
+        size++;
+    }
+
+    /** removes the innermost open element and returns its tag */
+    String pop() {
+        size--;
+        String tag = tags[size];
+        tags[size] = null;
+        return tag;
+    }
+
+    void clear() {
+        Arrays.fill(tags, 0, size, null);
+        size = 0;
+    }
+
+}
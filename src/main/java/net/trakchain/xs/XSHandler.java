@@ -0,0 +1,47 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.IOException;
+
+
+/**
+ *  XSHandler receives the lines recognized by XSParser.
+ *
+ *  Pass-through lines (preamble, DTD, XML comment and text) are given whole,
+ *  including their indentation, as the characters from start to end of buf;
+ *  buf is the input buffer of the parser and is only valid during the call.
+ *  indent is the indentation level of the line.
+ *  Tag names and attributes are given with abbreviations already expanded.
+ *
+ *  @author Miguel L. Pardal
+ */
+interface XSHandler {
+
+    /** xml preamble line <? */
+    void preamble(int indent, char[] buf, int start, int end) throws XSException, IOException;
+
+    /** dtd line <! */
+    void dtd(int indent, char[] buf, int start, int end) throws XSException, IOException;
+
+    /** xml comment line <!-- (after closing the elements it ends) */
+    void comment(int indent, char[] buf, int start, int end) throws XSException, IOException;
+
+    /** tag line (after closing the elements it ends), empty tags are not ended */
+    void startElement(int indent, String tag, XSAttributes atts, boolean empty) throws XSException, IOException;
+
+    /** close an element that was started at the given indentation */
+    void endElement(int indent, String tag) throws XSException, IOException;
+
+    /** text line */
+    void text(int indent, char[] buf, int start, int end) throws XSException, IOException;
+
+}
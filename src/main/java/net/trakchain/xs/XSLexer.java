@@ -0,0 +1,285 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.util.Arrays;
+
+
+/**
+ *  XSLexer scans XS tag lines character by character.
+ *
+ *  It replaces the former tag and attribute regular expressions
+ *  and accepts exactly the same inputs:
+ *
+ *  tag name:   [$a-zA-Z_:][a-zA-Z0-9_:.]+ or $?[a-zA-Z]
+ *  tag:        < name \s*
+ *  attribute:  \s* name [=|\s+]? \s* "value" \s*
+ *
+ *  Like Matcher.find(), each find method searches forward from the given index
+ *  and records the offsets of the last match in its fields,
+ *  so a single instance is reused for all lines and no objects are created.
+ *  scanAttributes collects the offsets of all attributes of a tag line
+ *  in parallel arrays that only grow when a line has more attributes than ever before.
+ *  scanIndent finds the indentation level and the start of the content of any line.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSLexer {
+
+    /** start index of the matched name (tag or attribute) */
+    int nameStart;
+
+    /** end index (exclusive) of the matched name */
+    int nameEnd;
+
+    /** start index of the matched attribute value (after the opening quote) */
+    int valueStart;
+
+    /** end index (exclusive) of the matched attribute value (the closing quote) */
+    int valueEnd;
+
+    /** end index (exclusive) of the whole match, including trailing whitespace */
+    int end;
+
+    /** number of attributes found by scanAttributes */
+    int attCount;
+
+    /** attribute name and value offsets found by scanAttributes */
+    int[] attNameStart = new int[8];
+    int[] attNameEnd = new int[8];
+    int[] attValueStart = new int[8];
+    int[] attValueEnd = new int[8];
+
+
+    /** indentation level found by scanIndent */
+    int indent;
+
+    /** index of the first character after the indentation found by scanIndent */
+    int contentStart;
+
+
+    /**
+     *  Scan the leading tabs and spaces of a line in a single pass.
+     *  Each tab and each tabSpaces spaces are one level (spaces are ignored if tabSpaces is 0).
+     *  The content starts after the character that completes the last level,
+     *  so spaces that do not complete a level are part of the content.
+     */
+    void scanIndent(char[] line, int start, int end, int tabSpaces) {
+        int level = 0;
+        int spc = 0;
+        int content = start;
+        for (int idx = start; idx < end; idx++) {
+            char c = line[idx];
+            if ('\t' == c) {
+                level++;
+                content = idx + 1;
+            } else if (' ' == c) {
+                if (++spc == tabSpaces) {
+                    spc = 0;
+                    level++;
+                    content = idx + 1;
+                }
+            } else {
+                break;
+            }
+        }
+        indent = level;
+        contentStart = content;
+    }
+
+    /** Find the next tag starting at or after the given index and before index to */
+    boolean findTag(char[] s, int from, int to) {
+        for (int idx = from; idx < to; idx++) {
+            if (s[idx] == '<') {
+                int nEnd = nameEnd(s, idx + 1, to);
+                if (nEnd >= 0) {
+                    nameStart = idx + 1;
+                    nameEnd = nEnd;
+                    end = skipSpace(s, nEnd, to);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Find the next attribute name and quoted value starting at or after the given index and before index to */
+    boolean findAttribute(char[] s, int from, int to) {
+        int idx = from;
+        while (idx < to) {
+            int nStart = skipSpace(s, idx, to);
+            if (matchAttribute(s, nStart, to)) {
+                return true;
+            }
+            // a match attempt at any index up to nStart would skip the same
+            // whitespace and fail in the same way, so resume after it
+            idx = Math.max(idx, nStart) + 1;
+        }
+        return false;
+    }
+
+    /**
+     *  Find all attributes from the given index up to index to,
+     *  recording their offsets in the attribute arrays.
+     *  Returns false if the remaining text is not a sequence of attributes.
+     */
+    boolean scanAttributes(char[] s, int from, int to) {
+        attCount = 0;
+        int idx = from;
+        while (idx < to) {
+            if (!findAttribute(s, idx, to)) {
+                return false;
+            }
+            if (attCount == attNameStart.length) {
+                growAttributes();
+            }
+            attNameStart[attCount] = nameStart;
+            attNameEnd[attCount] = nameEnd;
+            attValueStart[attCount] = valueStart;
+            attValueEnd[attCount] = valueEnd;
+            attCount++;
+            idx = end;
+        }
+        return true;
+    }
+
+    /**
+     *  returns the index of the last attribute with the same name as the given attribute.
+     *  Repeated attributes used to be kept in a map, so the last value was written for all of them.
+     */
+    int lastOccurrence(char[] s, int att) {
+        int nStart = attNameStart[att];
+        int nLength = attNameEnd[att] - nStart;
+        for (int i = attCount - 1; i > att; i--) {
+            if (attNameEnd[i] - attNameStart[i] == nLength
+                    && regionMatches(s, attNameStart[i], nStart, nLength)) {
+                return i;
+            }
+        }
+        return att;
+    }
+
+    /** do the n characters of s at a and at b match? */
+    private static boolean regionMatches(char[] s, int a, int b, int n) {
+        for (int i = 0; i < n; i++) {
+            if (s[a + i] != s[b + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void growAttributes() {
+        int capacity = attNameStart.length * 2;
+        attNameStart = Arrays.copyOf(attNameStart, capacity);
+        attNameEnd = Arrays.copyOf(attNameEnd, capacity);
+        attValueStart = Arrays.copyOf(attValueStart, capacity);
+        attValueEnd = Arrays.copyOf(attValueEnd, capacity);
+    }
+
+    /** Match an attribute whose name begins exactly at the given index */
+    private boolean matchAttribute(char[] s, int idx, int to) {
+        int nEnd = nameEnd(s, idx, to);
+        if (nEnd < 0) {
+            return false;
+        }
+        // optional separator
+        int p = nEnd;
+        if (p < to) {
+            char c = s[p];
+            if (c == '=' || c == '|' || c == '+') {
+                p++;
+            }
+        }
+        p = skipSpace(s, p, to);
+        if (p >= to || s[p] != '"') {
+            return false;
+        }
+        // value up to the first closing quote
+        int vStart = p + 1;
+        for (p = vStart; p < to; p++) {
+            char c = s[p];
+            if (c == '"') {
+                nameStart = idx;
+                nameEnd = nEnd;
+                valueStart = vStart;
+                valueEnd = p;
+                end = skipSpace(s, p + 1, to);
+                return true;
+            }
+            if (isLineTerminator(c)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /** returns the end index of a name beginning at the given index or -1 if there is none */
+    private static int nameEnd(char[] s, int idx, int to) {
+        if (idx >= to) {
+            return -1;
+        }
+        char c = s[idx];
+        if (isNameStart(c) && idx + 1 < to && isNamePart(s[idx + 1])) {
+            // longest run of name characters
+            int p = idx + 2;
+            while (p < to && isNamePart(s[p])) {
+                p++;
+            }
+            return p;
+        }
+        if (isLetter(c)) {
+            // single letter name
+            return idx + 1;
+        }
+        return -1;
+    }
+
+    /** returns the index of the first non-whitespace character at or after idx */
+    private static int skipSpace(char[] s, int idx, int to) {
+        while (idx < to && isSpace(s[idx])) {
+            idx++;
+        }
+        return idx;
+    }
+
+
+    // character classes -------------------------------------------------------
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** [$a-zA-Z_:] */
+    private static boolean isNameStart(char c) {
+        return isLetter(c) || c == '$' || c == '_' || c == ':';
+    }
+
+    /** [a-zA-Z0-9_:.] */
+    private static boolean isNamePart(char c) {
+        return isLetter(c) || isDigit(c) || c == '_' || c == ':' || c == '.';
+    }
+
+    /** regular expression whitespace \s i.e. [ \t\n\x0B\f\r] */
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /** characters not matched by the regular expression dot */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+
+/**
+ *  XSManifest records how the XML files of a directory were converted,
+ *  so that incremental updates depend on content and not on modification times.
+ *
+ *  The manifest is a text file (.xs-manifest) next to the outputs.
+ *  Each line holds the hashes of the source file, of the abbreviations map,
+ *  the conversion options and the hash of the output file:
+ *
+ *  source-sha256 abbreviations-sha256 options output-sha256 output-name
+ *
+ *  New records are appended; a later line for the same output replaces an earlier one.
+ *  The file is rewritten without replaced lines when it is loaded.
+ *  The threads of a process share one manifest per directory (see XS.newWorker).
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSManifest {
+
+    /** Manifest file name */
+    static final String FILE_NAME = ".xs-manifest";
+
+    private static final String HEADER = "# xs manifest 1";
+
+    /** serializes appends and compactions of the threads of this process */
+    private static final Object LOCK = new Object();
+
+    /** Conversion record of one output file */
+    static final class Entry {
+        final String source;
+        final String abbreviations;
+        final String options;
+        final String output;
+
+        Entry(String source, String abbreviations, String options, String output) {
+            this.source = source;
+            this.abbreviations = abbreviations;
+            this.options = options;
+            this.output = output;
+        }
+
+        /** Was the output made from the same source with the same settings? */
+        boolean sameInputs(String source, String abbreviations, String options) {
+            return this.source.equals(source)
+                && this.abbreviations.equals(abbreviations)
+                && this.options.equals(options);
+        }
+    }
+
+    private final File file;
+
+    /** entries by output file name */
+    private final Map<String,Entry> entries = new HashMap<String,Entry>();
+
+
+    private XSManifest(File file) {
+        this.file = file;
+    }
+
+    /**
+     *  Load the manifest of the given directory (empty if there is none).
+     *  The file is read and compacted holding the lock of the appends,
+     *  so that a record appended meanwhile by another thread is not dropped.
+     */
+    static XSManifest load(File dir) throws IOException {
+        XSManifest manifest = new XSManifest(new File(dir, FILE_NAME));
+        synchronized (LOCK) {
+            if (!manifest.file.exists()) {
+                return manifest;
+            }
+            if (manifest.read() > manifest.entries.size()) {
+                manifest.compact();
+            }
+        }
+        return manifest;
+    }
+
+    /** Read the records of the file, returns the number of record lines */
+    private int read() throws IOException {
+        int lines = 0;
+        BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split(" ", 5);
+                if (fields.length < 5) {
+                    // ignore damaged line, the output will be converted again
+                    continue;
+                }
+                entries.put(fields[4], new Entry(fields[0], fields[1], fields[2], fields[3]));
+                lines++;
+            }
+        } finally {
+            br.close();
+        }
+        return lines;
+    }
+
+    /** Get the record of the given output file name (null if none) */
+    Entry get(String name) {
+        synchronized (entries) {
+            return entries.get(name);
+        }
+    }
+
+    /** Record the conversion of the given output file name */
+    void put(String name, Entry entry) throws IOException {
+        if (name.indexOf('\n') >= 0 || name.indexOf('\r') >= 0) {
+            // cannot be recorded, the output will be converted again
+            return;
+        }
+        synchronized (entries) {
+            entries.put(name, entry);
+        }
+        synchronized (LOCK) {
+            boolean created = !file.exists();
+            Writer w = new OutputStreamWriter(new FileOutputStream(file, /*append*/ true), "UTF-8");
+            try {
+                StringBuilder sb = new StringBuilder();
+                if (created) {
+                    sb.append(HEADER).append('\n');
+                }
+                append(sb, name, entry);
+                w.write(sb.toString());
+            } finally {
+                w.close();
+            }
+        }
+    }
+
+    /** Rewrite the manifest with one line per output (called holding LOCK) */
+    private void compact() throws IOException {
+        StringBuilder sb = new StringBuilder(HEADER).append('\n');
+        for (Map.Entry<String,Entry> e : new TreeMap<String,Entry>(entries).entrySet()) {
+            append(sb, e.getKey(), e.getValue());
+        }
+        File temp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+        Writer w = new OutputStreamWriter(new FileOutputStream(temp), "UTF-8");
+        try {
+            w.write(sb.toString());
+        } finally {
+            w.close();
+        }
+        if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static void append(StringBuilder sb, String name, Entry entry) {
+        sb.append(entry.source).append(' ')
+            .append(entry.abbreviations).append(' ')
+            .append(entry.options).append(' ')
+            .append(entry.output).append(' ')
+            .append(name).append('\n');
+    }
+
+
+    // hashes ------------------------------------------------------------------
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch(NoSuchAlgorithmException nsae) {
+            // every Java platform supports SHA-256
+            throw new IllegalStateException(nsae);
+        }
+    }
+
+    /** Hash of the contents of a file */
+    static String hash(File file) throws IOException {
+        MessageDigest digest = newDigest();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return toHex(digest.digest());
+    }
+
+    /** Hash of the mappings of an abbreviations map (independent of their order) */
+    static String hash(Map<String,String> abvMap) {
+        MessageDigest digest = newDigest();
+        for (Map.Entry<String,String> e : new TreeMap<String,String>(abvMap).entrySet()) {
+            update(digest, e.getKey());
+            update(digest, e.getValue());
+        }
+        return toHex(digest.digest());
+    }
+
+    /** Hash of a sequence of strings (null strings are allowed) */
+    static String hash(String... values) {
+        MessageDigest digest = newDigest();
+        for (String value : values) {
+            update(digest, value);
+        }
+        return toHex(digest.digest());
+    }
+
+    /** add a length-prefixed string, so that different maps cannot give the same bytes */
+    private static void update(MessageDigest digest, String s) {
+        if (s == null) {
+            digest.update(new byte[] { -1, -1, -1, -1 });
+            return;
+        }
+        byte[] bytes;
+        try {
+            bytes = s.getBytes("UTF-8");
+        } catch(UnsupportedEncodingException uee) {
+            throw new IllegalStateException(uee);
+        }
+        int n = bytes.length;
+        digest.update(new byte[] { (byte) (n >>> 24), (byte) (n >>> 16), (byte) (n >>> 8), (byte) n });
+        digest.update(bytes);
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2*i] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[2*i + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.util.Map;
+
+
+/**
+ *  XSMappedParser reads lines of XS language from a memory-mapped UTF-8 file.
+ *
+ *  Lines, indentation and line kinds are found in the bytes
+ *  (all XS syntax characters are ASCII), so text, comment, preamble
+ *  and DTD lines are copied to the output (XSWriter on a byte channel)
+ *  without being decoded.
+ *  Only tag lines are decoded, into a reused char buffer, to be parsed by XSParser.
+ *  Line terminators, continuations, indentation and closing rules
+ *  are the ones of BufferedReader.readLine and XSParser,
+ *  so the output is the same as the one of the Reader-based conversion.
+ *
+ *  Large files are mapped in windows; a line is never split between windows.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSMappedParser {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** default size of the mapped windows */
+    static final int DEFAULT_WINDOW = 1 << 30;
+
+    private final XSParser parser;
+    private final int window;
+
+    /** continued lines, put together */
+    private byte[] joined = new byte[256];
+    private int joinedLength;
+    private ByteBuffer joinedView = ByteBuffer.wrap(joined);
+
+    /** tag line being decoded, from bytes to chars, in buffers that are reused */
+    private byte[] tagBytes = new byte[256];
+    private char[] tagChars = new char[256];
+    private ByteBuffer tagIn = ByteBuffer.wrap(tagBytes);
+    private CharBuffer tagOut = CharBuffer.wrap(tagChars);
+
+    /** malformed input is replaced, as by new String(bytes, UTF_8) */
+    private final CharsetDecoder decoder = UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // current document
+    private XSWriter out;
+    private int tabSpaces;
+    private int lineCount;
+
+
+    XSMappedParser(XSParser parser) {
+        this(parser, DEFAULT_WINDOW);
+    }
+
+    XSMappedParser(XSParser parser, int window) {
+        this.parser = parser;
+        this.window = window;
+    }
+
+    /** Parse the whole file, writing to out (that must write to a byte channel) */
+    void parse(FileChannel in, XSWriter out, Map<String,String> abvMap, int tabSpaces) throws XSException, IOException {
+        this.out = out;
+        this.tabSpaces = tabSpaces;
+        this.lineCount = 0;
+        this.joinedLength = 0;
+        parser.start(null, out, abvMap, tabSpaces);
+        try {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                long length = Math.min(window, size - position);
+                boolean last = (position + length == size);
+                MappedByteBuffer map = in.map(FileChannel.MapMode.READ_ONLY, position, length);
+                int consumed = lines(map, (int) length, last);
+                if (consumed == 0) {
+                    throw new XSException(String.format("Line #%d is too long", lineCount + 1), lineCount + 1);
+                }
+                position += consumed;
+            }
+            // end of file
+            // (a continuation on the last line is dropped, as in XSParser)
+            parser.setLineNumber(lineCount);
+            parser.closeElements(0);
+        } finally {
+            parser.finish();
+            this.out = null;
+        }
+    }
+
+    /**
+     *  Parse the lines of a window, returns the number of bytes consumed.
+     *  Unless it is the last window, a line without terminator is left for the next one.
+     */
+    private int lines(ByteBuffer buf, int length, boolean last) throws XSException, IOException {
+        int pos = 0;
+        while (pos < length) {
+            // find line terminator: \n, \r or \r\n
+            int end = pos;
+            byte c = 0;
+            while (end < length) {
+                c = buf.get(end);
+                if (c == '\n' || c == '\r') {
+                    break;
+                }
+                end++;
+            }
+            int next;
+            if (end == length) {
+                if (!last) {
+                    return pos;
+                }
+                next = length;
+            } else if (c == '\r') {
+                if (end + 1 == length && !last) {
+                    // \r\n may be split between windows
+                    return pos;
+                }
+                next = (end + 1 < length && buf.get(end + 1) == '\n') ? end + 2 : end + 1;
+            } else {
+                next = end + 1;
+            }
+
+            lineCount++;
+            if (end > pos && buf.get(end - 1) == '\\') {
+                // line continuation
+                join(buf, pos, end - 1);
+            } else if (joinedLength > 0) {
+                join(buf, pos, end);
+                int n = joinedLength;
+                joinedLength = 0;
+                parseLine(joinedView, 0, n);
+            } else {
+                parseLine(buf, pos, end);
+            }
+            pos = next;
+        }
+        return pos;
+    }
+
+    private void join(ByteBuffer buf, int start, int end) {
+        int n = end - start;
+        if (joinedLength + n > joined.length) {
+            byte[] bigger = new byte[Math.max(joinedLength + n, joined.length * 2)];
+            System.arraycopy(joined, 0, bigger, 0, joinedLength);
+            joined = bigger;
+            joinedView = ByteBuffer.wrap(joined);
+        }
+        for (int i = start; i < end; i++) {
+            joined[joinedLength++] = buf.get(i);
+        }
+    }
+
+    private void parseLine(ByteBuffer buf, int start, int end) throws XSException, IOException {
+        parser.setLineNumber(lineCount);
+
+        // indentation level and content start, in one scan (as XSLexer.scanIndent)
+        int idt = 0;
+        int spc = 0;
+        int t = start;
+        for (int idx = start; idx < end; idx++) {
+            byte c = buf.get(idx);
+            if ('\t' == c) {
+                idt++;
+                t = idx + 1;
+            } else if (' ' == c) {
+                if (++spc == tabSpaces) {
+                    spc = 0;
+                    idt++;
+                    t = idx + 1;
+                }
+            } else {
+                // found non whitespace character
+                break;
+            }
+        }
+
+        byte c0 = (t < end) ? buf.get(t) : 0;
+        byte c1 = (t + 1 < end) ? buf.get(t + 1) : 0;
+        if (c0 == '/' && c1 == '/') {
+            // xs comment
+            // (ignore line)
+
+        } else if (c0 == '<' && c1 == '?') {
+            // xml preamble
+            out.line(buf, start, end);
+
+        } else if (c0 == '<' && c1 == '!' && t + 3 < end && buf.get(t + 2) == '-' && buf.get(t + 3) == '-') {
+            // xml comment
+            parser.closeElements(idt);
+            out.line(buf, start, end);
+
+        } else if (c0 == '<' && c1 == '!') {
+            // dtd element
+            out.line(buf, start, end);
+
+        } else if (c0 == '<') {
+            // tag line - the indentation is ASCII, so byte and char offsets are the same
+            parser.tagLine(tagChars, 0, decode(buf, start, end), t - start, idt);
+
+        } else {
+            // text line
+            out.line(buf, start, end);
+        }
+    }
+
+    /** decode the bytes from start to end into tagChars, returns the number of chars */
+    private int decode(ByteBuffer buf, int start, int end) {
+        int n = end - start;
+        if (n > tagBytes.length) {
+            // UTF-8 never has more chars than bytes
+            tagBytes = new byte[Math.max(n, tagBytes.length * 2)];
+            tagChars = new char[tagBytes.length];
+            tagIn = ByteBuffer.wrap(tagBytes);
+            tagOut = CharBuffer.wrap(tagChars);
+        }
+        for (int i = 0; i < n; i++) {
+            tagBytes[i] = buf.get(start + i);
+        }
+        ((Buffer) tagIn).clear();
+        ((Buffer) tagIn).limit(n);
+        ((Buffer) tagOut).clear();
+        decoder.reset();
+        decoder.decode(tagIn, tagOut, true);
+        decoder.flush(tagOut);
+        return tagOut.position();
+    }
+
+}
@@ -0,0 +1,70 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.PrintWriter;
+
+
+/**
+ *  XSOutput is one destination of a tee conversion (see XS.convertTee)
+ *  with its own formatting options.
+ *
+ *  @author Miguel L. Pardal
+ */
+public final class XSOutput {
+
+    private final PrintWriter writer;
+    private final boolean indentWithSpaces;
+    private final int tabSpaces;
+    private final boolean oneAttributePerLine;
+
+    /**
+     *  Output to the given writer, indenting with spaces (tabSpaces per level) or tabs,
+     *  with all attributes in the tag line or one attribute per line
+     */
+    public XSOutput(PrintWriter writer, boolean indentWithSpaces, int tabSpaces, boolean oneAttributePerLine) {
+        if (writer == null) {
+            throw new IllegalArgumentException("Output writer cannot be null!");
+        }
+        if (tabSpaces < 0) {
+            String eMsg = String.format("The number of spaces equivalent to a tab cannot be %d!", tabSpaces);
+            throw new IllegalArgumentException(eMsg);
+        }
+        this.writer = writer;
+        this.indentWithSpaces = indentWithSpaces;
+        this.tabSpaces = tabSpaces;
+        this.oneAttributePerLine = oneAttributePerLine;
+    }
+
+    public PrintWriter getWriter() {
+        return writer;
+    }
+
+    public boolean isIndentWithSpaces() {
+        return indentWithSpaces;
+    }
+
+    public int getTabSpaces() {
+        return tabSpaces;
+    }
+
+    public boolean isOneAttributePerLine() {
+        return oneAttributePerLine;
+    }
+
+    @Override
+    public String toString() {
+        return "XSOutput[tab=" + tabSpaces
+            + ",spaces=" + indentWithSpaces
+            + ",attPerLine=" + oneAttributePerLine + "]";
+    }
+
+}
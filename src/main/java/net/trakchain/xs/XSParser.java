@@ -0,0 +1,396 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Map;
+
+
+/**
+ *  XSParser reads lines of XS language and reports them to an XSHandler.
+ *
+ *  It holds the line and indentation logic of the conversion:
+ *  line continuations, line classification, tag line scanning,
+ *  abbreviation expansion and tag closing by indentation.
+ *  The XML output (XSWriter) and the SAX reader (XSReader) are handlers.
+ *
+ *  Lines are read into a char buffer, with the line terminators of
+ *  BufferedReader.readLine (\n, \r or \r\n), and are classified in place;
+ *  pass-through lines are given to the handler as slices of the buffer
+ *  and only tag lines become Strings.
+ *
+ *  Lines can be parsed all at once (parse) or one at a time (next).
+ *  An instance keeps its buffers between documents but is not thread-safe.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSParser {
+
+    /** tag line scanner (tag name, attribute names and attribute values) */
+    private final XSLexer lexer = new XSLexer();
+
+    /** tag names and abbreviation keys already seen */
+    private final XSSymbols symbols = new XSSymbols();
+
+    /** open elements (indentation and expanded tag) */
+    private final XSElementStack elements = new XSElementStack();
+
+    /** attributes of the current tag line */
+    private final XSAttributes attributes = new XSAttributes(lexer, symbols);
+
+    /** input characters - lines are slices of this buffer */
+    private char[] cb = new char[8192];
+    private int cbPos;
+    private int cbEnd;
+
+    /** continued lines, put together */
+    private char[] joined = new char[256];
+    private int joinedLength;
+
+    // current document
+    private Reader in;
+    private boolean eof;
+    private boolean skipLF;
+    private XSHandler handler;
+    private Map<String,String> abvMap;
+    private int tabSpaces;
+    private int lineCount;
+    private boolean done;
+
+    // current physical line: cb from lineStart to lineEnd
+    private int lineStart;
+    private int lineEnd;
+
+
+    /**
+     *  Prepare to parse a document.
+     *  With a null abbreviation map, abbreviations are kept as written (see XSTemplate).
+     */
+    void start(Reader in, XSHandler handler, Map<String,String> abvMap, int tabSpaces) {
+        this.in = in;
+        this.eof = false;
+        this.skipLF = false;
+        this.cbPos = 0;
+        this.cbEnd = 0;
+        this.joinedLength = 0;
+        this.handler = handler;
+        this.abvMap = abvMap;
+        this.tabSpaces = tabSpaces;
+        this.lineCount = 0;
+        this.done = false;
+        elements.clear();
+    }
+
+    /** Parse the whole document */
+    void parse(Reader in, XSHandler handler, Map<String,String> abvMap, int tabSpaces) throws XSException, IOException {
+        start(in, handler, abvMap, tabSpaces);
+        try {
+            while (next()) {
+                // handler was called
+            }
+        } finally {
+            finish();
+        }
+    }
+
+    /** Release the current document */
+    void finish() {
+        in = null;
+        handler = null;
+        abvMap = null;
+        done = true;
+    }
+
+    /** Number of input lines read so far */
+    int getLineNumber() {
+        return lineCount;
+    }
+
+    /** Set the number of input lines read, when lines are read by the caller */
+    void setLineNumber(int lineCount) {
+        this.lineCount = lineCount;
+    }
+
+    /** Number of open elements */
+    int getDepth() {
+        return elements.size();
+    }
+
+    /**
+     *  Parse the next (possibly continued) line, reporting it to the handler.
+     *  At the end of input the remaining elements are closed and false is returned.
+     */
+    boolean next() throws XSException, IOException {
+        if (done) {
+            return false;
+        }
+
+        while (readLine()) {
+            lineCount++;
+
+            // handle line continuations
+            if (lineEnd > lineStart && cb[lineEnd-1] == '\\') {
+                join(cb, lineStart, lineEnd-1);
+                continue;
+            }
+            if (joinedLength > 0) {
+                join(cb, lineStart, lineEnd);
+                int length = joinedLength;
+                joinedLength = 0;
+                parseLine(joined, 0, length);
+            } else {
+                parseLine(cb, lineStart, lineEnd);
+            }
+            return true;
+        }
+        // end of file
+        closeElements(0);
+        done = true;
+        return false;
+    }
+
+    private void parseLine(char[] line, int start, int end) throws XSException, IOException {
+        // indentation level and content start, in one scan (the line is not trimmed)
+        lexer.scanIndent(line, start, end, tabSpaces);
+        int idt = lexer.indent;
+        int t = lexer.contentStart;
+
+        if (startsWith(line, t, end, "//")) {
+            // xs comment
+            // (ignore line)
+
+        } else if (startsWith(line, t, end, "<?")) {
+            // xml preamble
+            handler.preamble(idt, line, start, end);
+
+        } else if (startsWith(line, t, end, "<!--")) {
+            // xml comment
+            closeElements(idt);
+            handler.comment(idt, line, start, end);
+
+        } else if (startsWith(line, t, end, "<!")) {
+            // dtd element
+            handler.dtd(idt, line, start, end);
+
+        } else if (startsWith(line, t, end, "<")) {
+            // tag line
+            tagLine(line, start, end, t, idt);
+
+        } else {
+            // text line
+            handler.text(idt, line, start, end);
+        }
+    }
+
+    /** does the slice of line from start to end start with prefix? */
+    private static boolean startsWith(char[] line, int start, int end, String prefix) {
+        int n = prefix.length();
+        if (end - start < n) {
+            return false;
+        }
+        for (int i = 0; i < n; i++) {
+            if (line[start + i] != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     *  Parse a tag line, given as the characters of line from start to end -
+     *  the tag starts at index tag (after the indentation of the given level).
+     *  No String is created for the line, only for names that are not known yet.
+     */
+    void tagLine(char[] line, int start, int end, int tag, int idt) throws XSException, IOException {
+        // handle empty tag
+        int tEnd = end;
+        int tailIdx = lastNonWhitespace(line, start, end);
+        boolean isEmptyTag = ('/' == line[tailIdx]);
+        if (isEmptyTag) {
+            // trim tail
+            tEnd = tailIdx;
+        }
+
+        // extract tag name, attribute names and values
+        // (attribute offsets are kept by the lexer)
+        if (!lexer.findTag(line, tag, tEnd)) {
+            throw new XSException(String.format("Invalid tag line #%d '%s'", lineCount,
+                new String(line, start, end - start)), lineCount);
+        }
+        int tagStart = lexer.nameStart;
+        int tagEnd = lexer.nameEnd;
+        if (!lexer.scanAttributes(line, lexer.end, tEnd)) {
+            throw new XSException(String.format("Invalid attribute in tag line #%d '%s'", lineCount,
+                new String(line, start, end - start)), lineCount);
+        }
+
+        closeElements(idt);
+
+        // expand tag once, the close tag uses the same name
+        String expandedTag = expandAbv(line, tagStart, tagEnd);
+        if (expandedTag == null) {
+            expandedTag = symbols.get(line, tagStart, tagEnd);
+        }
+
+        // expand attribute names and values
+        attributes.reset(line);
+        for (int att = 0; att < lexer.attCount; att++) {
+            int value = attributes.valueOf(att);
+            String expandedAtt = expandAbv(line, lexer.attNameStart[att], lexer.attNameEnd[att]);
+            String expandedValue = expandAbv(line, lexer.attValueStart[value], lexer.attValueEnd[value]);
+            attributes.setExpanded(att, expandedAtt, expandedValue);
+        }
+
+        if (!isEmptyTag) {
+            // push current (expanded) tag and indent
+            elements.push(idt, expandedTag);
+        }
+        handler.startElement(idt, expandedTag, attributes, isEmptyTag);
+    }
+
+    /** close previous tags of equal or greater indentation */
+    void closeElements(int idt) throws XSException, IOException {
+        while (!elements.isEmpty() && elements.peekIndent() >= idt) {
+            int previousIdt = elements.peekIndent();
+            String previousTag = elements.pop();
+            handler.endElement(previousIdt, previousTag);
+        }
+    }
+
+
+    // input -------------------------------------------------------------------
+
+    /**
+     *  Read the next line into cb, from lineStart to lineEnd (without terminator),
+     *  returns false at the end of input
+     */
+    private boolean readLine() throws IOException {
+        int i = cbPos;
+        while (true) {
+            if (skipLF) {
+                // \r\n - skip the \n of the previous line terminator
+                if (i == cbEnd && !eof) {
+                    fill();
+                    i = cbPos;
+                    continue;
+                }
+                if (i < cbEnd && cb[i] == '\n') {
+                    cbPos = ++i;
+                }
+                skipLF = false;
+            }
+
+            for (; i < cbEnd; i++) {
+                char c = cb[i];
+                if (c == '\n' || c == '\r') {
+                    lineStart = cbPos;
+                    lineEnd = i;
+                    cbPos = i + 1;
+                    skipLF = (c == '\r');
+                    return true;
+                }
+            }
+
+            if (eof) {
+                if (cbPos == cbEnd) {
+                    return false;
+                }
+                // last line without terminator
+                lineStart = cbPos;
+                lineEnd = cbEnd;
+                cbPos = cbEnd;
+                return true;
+            }
+            int scanned = i - cbPos;
+            fill();
+            i = cbPos + scanned;
+        }
+    }
+
+    /** move the unread characters to the start of cb and read more */
+    private void fill() throws IOException {
+        int n = cbEnd - cbPos;
+        if (cbPos > 0) {
+            System.arraycopy(cb, cbPos, cb, 0, n);
+            cbPos = 0;
+            cbEnd = n;
+        }
+        if (cbEnd == cb.length) {
+            // line longer than the buffer
+            cb = Arrays.copyOf(cb, cb.length * 2);
+        }
+        int r = in.read(cb, cbEnd, cb.length - cbEnd);
+        if (r < 0) {
+            eof = true;
+        } else {
+            cbEnd += r;
+        }
+    }
+
+    /** append characters of line from start to end to the joined line */
+    private void join(char[] line, int start, int end) {
+        int n = end - start;
+        if (joinedLength + n > joined.length) {
+            joined = Arrays.copyOf(joined, Math.max(joinedLength + n, joined.length * 2));
+        }
+        System.arraycopy(line, start, joined, joinedLength, n);
+        joinedLength += n;
+    }
+
+
+    // tag line helpers --------------------------------------------------------
+
+    /* returns index of last non-whitespace character in line from start to end */
+    private int lastNonWhitespace(char[] line, int start, int end) {
+        int idx;
+        for (idx=end-1; idx >= start; idx--) {
+            char c = line[idx];
+            if (c != ' ' && c != '\t') {
+                break;
+            }
+        }
+        return idx;
+    }
+
+
+    // abbreviations -----------------------------------------------------------
+
+    /**
+     *  Expand abbreviation in the given range of line to mapping in map and return it
+     *  or return null if the range is not an abbreviation
+     */
+    private String expandAbv(char[] line, int start, int end) throws XSException {
+        if (start == end || line[start] != '$') {
+            return null;
+        }
+        if (end - start == 1) {
+            // "$".equals(s)
+            throw new XSException("Invalid abbreviation '$'!");
+        }
+        if (abvMap == null) {
+            // template - expanded when it is rendered
+            return null;
+        }
+        String key = symbols.get(line, start + 1, end);
+        String expanded = abvMap.get(key);
+        if (expanded == null) {
+            throw notDefined(key);
+        }
+        return expanded;
+    }
+
+    /** Error of an abbreviation that is not in the map */
+    static XSException notDefined(String key) {
+        return new XSException(String.format("Abbreviation '%s' not defined!", key));
+    }
+
+}
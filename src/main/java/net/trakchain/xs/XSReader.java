@@ -0,0 +1,941 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Enumeration;
+
+import org.xml.sax.*;
+import org.xml.sax.ext.LexicalHandler;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.NamespaceSupport;
+
+
+/**
+ *  XSReader is a SAX XMLReader that parses XS directly.
+ *
+ *  Events are fired from the XS lines, using the same line and indentation logic
+ *  as XS.convert, with no intermediate XML text.
+ *  The reported events are the ones an XML parser would report
+ *  for the output of XS.convert, including the indentation whitespace
+ *  and the markup written inside text lines (e.g. Hello &lt;b&gt;world&lt;/b&gt;),
+ *  so the reader can be plugged into JAXP:
+ *
+ *  new SAXSource(new XSReader(xs), new InputSource(reader))
+ *
+ *  Supported: namespaces and namespace-prefixes features,
+ *  lexical-handler property (comments and CDATA),
+ *  processing instructions, predefined entities and character references.
+ *  DTD lines are skipped.
+ *  In text lines, start tags and processing instructions must end on the line they start on;
+ *  comments and CDATA sections can continue on the following lines.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSReader implements XMLReader {
+
+    private static final String FEATURE_NAMESPACES = "http://xml.org/sax/features/namespaces";
+    private static final String FEATURE_NAMESPACE_PREFIXES = "http://xml.org/sax/features/namespace-prefixes";
+    private static final String FEATURE_VALIDATION = "http://xml.org/sax/features/validation";
+    private static final String FEATURE_STRING_INTERNING = "http://xml.org/sax/features/string-interning";
+    private static final String FEATURE_EXTERNAL_GENERAL_ENTITIES = "http://xml.org/sax/features/external-general-entities";
+    private static final String FEATURE_EXTERNAL_PARAMETER_ENTITIES = "http://xml.org/sax/features/external-parameter-entities";
+    private static final String PROPERTY_LEXICAL_HANDLER = "http://xml.org/sax/properties/lexical-handler";
+
+    /** blanks appended for indentation */
+    private static final char[] SPACES = "                                                                ".toCharArray();
+    private static final char[] TABS = "\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t".toCharArray();
+
+    /** conversion settings (abbreviations, tab spaces and indentation) */
+    private final XS xs;
+
+    private final XSParser parser = new XSParser();
+
+    private ContentHandler contentHandler;
+    private DTDHandler dtdHandler;
+    private EntityResolver entityResolver;
+    private ErrorHandler errorHandler;
+    private LexicalHandler lexicalHandler;
+
+    private boolean namespaces = true;
+    private boolean namespacePrefixes = false;
+
+    // current document
+    private InputSource input;
+    private Events events;
+    private Reader opened;
+
+
+    /** Create a reader with the default settings */
+    public XSReader() {
+        this(new XS());
+    }
+
+    /** Create a reader that uses the settings of the given converter */
+    public XSReader(XS xs) {
+        this.xs = xs;
+    }
+
+
+    // features and properties -------------------------------------------------
+
+    public boolean getFeature(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (FEATURE_NAMESPACES.equals(name)) {
+            return namespaces;
+        } else if (FEATURE_NAMESPACE_PREFIXES.equals(name)) {
+            return namespacePrefixes;
+        } else if (FEATURE_VALIDATION.equals(name)
+                || FEATURE_STRING_INTERNING.equals(name)
+                || FEATURE_EXTERNAL_GENERAL_ENTITIES.equals(name)
+                || FEATURE_EXTERNAL_PARAMETER_ENTITIES.equals(name)) {
+            return false;
+        }
+        throw new SAXNotRecognizedException(name);
+    }
+
+    public void setFeature(String name, boolean value) throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (FEATURE_NAMESPACES.equals(name)) {
+            namespaces = value;
+        } else if (FEATURE_NAMESPACE_PREFIXES.equals(name)) {
+            namespacePrefixes = value;
+        } else if (FEATURE_VALIDATION.equals(name)
+                || FEATURE_STRING_INTERNING.equals(name)
+                || FEATURE_EXTERNAL_GENERAL_ENTITIES.equals(name)
+                || FEATURE_EXTERNAL_PARAMETER_ENTITIES.equals(name)) {
+            if (value) {
+                throw new SAXNotSupportedException(name);
+            }
+        } else {
+            throw new SAXNotRecognizedException(name);
+        }
+    }
+
+    public Object getProperty(String name) throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (PROPERTY_LEXICAL_HANDLER.equals(name)) {
+            return lexicalHandler;
+        }
+        throw new SAXNotRecognizedException(name);
+    }
+
+    public void setProperty(String name, Object value) throws SAXNotRecognizedException, SAXNotSupportedException {
+        if (PROPERTY_LEXICAL_HANDLER.equals(name)) {
+            if (value != null && !(value instanceof LexicalHandler)) {
+                throw new SAXNotSupportedException(name + " must be a " + LexicalHandler.class.getName());
+            }
+            lexicalHandler = (LexicalHandler) value;
+        } else {
+            throw new SAXNotRecognizedException(name);
+        }
+    }
+
+
+    // handlers ----------------------------------------------------------------
+
+    public void setEntityResolver(EntityResolver resolver) {
+        this.entityResolver = resolver;
+    }
+
+    public EntityResolver getEntityResolver() {
+        return entityResolver;
+    }
+
+    public void setDTDHandler(DTDHandler handler) {
+        this.dtdHandler = handler;
+    }
+
+    public DTDHandler getDTDHandler() {
+        return dtdHandler;
+    }
+
+    public void setContentHandler(ContentHandler handler) {
+        this.contentHandler = handler;
+    }
+
+    public ContentHandler getContentHandler() {
+        return contentHandler;
+    }
+
+    public void setErrorHandler(ErrorHandler handler) {
+        this.errorHandler = handler;
+    }
+
+    public ErrorHandler getErrorHandler() {
+        return errorHandler;
+    }
+
+
+    // parse -------------------------------------------------------------------
+
+    public void parse(String systemId) throws IOException, SAXException {
+        parse(new InputSource(systemId));
+    }
+
+    public void parse(InputSource input) throws IOException, SAXException {
+        try {
+            // inside try, so a stream opened by start is closed if startDocument fails
+            start(input);
+            while (next()) {
+                // events were fired
+            }
+        } finally {
+            close();
+        }
+    }
+
+    /** Start a document that is then parsed one line at a time (see next) */
+    void start(InputSource input) throws IOException, SAXException {
+        Reader reader = input.getCharacterStream();
+        if (reader == null) {
+            InputStream is = input.getByteStream();
+            if (is == null) {
+                if (input.getSystemId() == null) {
+                    throw new IllegalArgumentException("Input source has no character stream, byte stream or system id!");
+                }
+                is = new URL(input.getSystemId()).openStream();
+            }
+            String encoding = (input.getEncoding() != null) ? input.getEncoding() : "UTF-8";
+            reader = opened = new InputStreamReader(is, encoding);
+        }
+
+        this.input = input;
+        this.events = new Events(input);
+        parser.start(reader, events, xs.getAbvMap(), xs.getTabSpaces());
+        try {
+            events.startDocument();
+        } catch(XSException xse) {
+            throw parseException(xse);
+        }
+    }
+
+    /**
+     *  Parse the next line of the started document, firing its events.
+     *  Returns false after the end of the document was reported.
+     */
+    boolean next() throws IOException, SAXException {
+        if (events == null) {
+            return false;
+        }
+        try {
+            if (parser.next()) {
+                return true;
+            }
+            events.endDocument();
+            events = null;
+            return false;
+        } catch(XSException xse) {
+            events = null;
+            throw parseException(xse);
+        }
+    }
+
+    /** Release the started document, closing the stream opened for it */
+    void close() throws IOException {
+        parser.finish();
+        events = null;
+        input = null;
+        if (opened != null) {
+            Reader r = opened;
+            opened = null;
+            r.close();
+        }
+    }
+
+    /** Report a parser error to the error handler and return it as a SAX exception */
+    private SAXException parseException(XSException xse) throws SAXException {
+        if (xse.getCause() instanceof SAXException) {
+            return (SAXException) xse.getCause();
+        }
+        Integer lineNumber = xse.getLineNumber();
+        SAXParseException spe = new SAXParseException(xse.getMessage(),
+            input.getPublicId(), input.getSystemId(),
+            (lineNumber != null) ? lineNumber : parser.getLineNumber(), -1, xse);
+        if (errorHandler != null) {
+            errorHandler.fatalError(spe);
+        }
+        return spe;
+    }
+
+
+    /**
+     *  Translates parser lines to SAX events.
+     *  Character data (indentation, line breaks and text lines) is collected
+     *  and reported before the next markup event.
+     */
+    private class Events implements XSHandler, Locator {
+
+        private final InputSource input;
+
+        private final NamespaceSupport nsSupport = new NamespaceSupport();
+        private final AttributesImpl saxAtts = new AttributesImpl();
+        private String[] parts = new String[3];
+
+        /** pending character data */
+        private final StringBuilder chars = new StringBuilder();
+        private char[] charBuffer = new char[256];
+
+        /** open elements */
+        private int depth;
+        private boolean rootClosed;
+
+        /** names of the open elements that were started inside text lines, by depth (null for tag lines) */
+        private String[] inlineTags = new String[16];
+
+        /** names and values (as written) of the attributes of the element being started */
+        private String[] attNames = new String[8];
+        private String[] attValues = new String[8];
+
+        /** markup that continues on the following lines: comment, CDATA or DTD internal subset */
+        private String pendingEnd;
+        private final StringBuilder pending = new StringBuilder();
+
+        Events(InputSource input) {
+            this.input = input;
+        }
+
+        // Locator
+
+        public String getPublicId() {
+            return input.getPublicId();
+        }
+
+        public String getSystemId() {
+            return input.getSystemId();
+        }
+
+        public int getLineNumber() {
+            return parser.getLineNumber();
+        }
+
+        public int getColumnNumber() {
+            return -1;
+        }
+
+        // document
+
+        void startDocument() throws XSException {
+            try {
+                if (contentHandler != null) {
+                    contentHandler.setDocumentLocator(this);
+                    contentHandler.startDocument();
+                }
+            } catch(SAXException se) {
+                throw new XSException(se);
+            }
+        }
+
+        void endDocument() throws XSException {
+            if (pendingEnd != null) {
+                fatal("Markup not terminated with '" + pendingEnd + "' at end of input");
+            }
+            if (depth > 0) {
+                fatal("Element '" + inlineTags[depth - 1] + "' is not closed at end of input");
+            }
+            if (!rootClosed) {
+                fatal("Document has no root element");
+            }
+            try {
+                if (contentHandler != null) {
+                    contentHandler.endDocument();
+                }
+            } catch(SAXException se) {
+                throw new XSException(se);
+            }
+        }
+
+        // lines
+
+        public void preamble(int indent, char[] buf, int start, int end) throws XSException {
+            preamble(new String(buf, start, end - start));
+        }
+
+        public void dtd(int indent, char[] buf, int start, int end) throws XSException {
+            dtd(new String(buf, start, end - start));
+        }
+
+        public void comment(int indent, char[] buf, int start, int end) throws XSException {
+            comment(new String(buf, start, end - start));
+        }
+
+        public void text(int indent, char[] buf, int start, int end) throws XSException {
+            if (pendingEnd == null && depth > 0 && !hasMarkup(buf, start, end)) {
+                // plain character data, no String needed
+                chars.append(buf, start, end - start);
+                newLine();
+                return;
+            }
+            text(new String(buf, start, end - start));
+        }
+
+        private boolean hasMarkup(char[] buf, int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (buf[i] == '&' || buf[i] == '<') {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void preamble(String line) throws XSException {
+            checkNotPending();
+            int start = line.indexOf("<?");
+            whitespace(line, 0, start);
+            int end = line.indexOf("?>", start + 2);
+            if (end < 0) {
+                fatal("Processing instruction not terminated with '?>'");
+            }
+            int targetEnd = start + 2;
+            while (targetEnd < end && !Character.isWhitespace(line.charAt(targetEnd))) {
+                targetEnd++;
+            }
+            String target = line.substring(start + 2, targetEnd);
+            if (!"xml".equalsIgnoreCase(target)) {
+                // skip the XML declaration, report other processing instructions
+                int dataStart = targetEnd;
+                while (dataStart < end && Character.isWhitespace(line.charAt(dataStart))) {
+                    dataStart++;
+                }
+                flushChars();
+                try {
+                    if (contentHandler != null) {
+                        contentHandler.processingInstruction(target, line.substring(dataStart, end));
+                    }
+                } catch(SAXException se) {
+                    throw new XSException(se);
+                }
+            }
+            content(line, end + 2);
+        }
+
+        private void dtd(String line) throws XSException {
+            checkNotPending();
+            int start = line.indexOf("<!");
+            whitespace(line, 0, start);
+            if (line.startsWith("<![CDATA[", start)) {
+                pending.setLength(0);
+                pendingEnd = "]]>";
+                continuePending(line, start + "<![CDATA[".length());
+
+            } else if (line.indexOf('[', start) >= 0 && line.indexOf("]>", start) < 0) {
+                // DTD with internal subset - skip until its end
+                pending.setLength(0);
+                pendingEnd = "]>";
+
+            } else {
+                // other DTD declarations are skipped
+                newLine();
+            }
+        }
+
+        private void comment(String line) throws XSException {
+            checkNotPending();
+            int start = line.indexOf("<!--");
+            whitespace(line, 0, start);
+            pending.setLength(0);
+            pendingEnd = "-->";
+            continuePending(line, start + "<!--".length());
+        }
+
+        private void text(String line) throws XSException {
+            if (pendingEnd != null) {
+                continuePending(line, 0);
+            } else {
+                content(line, 0);
+            }
+        }
+
+        public void startElement(int indent, String tag, XSAttributes atts, boolean empty) throws XSException {
+            checkNotPending();
+            indent(indent);
+            int count = atts.getLength();
+            ensureAttributes(count);
+            for (int i = 0; i < count; i++) {
+                attNames[i] = atts.getName(i);
+                attValues[i] = atts.getValue(i);
+            }
+            start(tag, count, empty, false);
+            newLine();
+        }
+
+        public void endElement(int indent, String tag) throws XSException {
+            checkNotPending();
+            if (depth > 0 && inlineTags[depth - 1] != null) {
+                fatal("Element '" + inlineTags[depth - 1] + "' of a text line is not closed before the end of '" + tag + "'");
+            }
+            indent(indent);
+            flushChars();
+            try {
+                end(tag);
+            } catch(SAXException se) {
+                throw new XSException(se);
+            }
+            newLine();
+        }
+
+        /** start an element with the attributes in attNames and attValues (values as written) */
+        private void start(String tag, int count, boolean empty, boolean inline) throws XSException {
+            if (depth == 0 && rootClosed) {
+                fatal("Only one root element is allowed, found '" + tag + "'");
+            }
+            flushChars();
+
+            try {
+                if (namespaces) {
+                    nsSupport.pushContext();
+                    for (int i = 0; i < count; i++) {
+                        String prefix = namespacePrefix(attNames[i]);
+                        if (prefix != null) {
+                            String uri = decode(attValues[i], true);
+                            nsSupport.declarePrefix(prefix, uri);
+                            if (contentHandler != null) {
+                                contentHandler.startPrefixMapping(prefix, uri);
+                            }
+                        }
+                    }
+                }
+
+                saxAtts.clear();
+                for (int i = 0; i < count; i++) {
+                    String name = attNames[i];
+                    String value = decode(attValues[i], true);
+                    if (!namespaces) {
+                        saxAtts.addAttribute("", "", name, "CDATA", value);
+                    } else if (namespacePrefix(name) != null) {
+                        if (namespacePrefixes) {
+                            saxAtts.addAttribute("", "", name, "CDATA", value);
+                        }
+                    } else {
+                        String[] names = processName(name, true);
+                        saxAtts.addAttribute(names[0], names[1], name, "CDATA", value);
+                    }
+                }
+
+                String[] names = namespaces ? processName(tag, false) : null;
+                if (contentHandler != null) {
+                    if (namespaces) {
+                        contentHandler.startElement(names[0], names[1], tag, saxAtts);
+                    } else {
+                        contentHandler.startElement("", "", tag, saxAtts);
+                    }
+                }
+                if (depth == inlineTags.length) {
+                    inlineTags = Arrays.copyOf(inlineTags, depth * 2);
+                }
+                inlineTags[depth] = inline ? tag : null;
+                depth++;
+
+                if (empty) {
+                    end(tag);
+                }
+            } catch(SAXException se) {
+                throw new XSException(se);
+            }
+        }
+
+        private void ensureAttributes(int count) {
+            if (count > attNames.length) {
+                attNames = new String[Math.max(count, attNames.length * 2)];
+                attValues = new String[attNames.length];
+            }
+        }
+
+        private void end(String tag) throws SAXException, XSException {
+            if (contentHandler != null) {
+                if (namespaces) {
+                    String[] names = processName(tag, false);
+                    contentHandler.endElement(names[0], names[1], tag);
+                } else {
+                    contentHandler.endElement("", "", tag);
+                }
+            }
+            if (namespaces) {
+                if (contentHandler != null) {
+                    Enumeration<?> prefixes = nsSupport.getDeclaredPrefixes();
+                    while (prefixes.hasMoreElements()) {
+                        contentHandler.endPrefixMapping((String) prefixes.nextElement());
+                    }
+                }
+                nsSupport.popContext();
+            }
+            depth--;
+            if (depth == 0) {
+                rootClosed = true;
+            }
+        }
+
+        // multi-line markup
+
+        /** add the line from start to the pending markup and report it if the line ends it */
+        private void continuePending(String line, int start) throws XSException {
+            int end = line.indexOf(pendingEnd, start);
+            if (end < 0) {
+                pending.append(line, start, line.length()).append('\n');
+                return;
+            }
+            pending.append(line, start, end);
+            String markupEnd = pendingEnd;
+            pendingEnd = null;
+            try {
+                if ("-->".equals(markupEnd)) {
+                    flushChars();
+                    if (lexicalHandler != null) {
+                        char[] ch = pending.toString().toCharArray();
+                        lexicalHandler.comment(ch, 0, ch.length);
+                    }
+                } else if ("]]>".equals(markupEnd)) {
+                    if (depth == 0) {
+                        fatal("CDATA section is not allowed outside the root element");
+                    }
+                    flushChars();
+                    if (lexicalHandler != null) {
+                        lexicalHandler.startCDATA();
+                    }
+                    chars.append(pending);
+                    flushChars();
+                    if (lexicalHandler != null) {
+                        lexicalHandler.endCDATA();
+                    }
+                }
+            } catch(SAXException se) {
+                throw new XSException(se);
+            }
+            pending.setLength(0);
+            content(line, end + markupEnd.length());
+        }
+
+        private void checkNotPending() throws XSException {
+            if (pendingEnd != null) {
+                fatal("Markup line inside markup that is not terminated with '" + pendingEnd + "'");
+            }
+        }
+
+        // markup in text lines
+
+        /**
+         *  character data and markup of a line from start to its end, followed by the line break,
+         *  as an XML parser reads them in the output of convert
+         */
+        private void content(String line, int start) throws XSException {
+            int end = line.length();
+            int i = start;
+            while (true) {
+                int lt = line.indexOf('<', i);
+                if (lt < 0) {
+                    text(line, i, end);
+                    newLine();
+                    return;
+                }
+                text(line, i, lt);
+                if (line.startsWith("<!--", lt)) {
+                    pending.setLength(0);
+                    pendingEnd = "-->";
+                    continuePending(line, lt + "<!--".length());
+                    return;
+                } else if (line.startsWith("<![CDATA[", lt)) {
+                    pending.setLength(0);
+                    pendingEnd = "]]>";
+                    continuePending(line, lt + "<![CDATA[".length());
+                    return;
+                } else if (line.startsWith("<?", lt)) {
+                    i = inlineInstruction(line, lt);
+                } else if (line.startsWith("</", lt)) {
+                    i = inlineEndTag(line, lt);
+                } else {
+                    i = inlineStartTag(line, lt);
+                }
+            }
+        }
+
+        /** report the processing instruction at index lt, returns the index after it */
+        private int inlineInstruction(String line, int lt) throws XSException {
+            int end = line.indexOf("?>", lt + 2);
+            if (end < 0) {
+                fatal("Processing instruction not terminated with '?>' on its line");
+            }
+            int targetEnd = nameEnd(line, lt + 2, end);
+            if (targetEnd < 0) {
+                fatal("Invalid processing instruction target");
+            }
+            String target = line.substring(lt + 2, targetEnd);
+            if ("xml".equalsIgnoreCase(target)) {
+                fatal("The XML declaration is only allowed at the start of the document");
+            }
+            int dataStart = skipSpace(line, targetEnd, end);
+            flushChars();
+            try {
+                if (contentHandler != null) {
+                    contentHandler.processingInstruction(target, line.substring(dataStart, end));
+                }
+            } catch(SAXException se) {
+                throw new XSException(se);
+            }
+            return end + 2;
+        }
+
+        /** start the element of the start tag at index lt, returns the index after the tag */
+        private int inlineStartTag(String line, int lt) throws XSException {
+            int end = line.length();
+            int p = nameEnd(line, lt + 1, end);
+            if (p < 0) {
+                fatal("The content of elements must consist of well-formed character data or markup");
+            }
+            String tag = line.substring(lt + 1, p);
+            int count = 0;
+            while (true) {
+                int q = skipSpace(line, p, end);
+                if (q < end && line.charAt(q) == '>') {
+                    start(tag, count, false, true);
+                    return q + 1;
+                }
+                if (line.startsWith("/>", q)) {
+                    start(tag, count, true, true);
+                    return q + 2;
+                }
+                if (q >= end) {
+                    fatal("Start tag '<" + tag + "' of a text line must end on its line with '>' or '/>'");
+                }
+                int nEnd = (q > p) ? nameEnd(line, q, end) : -1;
+                int v = (nEnd < 0) ? end : skipSpace(line, nEnd, end);
+                if (v < end && line.charAt(v) == '=') {
+                    v = skipSpace(line, v + 1, end);
+                } else {
+                    v = end;
+                }
+                char quote = (v < end) ? line.charAt(v) : 0;
+                int close = (quote == '"' || quote == '\'') ? line.indexOf(quote, v + 1) : -1;
+                int lessThan = line.indexOf('<', v + 1);
+                if (close < 0 || (lessThan >= 0 && lessThan < close)) {
+                    fatal("Invalid attribute in start tag '<" + tag + "' of a text line");
+                }
+                String name = line.substring(q, nEnd);
+                for (int i = 0; i < count; i++) {
+                    if (attNames[i].equals(name)) {
+                        fatal("Attribute '" + name + "' is repeated in start tag '<" + tag + "'");
+                    }
+                }
+                ensureAttributes(count + 1);
+                attNames[count] = name;
+                attValues[count] = line.substring(v + 1, close);
+                count++;
+                p = close + 1;
+            }
+        }
+
+        /** end the element of the end tag at index lt, returns the index after the tag */
+        private int inlineEndTag(String line, int lt) throws XSException {
+            int end = line.length();
+            int p = nameEnd(line, lt + 2, end);
+            int gt = (p < 0) ? -1 : skipSpace(line, p, end);
+            if (gt < 0 || gt >= end || line.charAt(gt) != '>') {
+                fatal("Invalid end tag in text line");
+            }
+            String tag = line.substring(lt + 2, p);
+            if (depth == 0 || !tag.equals(inlineTags[depth - 1])) {
+                fatal("End tag '</" + tag + ">' does not match the open element of the text line");
+            }
+            flushChars();
+            try {
+                end(tag);
+            } catch(SAXException se) {
+                throw new XSException(se);
+            }
+            return gt + 1;
+        }
+
+        /** returns the end index of an XML name beginning at the given index or -1 if there is none */
+        private int nameEnd(String line, int idx, int end) {
+            if (idx >= end || !isNameStart(line.charAt(idx))) {
+                return -1;
+            }
+            int p = idx + 1;
+            while (p < end && (isNameStart(line.charAt(p)) || Character.isDigit(line.charAt(p))
+                    || line.charAt(p) == '-' || line.charAt(p) == '.' || line.charAt(p) == '\u00B7')) {
+                p++;
+            }
+            return p;
+        }
+
+        private boolean isNameStart(char c) {
+            return Character.isLetter(c) || c == '_' || c == ':';
+        }
+
+        private int skipSpace(String line, int idx, int end) {
+            while (idx < end && XSLexer.isSpace(line.charAt(idx))) {
+                idx++;
+            }
+            return idx;
+        }
+
+        // character data
+
+        private void newLine() throws XSException {
+            if (depth > 0) {
+                chars.append('\n');
+            }
+        }
+
+        /** indentation written by convert for the given level */
+        private void indent(int indent) {
+            if (depth > 0) {
+                if (xs.optionIndentWithSpaces) {
+                    repeat(SPACES, indent * xs.getTabSpaces());
+                } else {
+                    repeat(TABS, indent);
+                }
+            }
+        }
+
+        private void repeat(char[] blanks, int count) {
+            while (count > 0) {
+                int n = Math.min(count, blanks.length);
+                chars.append(blanks, 0, n);
+                count -= n;
+            }
+        }
+
+        /** leading whitespace of a markup line */
+        private void whitespace(String line, int start, int end) throws XSException {
+            text(line, start, end);
+        }
+
+        /** text, with entity and character references replaced */
+        private void text(String line, int start, int end) throws XSException {
+            if (start >= end) {
+                return;
+            }
+            if (depth > 0) {
+                decode(line, start, end, chars, false);
+            } else {
+                for (int i = start; i < end; i++) {
+                    if (!Character.isWhitespace(line.charAt(i))) {
+                        fatal("Text is not allowed outside the root element");
+                    }
+                }
+            }
+        }
+
+        private void flushChars() throws XSException {
+            int length = chars.length();
+            if (length == 0) {
+                return;
+            }
+            if (length > charBuffer.length) {
+                charBuffer = new char[Math.max(length, charBuffer.length * 2)];
+            }
+            chars.getChars(0, length, charBuffer, 0);
+            chars.setLength(0);
+            try {
+                if (contentHandler != null) {
+                    contentHandler.characters(charBuffer, 0, length);
+                }
+            } catch(SAXException se) {
+                throw new XSException(se);
+            }
+        }
+
+        // names and references
+
+        /** returns the prefix declared by a namespace attribute or null if it is not one */
+        private String namespacePrefix(String name) {
+            if ("xmlns".equals(name)) {
+                return "";
+            } else if (name.startsWith("xmlns:")) {
+                return name.substring("xmlns:".length());
+            }
+            return null;
+        }
+
+        private String[] processName(String qName, boolean isAttribute) throws XSException {
+            String[] names = nsSupport.processName(qName, parts, isAttribute);
+            if (names == null) {
+                fatal("The prefix of " + (isAttribute ? "attribute" : "element") + " '" + qName + "' is not bound");
+            }
+            parts = new String[3];
+            return names;
+        }
+
+        private String decode(String value, boolean attribute) throws XSException {
+            if (value.indexOf('&') < 0 && (!attribute || !hasSpaceToNormalize(value))) {
+                return value;
+            }
+            StringBuilder sb = new StringBuilder(value.length());
+            decode(value, 0, value.length(), sb, attribute);
+            return sb.toString();
+        }
+
+        private boolean hasSpaceToNormalize(String value) {
+            return value.indexOf('\t') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0;
+        }
+
+        /** append s from start to end, replacing references (and normalizing whitespace in attribute values) */
+        private void decode(String s, int start, int end, StringBuilder sb, boolean attribute) throws XSException {
+            if (!attribute) {
+                int amp = s.indexOf('&', start);
+                if (amp < 0 || amp >= end) {
+                    sb.append(s, start, end);
+                    return;
+                }
+            }
+            for (int i = start; i < end; i++) {
+                char c = s.charAt(i);
+                if (c == '&') {
+                    int semicolon = s.indexOf(';', i);
+                    if (semicolon < 0 || semicolon >= end) {
+                        fatal("Reference '&' must end with ';'");
+                    }
+                    String ref = s.substring(i + 1, semicolon);
+                    if ("lt".equals(ref)) {
+                        sb.append('<');
+                    } else if ("gt".equals(ref)) {
+                        sb.append('>');
+                    } else if ("amp".equals(ref)) {
+                        sb.append('&');
+                    } else if ("quot".equals(ref)) {
+                        sb.append('"');
+                    } else if ("apos".equals(ref)) {
+                        sb.append('\'');
+                    } else if (ref.startsWith("#")) {
+                        try {
+                            int codePoint = ref.startsWith("#x")
+                                ? Integer.parseInt(ref.substring(2), 16)
+                                : Integer.parseInt(ref.substring(1));
+                            sb.appendCodePoint(codePoint);
+                        } catch(IllegalArgumentException iae) {
+                            fatal("Invalid character reference '&" + ref + ";'");
+                        }
+                    } else {
+                        fatal("The entity '" + ref + "' was referenced, but not declared");
+                    }
+                    i = semicolon;
+                } else if (attribute && (c == '\t' || c == '\n' || c == '\r')) {
+                    sb.append(' ');
+                } else {
+                    sb.append(c);
+                }
+            }
+        }
+
+        private void fatal(String message) throws XSException {
+            SAXParseException spe = new SAXParseException(message, this);
+            try {
+                if (errorHandler != null) {
+                    errorHandler.fatalError(spe);
+                }
+            } catch(SAXException se) {
+                throw new XSException(se);
+            }
+            throw new XSException(spe);
+        }
+
+    }
+
+}
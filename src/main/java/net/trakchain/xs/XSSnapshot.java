@@ -0,0 +1,399 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+
+/**
+ *  XSSnapshot saves an XSDocument to a binary file
+ *  and loads it again by mapping the file to memory
+ *  (see XSDocument.save and XSDocument.load).
+ *
+ *  The file holds the columns of the tree as they are in memory,
+ *  so a loaded document reads its nodes, attributes and text
+ *  from the mapped file without decoding them;
+ *  only the table of names is read when the file is loaded.
+ *  Loading a large document costs the page faults of the parts that are visited.
+ *
+ *  Each column is mapped on its own and the text is mapped in regions of 1 GB
+ *  (as the windows of XSMappedParser), so files larger than 2 GB can be loaded.
+ *  A column cannot be larger than 2 GB, i.e. documents have at most 2^29 nodes
+ *  and 2^29 attributes, and the text has at most 2^31-1 chars, as a String.
+ *
+ *  Text with chars up to U+00FF only is stored as Latin-1, one byte per char;
+ *  other text is stored as UTF-16LE. Both keep the char offsets of the nodes,
+ *  so a char is read from the mapping without decoding the chars before it.
+ *
+ *  Layout (little-endian, sections aligned to 4 bytes):
+ *  <pre>
+ *  header     magic "XSDS", version, nodes, attributes, names, text chars, name bytes, text encoding
+ *  kind       one byte per node
+ *  nodes      parent, first child, next sibling, indent, name, start, end (int per node each)
+ *  attributes name, value start, value end (int per attribute each)
+ *  names      length and UTF-8 bytes of each name
+ *  text       Latin-1 bytes (encoding 0) or UTF-16LE chars (encoding 1)
+ *  </pre>
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSSnapshot {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** "XSDS" */
+    static final int MAGIC = 0x58534453;
+
+    /** format version, changed when the layout changes */
+    static final int VERSION = 2;
+
+    /** text encodings */
+    static final int LATIN_1 = 0;
+    static final int UTF_16LE = 1;
+
+    /** size of the mapped regions of the text */
+    static final int DEFAULT_REGION = 1 << 30;
+
+    private static final int HEADER_BYTES = 32;
+    private static final int BUFFER_BYTES = 1 << 16;
+
+    private XSSnapshot() {
+    }
+
+
+    // save --------------------------------------------------------------------
+
+    /** Write the document to the file, replacing it */
+    static void save(XSDocument document, File file) throws IOException {
+        byte[][] names = new byte[document.names.length][];
+        int nameBytes = 0;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = document.names[i].getBytes(UTF_8);
+            nameBytes += 4 + names[i].length;
+        }
+        int encoding = isLatin1(document.text) ? LATIN_1 : UTF_16LE;
+
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            Output out = new Output(fos.getChannel());
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(document.size);
+            out.putInt(document.attCount);
+            out.putInt(names.length);
+            out.putInt(document.text.length());
+            out.putInt(nameBytes);
+            out.putInt(encoding);
+
+            for (int node = 0; node < document.size; node++) {
+                out.put(document.kind.get(node));
+            }
+            out.pad();
+            IntBuffer[] nodeColumns = { document.parent, document.firstChild, document.nextSibling,
+                document.indent, document.name, document.start, document.end };
+            for (IntBuffer column : nodeColumns) {
+                out.putInts(column, document.size);
+            }
+            IntBuffer[] attColumns = { document.attName, document.attValueStart, document.attValueEnd };
+            for (IntBuffer column : attColumns) {
+                out.putInts(column, document.attCount);
+            }
+            for (byte[] name : names) {
+                out.putInt(name.length);
+                out.put(name);
+            }
+            out.pad();
+            if (encoding == LATIN_1) {
+                out.putLatin1(document.text);
+            } else {
+                out.putChars(document.text);
+            }
+            out.flush();
+        } finally {
+            fos.close();
+        }
+    }
+
+    private static boolean isLatin1(CharSequence text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Little-endian output through a buffer */
+    private static final class Output {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        private long position;
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void ensure(int n) throws IOException {
+            if (buffer.remaining() < n) {
+                flush();
+            }
+        }
+
+        void put(byte b) throws IOException {
+            ensure(1);
+            buffer.put(b);
+            position++;
+        }
+
+        void put(byte[] b) throws IOException {
+            for (int i = 0; i < b.length; ) {
+                ensure(1);
+                int n = Math.min(buffer.remaining(), b.length - i);
+                buffer.put(b, i, n);
+                i += n;
+                position += n;
+            }
+        }
+
+        void putInt(int i) throws IOException {
+            ensure(4);
+            buffer.putInt(i);
+            position += 4;
+        }
+
+        void putInts(IntBuffer column, int length) throws IOException {
+            for (int i = 0; i < length; i++) {
+                putInt(column.get(i));
+            }
+        }
+
+        void putChars(CharSequence text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                ensure(2);
+                buffer.putChar(text.charAt(i));
+            }
+            position += 2L * text.length();
+        }
+
+        /** chars up to U+00FF, one byte each */
+        void putLatin1(CharSequence text) throws IOException {
+            for (int i = 0; i < text.length(); i++) {
+                ensure(1);
+                buffer.put((byte) text.charAt(i));
+            }
+            position += text.length();
+        }
+
+        /** align to 4 bytes */
+        void pad() throws IOException {
+            while (position % 4 != 0) {
+                put((byte) 0);
+            }
+        }
+
+        void flush() throws IOException {
+            ((Buffer) buffer).flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+    }
+
+
+    // load --------------------------------------------------------------------
+
+    /** Map the file and return the document on it */
+    static XSDocument load(File file) throws IOException {
+        return load(file, DEFAULT_REGION);
+    }
+
+    /** Map the file, with text regions of the given size (a power of two), and return the document on it */
+    static XSDocument load(File file, int regionBytes) throws IOException {
+        FileInputStream fis = new FileInputStream(file);
+        try {
+            // the mappings stay valid after the channel is closed
+            return load(fis.getChannel(), file, regionBytes);
+        } finally {
+            fis.close();
+        }
+    }
+
+    private static XSDocument load(FileChannel channel, File file, int regionBytes) throws IOException {
+        long length = channel.size();
+        if (length < HEADER_BYTES) {
+            throw new IOException("Not a document snapshot: " + file);
+        }
+        ByteBuffer header = read(channel, 0, HEADER_BYTES);
+        if (header.getInt(0) != MAGIC) {
+            throw new IOException("Not a document snapshot: " + file);
+        }
+        int version = header.getInt(4);
+        if (version != VERSION) {
+            throw new IOException(String.format("Unsupported document snapshot version %d (expected %d): %s",
+                version, VERSION, file));
+        }
+        int size = header.getInt(8);
+        int attCount = header.getInt(12);
+        int nameCount = header.getInt(16);
+        int textLength = header.getInt(20);
+        int nameBytes = header.getInt(24);
+        int encoding = header.getInt(28);
+        int charShift = encoding == LATIN_1 ? 0 : 1;
+
+        long kindOffset = HEADER_BYTES;
+        long nodesOffset = align(kindOffset + size);
+        long attsOffset = nodesOffset + 7L * 4 * size;
+        long namesOffset = attsOffset + 3L * 4 * attCount;
+        long textOffset = align(namesOffset + nameBytes);
+        if (size < 1 || attCount < 0 || nameCount < 0 || textLength < 0 || nameBytes < 0
+                || (encoding != LATIN_1 && encoding != UTF_16LE)
+                || textOffset + ((long) textLength << charShift) != length) {
+            throw new IOException("Corrupt document snapshot: " + file);
+        }
+        if (4L * size > Integer.MAX_VALUE || 4L * attCount > Integer.MAX_VALUE) {
+            throw new IOException("Document snapshot is too large to map: " + file);
+        }
+
+        ByteBuffer kind = map(channel, kindOffset, size);
+        IntBuffer[] nodeColumns = new IntBuffer[7];
+        for (int i = 0; i < nodeColumns.length; i++) {
+            nodeColumns[i] = map(channel, nodesOffset + 4L * size * i, 4 * size).asIntBuffer();
+        }
+        IntBuffer[] attColumns = new IntBuffer[3];
+        for (int i = 0; i < attColumns.length; i++) {
+            attColumns[i] = map(channel, attsOffset + 4L * attCount * i, 4 * attCount).asIntBuffer();
+        }
+
+        // names are decoded when the file is loaded
+        ByteBuffer nameBuffer = read(channel, namesOffset, nameBytes);
+        String[] names = new String[nameCount];
+        int p = 0;
+        for (int i = 0; i < nameCount; i++) {
+            int n = p + 4 <= nameBytes ? nameBuffer.getInt(p) : -1;
+            if (n < 0 || p + 4L + n > nameBytes) {
+                throw new IOException("Corrupt document snapshot: " + file);
+            }
+            names[i] = new String(nameBuffer.array(), p + 4, n, UTF_8);
+            p += 4 + n;
+        }
+
+        long textBytes = (long) textLength << charShift;
+        ByteBuffer[] regions = new ByteBuffer[(int) ((textBytes + regionBytes - 1) / regionBytes)];
+        for (int i = 0; i < regions.length; i++) {
+            long offset = (long) i * regionBytes;
+            regions[i] = map(channel, textOffset + offset, (int) Math.min(regionBytes, textBytes - offset));
+        }
+        CharSequence text = new Text(regions, Integer.numberOfTrailingZeros(regionBytes), charShift, 0, textLength);
+
+        return new XSDocument(size, kind, nodeColumns[0], nodeColumns[1], nodeColumns[2],
+            nodeColumns[3], nodeColumns[4], nodeColumns[5], nodeColumns[6],
+            attCount, attColumns[0], attColumns[1], attColumns[2], text, names);
+    }
+
+    private static ByteBuffer map(FileChannel channel, long offset, int length) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** read a section of the file to the heap */
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        ((Buffer) buffer).flip();
+        return buffer;
+    }
+
+    private static long align(long offset) {
+        return (offset + 3) & ~3L;
+    }
+
+
+    /** Chars of the text section, read from the mapped regions */
+    static final class Text implements CharSequence {
+
+        private final ByteBuffer[] regions;
+        private final int regionShift;
+        private final long regionMask;
+        /** log2 of the bytes per char: 0 for Latin-1, 1 for UTF-16LE */
+        private final int charShift;
+        private final int start;
+        private final int length;
+
+        Text(ByteBuffer[] regions, int regionShift, int charShift, int start, int length) {
+            this.regions = regions;
+            this.regionShift = regionShift;
+            this.regionMask = (1L << regionShift) - 1;
+            this.charShift = charShift;
+            this.start = start;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+            }
+            return get(start + index);
+        }
+
+        /** copy the chars from start (inclusive) to end (exclusive) to dst */
+        void getChars(int start, int end, char[] dst, int dstBegin) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+            }
+            for (int i = this.start + start; i < this.start + end; i++) {
+                dst[dstBegin++] = get(i);
+            }
+        }
+
+        /** char at the given index of the whole text section */
+        private char get(int index) {
+            long b = (long) index << charShift;
+            ByteBuffer region = regions[(int) (b >>> regionShift)];
+            int offset = (int) (b & regionMask);
+            return charShift == 0 ? (char) (region.get(offset) & 0xFF) : region.getChar(offset);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > length || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + length);
+            }
+            return new Text(regions, regionShift, charShift, this.start + start, end - start);
+        }
+
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            getChars(0, length, chars, 0);
+            return new String(chars);
+        }
+
+    }
+
+}
@@ -0,0 +1,724 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.stream.Location;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.xml.sax.*;
+import org.xml.sax.ext.DefaultHandler2;
+import org.xml.sax.helpers.NamespaceSupport;
+
+
+/**
+ *  XSStreamReader is a StAX XMLStreamReader that parses XS directly.
+ *
+ *  XS lines are read only when the consumer asks for the next event,
+ *  so a consumer that stops after the first elements reads only
+ *  the beginning of the input.
+ *  The events are the ones of XSReader (the same line and indentation logic
+ *  as XS.convert), pulled one line at a time;
+ *  markup written inside text lines gives its own events too:
+ *
+ *  XMLStreamReader reader = new XSStreamReader(xs, new FileReader("doc.xs"));
+ *
+ *  Attributes and namespace declarations are given with START_ELEMENT
+ *  (ATTRIBUTE and NAMESPACE events are not reported).
+ *  CDATA sections are reported as CDATA events. DTD lines are skipped.
+ *  close() does not close a Reader given as input.
+ *  For a byte stream or system id input, it closes the reader opened on it
+ *  and so the byte stream too.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSStreamReader implements XMLStreamReader {
+
+    /** line reader that fires the SAX events queued here */
+    private final XSReader reader;
+
+    /** events read ahead of the consumer */
+    private final ArrayDeque<Event> queue = new ArrayDeque<Event>();
+
+    /** consumed events that can be reused */
+    private final ArrayDeque<Event> free = new ArrayDeque<Event>();
+
+    /** current event */
+    private Event current;
+
+    /** namespaces in scope of the current event */
+    private final NamespaceSupport nsContext = new NamespaceSupport();
+    private final NamespaceContext nsContextView = new Context();
+
+    private final String systemId;
+    private boolean ended;
+
+
+    /** Create a stream reader with the default settings */
+    public XSStreamReader(Reader input) throws XMLStreamException {
+        this(new XS(), input);
+    }
+
+    /** Create a stream reader that uses the settings of the given converter */
+    public XSStreamReader(XS xs, Reader input) throws XMLStreamException {
+        this(xs, new InputSource(input));
+    }
+
+    /** Create a stream reader for the given input source (character stream, byte stream or system id) */
+    public XSStreamReader(XS xs, InputSource input) throws XMLStreamException {
+        this.systemId = input.getSystemId();
+        this.reader = new XSReader(xs);
+        Collector handler = new Collector();
+        reader.setContentHandler(handler);
+        try {
+            reader.setProperty("http://xml.org/sax/properties/lexical-handler", handler);
+            reader.start(input);
+        } catch(SAXException se) {
+            closeQuietly();
+            throw streamException(se);
+        } catch(IOException ioe) {
+            closeQuietly();
+            throw new XMLStreamException(ioe);
+        }
+        current = newEvent(START_DOCUMENT, 0);
+    }
+
+
+    // events ------------------------------------------------------------------
+
+    /** An event with its names, attributes, namespace declarations and text */
+    private static final class Event {
+        int type;
+        int line;
+
+        String uri;
+        String localName;
+        String prefix;
+
+        int attCount;
+        String[] attUri = new String[4];
+        String[] attLocalName = new String[4];
+        String[] attPrefix = new String[4];
+        String[] attValue = new String[4];
+
+        int nsCount;
+        String[] nsPrefix = new String[2];
+        String[] nsUri = new String[2];
+
+        char[] text = new char[64];
+        int textLength;
+
+        /** processing instruction */
+        String target;
+        String data;
+
+        void addAttribute(String uri, String localName, String prefix, String value) {
+            if (attCount == attValue.length) {
+                int n = attCount * 2;
+                attUri = Arrays.copyOf(attUri, n);
+                attLocalName = Arrays.copyOf(attLocalName, n);
+                attPrefix = Arrays.copyOf(attPrefix, n);
+                attValue = Arrays.copyOf(attValue, n);
+            }
+            attUri[attCount] = uri;
+            attLocalName[attCount] = localName;
+            attPrefix[attCount] = prefix;
+            attValue[attCount] = value;
+            attCount++;
+        }
+
+        void addNamespace(String prefix, String uri) {
+            if (nsCount == nsPrefix.length) {
+                nsPrefix = Arrays.copyOf(nsPrefix, nsCount * 2);
+                nsUri = Arrays.copyOf(nsUri, nsCount * 2);
+            }
+            nsPrefix[nsCount] = prefix;
+            nsUri[nsCount] = uri;
+            nsCount++;
+        }
+
+        void setText(char[] ch, int start, int length) {
+            if (length > text.length) {
+                text = new char[Math.max(length, text.length * 2)];
+            }
+            System.arraycopy(ch, start, text, 0, length);
+            textLength = length;
+        }
+    }
+
+    private Event newEvent(int type, int line) {
+        Event event = free.poll();
+        if (event == null) {
+            event = new Event();
+        }
+        event.type = type;
+        event.line = line;
+        event.uri = event.localName = event.prefix = null;
+        event.target = event.data = null;
+        Arrays.fill(event.attValue, 0, event.attCount, null);
+        event.attCount = 0;
+        event.nsCount = 0;
+        event.textLength = 0;
+        return event;
+    }
+
+    /** Queues the SAX events fired by the line reader */
+    private final class Collector extends DefaultHandler2 {
+
+        private Locator locator;
+
+        /** prefix mappings of the next element */
+        private final ArrayList<String> mappings = new ArrayList<String>();
+
+        private boolean inCDATA;
+
+        private int line() {
+            return (locator != null) ? locator.getLineNumber() : -1;
+        }
+
+        @Override
+        public void setDocumentLocator(Locator locator) {
+            this.locator = locator;
+        }
+
+        @Override
+        public void startPrefixMapping(String prefix, String uri) {
+            mappings.add(prefix);
+            mappings.add(uri);
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes atts) {
+            Event event = newEvent(START_ELEMENT, line());
+            setName(event, uri, localName, qName);
+            for (int i = 0; i < atts.getLength(); i++) {
+                event.addAttribute(atts.getURI(i), atts.getLocalName(i), prefixOf(atts.getQName(i)), atts.getValue(i));
+            }
+            for (int i = 0; i < mappings.size(); i += 2) {
+                event.addNamespace(mappings.get(i), mappings.get(i + 1));
+            }
+            mappings.clear();
+            queue.add(event);
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            Event event = newEvent(END_ELEMENT, line());
+            setName(event, uri, localName, qName);
+            queue.add(event);
+        }
+
+        @Override
+        public void endPrefixMapping(String prefix) {
+            // reported after endElement, the namespaces go out of scope with it
+            queue.peekLast().addNamespace(prefix, null);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            Event event = newEvent(inCDATA ? CDATA : CHARACTERS, line());
+            event.setText(ch, start, length);
+            queue.add(event);
+        }
+
+        @Override
+        public void startCDATA() {
+            inCDATA = true;
+        }
+
+        @Override
+        public void endCDATA() {
+            inCDATA = false;
+        }
+
+        @Override
+        public void comment(char[] ch, int start, int length) {
+            Event event = newEvent(COMMENT, line());
+            event.setText(ch, start, length);
+            queue.add(event);
+        }
+
+        @Override
+        public void processingInstruction(String target, String data) {
+            Event event = newEvent(PROCESSING_INSTRUCTION, line());
+            event.target = target;
+            event.data = data;
+            queue.add(event);
+        }
+
+        @Override
+        public void endDocument() {
+            queue.add(newEvent(END_DOCUMENT, line()));
+        }
+
+        private void setName(Event event, String uri, String localName, String qName) {
+            event.uri = uri;
+            event.localName = localName;
+            event.prefix = prefixOf(qName);
+        }
+
+        private String prefixOf(String qName) {
+            int colon = qName.indexOf(':');
+            return (colon < 0) ? XMLConstants.DEFAULT_NS_PREFIX : qName.substring(0, colon);
+        }
+    }
+
+
+    // parsing -----------------------------------------------------------------
+
+    public int next() throws XMLStreamException {
+        if (current.type == END_DOCUMENT) {
+            throw new NoSuchElementException("No more events after END_DOCUMENT");
+        }
+        // read lines until there is an event
+        try {
+            while (queue.isEmpty() && !ended) {
+                if (!reader.next()) {
+                    ended = true;
+                }
+            }
+        } catch(SAXException se) {
+            close();
+            throw streamException(se);
+        } catch(IOException ioe) {
+            close();
+            throw new XMLStreamException(ioe);
+        }
+
+        if (current.type == END_ELEMENT) {
+            nsContext.popContext();
+        }
+        free.add(current);
+        current = queue.poll();
+        if (current == null) {
+            throw new XMLStreamException("Unexpected end of input");
+        }
+        if (current.type == START_ELEMENT) {
+            nsContext.pushContext();
+            for (int i = 0; i < current.nsCount; i++) {
+                nsContext.declarePrefix(current.nsPrefix[i], current.nsUri[i]);
+            }
+        } else if (current.type == END_DOCUMENT) {
+            close();
+        }
+        return current.type;
+    }
+
+    public boolean hasNext() throws XMLStreamException {
+        return current.type != END_DOCUMENT;
+    }
+
+    public void require(int type, String namespaceURI, String localName) throws XMLStreamException {
+        if (type != current.type) {
+            throw new XMLStreamException("Expected event " + type + " but was " + current.type, getLocation());
+        }
+        if (namespaceURI != null && !namespaceURI.equals(getNamespaceURI())) {
+            throw new XMLStreamException("Expected namespace '" + namespaceURI + "' but was '" + getNamespaceURI() + "'", getLocation());
+        }
+        if (localName != null && !localName.equals(getLocalName())) {
+            throw new XMLStreamException("Expected name '" + localName + "' but was '" + getLocalName() + "'", getLocation());
+        }
+    }
+
+    public String getElementText() throws XMLStreamException {
+        if (current.type != START_ELEMENT) {
+            throw new XMLStreamException("Element text must be read at START_ELEMENT", getLocation());
+        }
+        StringBuilder sb = new StringBuilder();
+        int type = next();
+        while (type != END_ELEMENT) {
+            if (type == CHARACTERS || type == CDATA || type == SPACE || type == ENTITY_REFERENCE) {
+                sb.append(current.text, 0, current.textLength);
+            } else if (type == PROCESSING_INSTRUCTION || type == COMMENT) {
+                // skip
+            } else if (type == END_DOCUMENT) {
+                throw new XMLStreamException("Unexpected end of document when reading element text", getLocation());
+            } else if (type == START_ELEMENT) {
+                throw new XMLStreamException("Element text must not contain elements", getLocation());
+            } else {
+                throw new XMLStreamException("Unexpected event " + type + " when reading element text", getLocation());
+            }
+            type = next();
+        }
+        return sb.toString();
+    }
+
+    public int nextTag() throws XMLStreamException {
+        int type = next();
+        while ((type == CHARACTERS && isWhiteSpace())
+                || (type == CDATA && isWhiteSpace())
+                || type == SPACE
+                || type == PROCESSING_INSTRUCTION
+                || type == COMMENT) {
+            type = next();
+        }
+        if (type != START_ELEMENT && type != END_ELEMENT) {
+            throw new XMLStreamException("Expected start or end tag but found event " + type, getLocation());
+        }
+        return type;
+    }
+
+    /** Stop reading; the underlying reader is not closed */
+    public void close() throws XMLStreamException {
+        ended = true;
+        try {
+            reader.close();
+        } catch(IOException ioe) {
+            throw new XMLStreamException(ioe);
+        }
+    }
+
+    /** close the input opened by a failed start, keeping its error */
+    private void closeQuietly() {
+        try {
+            reader.close();
+        } catch(IOException ioe) {
+            // the start error is reported
+        }
+    }
+
+    private XMLStreamException streamException(SAXException se) {
+        if (se instanceof SAXParseException) {
+            final SAXParseException spe = (SAXParseException) se;
+            return new XMLStreamException(spe.getMessage(), new Position(spe.getLineNumber()), spe);
+        }
+        return new XMLStreamException(se.getMessage(), se);
+    }
+
+
+    // event state -------------------------------------------------------------
+
+    public int getEventType() {
+        return current.type;
+    }
+
+    public boolean isStartElement() {
+        return current.type == START_ELEMENT;
+    }
+
+    public boolean isEndElement() {
+        return current.type == END_ELEMENT;
+    }
+
+    public boolean isCharacters() {
+        return current.type == CHARACTERS;
+    }
+
+    public boolean isWhiteSpace() {
+        if (!isText(current.type)) {
+            return false;
+        }
+        for (int i = 0; i < current.textLength; i++) {
+            char c = current.text[i];
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Location getLocation() {
+        return new Position(current.line);
+    }
+
+    public Object getProperty(String name) {
+        if (name == null) {
+            throw new IllegalArgumentException("Property name must not be null");
+        }
+        return null;
+    }
+
+    public String getEncoding() {
+        return null;
+    }
+
+    public String getVersion() {
+        return null;
+    }
+
+    public boolean isStandalone() {
+        return false;
+    }
+
+    public boolean standaloneSet() {
+        return false;
+    }
+
+    public String getCharacterEncodingScheme() {
+        return null;
+    }
+
+
+    // names -------------------------------------------------------------------
+
+    public boolean hasName() {
+        return current.type == START_ELEMENT || current.type == END_ELEMENT;
+    }
+
+    public QName getName() {
+        checkName();
+        return new QName(current.uri, current.localName, current.prefix);
+    }
+
+    public String getLocalName() {
+        checkName();
+        return current.localName;
+    }
+
+    public String getNamespaceURI() {
+        checkName();
+        return current.uri.isEmpty() ? null : current.uri;
+    }
+
+    public String getPrefix() {
+        checkName();
+        return current.prefix;
+    }
+
+    private void checkName() {
+        if (!hasName()) {
+            throw new IllegalStateException("Current event is not START_ELEMENT or END_ELEMENT");
+        }
+    }
+
+
+    // attributes --------------------------------------------------------------
+
+    public int getAttributeCount() {
+        checkStartElement();
+        return current.attCount;
+    }
+
+    public QName getAttributeName(int index) {
+        checkStartElement();
+        return new QName(current.attUri[index], current.attLocalName[index], current.attPrefix[index]);
+    }
+
+    public String getAttributeNamespace(int index) {
+        checkStartElement();
+        String uri = current.attUri[index];
+        return uri.isEmpty() ? null : uri;
+    }
+
+    public String getAttributeLocalName(int index) {
+        checkStartElement();
+        return current.attLocalName[index];
+    }
+
+    public String getAttributePrefix(int index) {
+        checkStartElement();
+        return current.attPrefix[index];
+    }
+
+    public String getAttributeType(int index) {
+        checkStartElement();
+        return "CDATA";
+    }
+
+    public String getAttributeValue(int index) {
+        checkStartElement();
+        return current.attValue[index];
+    }
+
+    public boolean isAttributeSpecified(int index) {
+        checkStartElement();
+        return true;
+    }
+
+    public String getAttributeValue(String namespaceURI, String localName) {
+        checkStartElement();
+        for (int i = 0; i < current.attCount; i++) {
+            if (current.attLocalName[i].equals(localName)
+                    && (namespaceURI == null || namespaceURI.equals(current.attUri[i]))) {
+                return current.attValue[i];
+            }
+        }
+        return null;
+    }
+
+    private void checkStartElement() {
+        if (current.type != START_ELEMENT) {
+            throw new IllegalStateException("Current event is not START_ELEMENT");
+        }
+    }
+
+
+    // namespaces --------------------------------------------------------------
+
+    public int getNamespaceCount() {
+        checkName();
+        return current.nsCount;
+    }
+
+    public String getNamespacePrefix(int index) {
+        checkName();
+        String prefix = current.nsPrefix[index];
+        return prefix.isEmpty() ? null : prefix;
+    }
+
+    public String getNamespaceURI(int index) {
+        checkName();
+        String uri = current.nsUri[index];
+        if (uri == null) {
+            // end element - the namespace is still in scope
+            uri = nsContext.getURI(current.nsPrefix[index]);
+        }
+        return uri;
+    }
+
+    public String getNamespaceURI(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("Prefix must not be null");
+        }
+        if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+            return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+        }
+        return nsContext.getURI(prefix);
+    }
+
+    public NamespaceContext getNamespaceContext() {
+        return nsContextView;
+    }
+
+    /** View of the namespaces in scope */
+    private final class Context implements NamespaceContext {
+
+        public String getNamespaceURI(String prefix) {
+            if (prefix == null) {
+                throw new IllegalArgumentException("Prefix must not be null");
+            }
+            if (XMLConstants.XMLNS_ATTRIBUTE.equals(prefix)) {
+                return XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+            }
+            String uri = nsContext.getURI(prefix);
+            return (uri == null) ? XMLConstants.NULL_NS_URI : uri;
+        }
+
+        public String getPrefix(String namespaceURI) {
+            Iterator<String> prefixes = getPrefixes(namespaceURI);
+            return prefixes.hasNext() ? prefixes.next() : null;
+        }
+
+        public Iterator<String> getPrefixes(String namespaceURI) {
+            if (namespaceURI == null) {
+                throw new IllegalArgumentException("Namespace URI must not be null");
+            }
+            List<String> prefixes = new ArrayList<String>();
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(namespaceURI)) {
+                prefixes.add(XMLConstants.XMLNS_ATTRIBUTE);
+            } else {
+                if (namespaceURI.equals(nsContext.getURI(""))) {
+                    prefixes.add(XMLConstants.DEFAULT_NS_PREFIX);
+                }
+                Enumeration<?> e = nsContext.getPrefixes(namespaceURI);
+                while (e.hasMoreElements()) {
+                    prefixes.add((String) e.nextElement());
+                }
+            }
+            return Collections.unmodifiableList(prefixes).iterator();
+        }
+    }
+
+
+    // text --------------------------------------------------------------------
+
+    private static boolean isText(int type) {
+        return type == CHARACTERS || type == CDATA || type == SPACE || type == COMMENT;
+    }
+
+    public boolean hasText() {
+        return isText(current.type);
+    }
+
+    public String getText() {
+        checkText();
+        return new String(current.text, 0, current.textLength);
+    }
+
+    public char[] getTextCharacters() {
+        checkText();
+        return current.text;
+    }
+
+    public int getTextCharacters(int sourceStart, char[] target, int targetStart, int length) throws XMLStreamException {
+        checkText();
+        int n = Math.min(length, current.textLength - sourceStart);
+        if (n <= 0) {
+            return 0;
+        }
+        System.arraycopy(current.text, sourceStart, target, targetStart, n);
+        return n;
+    }
+
+    public int getTextStart() {
+        checkText();
+        return 0;
+    }
+
+    public int getTextLength() {
+        checkText();
+        return current.textLength;
+    }
+
+    private void checkText() {
+        if (!hasText()) {
+            throw new IllegalStateException("Current event has no text");
+        }
+    }
+
+    public String getPITarget() {
+        return current.target;
+    }
+
+    public String getPIData() {
+        return current.data;
+    }
+
+
+    // location ----------------------------------------------------------------
+
+    /** Line of an event in the XS input */
+    private final class Position implements Location {
+
+        private final int line;
+
+        Position(int line) {
+            this.line = line;
+        }
+
+        public int getLineNumber() {
+            return line;
+        }
+
+        public int getColumnNumber() {
+            return -1;
+        }
+
+        public int getCharacterOffset() {
+            return -1;
+        }
+
+        public String getPublicId() {
+            return null;
+        }
+
+        public String getSystemId() {
+            return systemId;
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+
+/**
+ *  XSSymbols is a small symbol table for names found in XS lines.
+ *
+ *  Returns the same String instance for every occurrence of a name,
+ *  looking it up by its character range, so repeated tag names and
+ *  abbreviation keys do not allocate a new String on every line.
+ *
+ *  The table stops adding entries when it is full
+ *  and then returns plain substrings.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSSymbols {
+
+    /** maximum number of names kept */
+    private static final int MAX_SIZE = 4096;
+
+    /** open addressing hash table with linear probing */
+    private String[] table = new String[64];
+    private int size;
+
+
+    /** Returns the name with the characters of s from start (inclusive) to end (exclusive) */
+    String get(char[] s, int start, int end) {
+        int length = end - start;
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + s[i];
+        }
+
+        int mask = table.length - 1;
+        for (int idx = mix(h) & mask; ; idx = (idx + 1) & mask) {
+            String symbol = table[idx];
+            if (symbol == null) {
+                String name = new String(s, start, length);
+                if (size < MAX_SIZE) {
+                    table[idx] = name;
+                    size++;
+                    if (size * 2 > table.length) {
+                        rehash();
+                    }
+                }
+                return name;
+            }
+            if (symbol.length() == length && matches(symbol, s, start)) {
+                return symbol;
+            }
+        }
+    }
+
+    /** do the characters of s at start match the symbol? */
+    private static boolean matches(String symbol, char[] s, int start) {
+        for (int i = 0; i < symbol.length(); i++) {
+            if (symbol.charAt(i) != s[start + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** spread hash bits, as names often differ only in their last characters */
+    private static int mix(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    private void rehash() {
+        String[] old = table;
+        table = new String[old.length * 2];
+        int mask = table.length - 1;
+        for (String symbol : old) {
+            if (symbol != null) {
+                int idx = mix(symbol.hashCode()) & mask;
+                while (table[idx] != null) {
+                    idx = (idx + 1) & mask;
+                }
+                table[idx] = symbol;
+            }
+        }
+    }
+
+}
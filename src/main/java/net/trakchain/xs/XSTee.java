@@ -0,0 +1,73 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.IOException;
+
+
+/**
+ *  XSTee gives each line reported by the parser to several handlers, in order
+ *  (see XS.convertTee), so the input is read and scanned once for all of them.
+ *
+ *  The handlers are called one after the other in the parser thread;
+ *  line buffers and attributes are only valid during the call,
+ *  so they are not handed to other threads.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSTee implements XSHandler {
+
+    private final XSHandler[] handlers;
+    private final int count;
+
+    /** Tee to the first count handlers */
+    XSTee(XSHandler[] handlers, int count) {
+        this.handlers = handlers;
+        this.count = count;
+    }
+
+    public void preamble(int indent, char[] buf, int start, int end) throws XSException, IOException {
+        for (int i = 0; i < count; i++) {
+            handlers[i].preamble(indent, buf, start, end);
+        }
+    }
+
+    public void dtd(int indent, char[] buf, int start, int end) throws XSException, IOException {
+        for (int i = 0; i < count; i++) {
+            handlers[i].dtd(indent, buf, start, end);
+        }
+    }
+
+    public void comment(int indent, char[] buf, int start, int end) throws XSException, IOException {
+        for (int i = 0; i < count; i++) {
+            handlers[i].comment(indent, buf, start, end);
+        }
+    }
+
+    public void startElement(int indent, String tag, XSAttributes atts, boolean empty) throws XSException, IOException {
+        for (int i = 0; i < count; i++) {
+            handlers[i].startElement(indent, tag, atts, empty);
+        }
+    }
+
+    public void endElement(int indent, String tag) throws XSException, IOException {
+        for (int i = 0; i < count; i++) {
+            handlers[i].endElement(indent, tag);
+        }
+    }
+
+    public void text(int indent, char[] buf, int start, int end) throws XSException, IOException {
+        for (int i = 0; i < count; i++) {
+            handlers[i].text(indent, buf, start, end);
+        }
+    }
+
+}
@@ -0,0 +1,54 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.IOException;
+import java.util.Map;
+
+
+/**
+ *  XSTemplate is an XS document parsed once (see XS.compileTemplate)
+ *  that is rendered to XML with different abbreviation maps.
+ *
+ *  The lines are kept in an XSDocument with the abbreviations as written
+ *  ($name slots in tag names, attribute names and attribute values),
+ *  and the slots are expanded when the template is rendered,
+ *  so rendering does not read or scan the XS text again.
+ *
+ *  Rendering with a map gives the XML of converting the source with that map
+ *  (and the tab spaces the template was compiled with),
+ *  and an abbreviation missing from the map raises the XSException of convert,
+ *  after the lines before it are written.
+ *  Syntax errors (including the invalid abbreviation '$')
+ *  are raised when the template is compiled.
+ *
+ *  A template is read-only and can be rendered by several threads.
+ *
+ *  @author Miguel L. Pardal
+ */
+public final class XSTemplate {
+
+    /** parsed lines, with abbreviations as written */
+    private final XSDocument document;
+
+    XSTemplate(XSDocument document) {
+        this.document = document;
+    }
+
+    /** Write the XML of the template, expanding its abbreviations with the given map */
+    void render(XSWriter out, Map<String,String> abvMap) throws XSException, IOException {
+        if (abvMap == null) {
+            throw new IllegalArgumentException("Abbreviation map cannot be null!");
+        }
+        document.write(out, abvMap);
+    }
+
+}
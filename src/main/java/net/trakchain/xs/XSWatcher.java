@@ -0,0 +1,208 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+
+/**
+ *  XSWatcher converts XS files again whenever they change,
+ *  until it is closed (watch mode of the command line).
+ *
+ *  The directories of the files are registered with a WatchService.
+ *  Editors and tools often write a file in several steps,
+ *  so events are collected until there are none for a short quiet period
+ *  and then each changed file is converted once, on a small pool of
+ *  worker threads with their own converter (as in the -j mode).
+ *  Files created by rename (atomic saves) are seen as changes too.
+ *
+ *  Directory arguments are watched with their subdirectories, except hidden ones
+ *  (as searched by XS.expandFileArgs): XS files created in them are converted and watched,
+ *  and new subdirectories are searched and watched too.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSWatcher implements Closeable {
+
+    /** events closer than this are handled together */
+    static final long QUIET_MILLIS = 50;
+
+    private final XS template;
+    private final int jobs;
+
+    private final WatchService watchService;
+
+    /** watched files by directory */
+    private final Map<Path,Set<Path>> files = new HashMap<Path,Set<Path>>();
+
+    /** directories where new XS files and subdirectories are watched */
+    private final Set<Path> trees = new HashSet<Path>();
+
+
+    /** Prepare to watch the given XS files and directories */
+    XSWatcher(XS template, List<String> fileArgs, int jobs) throws IOException {
+        this.template = template;
+        this.jobs = jobs;
+        this.watchService = FileSystems.getDefault().newWatchService();
+        try {
+            for (String fileArg : fileArgs) {
+                Path file = Paths.get(fileArg).toAbsolutePath().normalize();
+                if (Files.isDirectory(file)) {
+                    watchTree(file);
+                } else {
+                    watch(file.getParent()).add(file);
+                }
+            }
+        } catch(IOException ioe) {
+            watchService.close();
+            throw ioe;
+        }
+    }
+
+    /** Number of watched files */
+    int getFileCount() {
+        int count = 0;
+        for (Set<Path> dirFiles : files.values()) {
+            count += dirFiles.size();
+        }
+        return count;
+    }
+
+    /** Number of watched directories */
+    int getDirectoryCount() {
+        return files.size();
+    }
+
+    /** register a directory, returns its watched files */
+    private Set<Path> watch(Path dir) throws IOException {
+        Set<Path> dirFiles = files.get(dir);
+        if (dirFiles == null) {
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+            dirFiles = new LinkedHashSet<Path>();
+            files.put(dir, dirFiles);
+        }
+        return dirFiles;
+    }
+
+    /**
+     *  register a directory and its subdirectories, returns the XS files found in them.
+     *  The directories are searched again once registered,
+     *  so files written before the registration are not missed.
+     */
+    private List<Path> watchTree(Path root) throws IOException {
+        List<Path> found;
+        boolean registered;
+        do {
+            List<Path> dirs = new ArrayList<Path>();
+            found = template.findXSFiles(root, dirs);
+            registered = false;
+            for (Path dir : dirs) {
+                if (trees.add(dir)) {
+                    watch(dir);
+                    registered = true;
+                }
+            }
+        } while (registered);
+        for (Path file : found) {
+            watch(file.getParent()).add(file);
+        }
+        return found;
+    }
+
+    /** Convert changed files until closed */
+    void run() throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(jobs);
+        ThreadLocal<XS> workers = template.newWorkers();
+        try {
+            while (true) {
+                Set<Path> changed = new TreeSet<Path>();
+                collect(watchService.take(), changed);
+                // debounce: wait for a quiet period
+                WatchKey key;
+                while ((key = watchService.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS)) != null) {
+                    collect(key, changed);
+                }
+
+                if (!changed.isEmpty()) {
+                    List<String> fileArgs = new ArrayList<String>();
+                    for (Path file : changed) {
+                        fileArgs.add(file.toString());
+                    }
+                    template.runFiles(fileArgs, pool, workers);
+                }
+            }
+        } catch(ClosedWatchServiceException cwse) {
+            // closed
+        } catch(InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /** add the watched files changed by the events of the key */
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path dir = (Path) key.watchable();
+        Set<Path> dirFiles = files.get(dir);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // events were lost, look for new files and check all files
+                if (trees.contains(dir)) {
+                    created(dir, changed);
+                }
+                for (Path file : dirFiles) {
+                    if (Files.exists(file)) {
+                        changed.add(file);
+                    }
+                }
+                continue;
+            }
+            Path file = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && trees.contains(dir)
+                    && !dirFiles.contains(file)) {
+                created(file, changed);
+            }
+            if (dirFiles.contains(file) && Files.exists(file)) {
+                changed.add(file);
+            }
+        }
+        key.reset();
+    }
+
+    /** watch a file or directory created in a watched tree, adding its XS files to the changed ones */
+    private void created(Path file, Set<Path> changed) {
+        if (Files.isDirectory(file)) {
+            if (file.getFileName().toString().startsWith(".") && !trees.contains(file)) {
+                // hidden, as in XS.expandFileArgs
+                return;
+            }
+            try {
+                // files can be written before the directory is registered
+                changed.addAll(watchTree(file));
+            } catch(IOException ioe) {
+                // removed again
+            }
+        } else if (Files.isRegularFile(file) && template.hasXSFileExt(file.getFileName().toString())) {
+            files.get(file.getParent()).add(file);
+        }
+    }
+
+    /** Stop watching */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+}
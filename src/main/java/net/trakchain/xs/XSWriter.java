@@ -0,0 +1,444 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+
+
+/**
+ *  XSWriter is the output layer of the converter.
+ *  As an XSHandler, it writes the XML for each line reported by the parser.
+ *
+ *  XML text is appended to a char buffer that is written to the
+ *  destination Writer when full and on flush,
+ *  instead of going through PrintWriter.printf for every tag.
+ *  Indentation strings are built once per depth
+ *  and the line separator is read once per conversion.
+ *
+ *  The destination can also be a byte channel (see XSMappedParser).
+ *  Then the text is encoded as UTF-8 and lines given as byte ranges
+ *  of the input are copied without decoding.
+ *
+ *  By default the destination is written only when the buffer is full
+ *  and at the end. For a consumer reading the output while it is produced,
+ *  the destination can be flushed after each line or after each top-level element.
+ *
+ *  @author Miguel L. Pardal
+ */
+final class XSWriter implements XSHandler {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /** When the destination is flushed during a conversion */
+    enum Flush {
+        /** only when the buffer is full */
+        FULL,
+        /** after each line, for interactive use */
+        LINE,
+        /** after each top-level element closes, for streaming consumers */
+        ELEMENT
+    }
+
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int count;
+
+    private Writer out;
+    private String lineSeparator;
+
+    /** byte destination, used instead of out */
+    private WritableByteChannel channel;
+    private ByteBuffer bytes;
+
+    /** high surrogate waiting for the next character to be encoded */
+    private char highSurrogate;
+
+    /** flush policy and depth of open elements */
+    private Flush flushMode = Flush.FULL;
+    private int depth;
+
+    /** write one attribute per line? */
+    private boolean oneAttributePerLine;
+
+    /** indentation options the indent cache was built for */
+    private boolean indentWithSpaces;
+    private int tabSpaces = -1;
+
+    /** indentation strings by depth, built on demand */
+    private String[] indents = new String[16];
+
+
+    /** Prepare to write to the given destination with the given options */
+    void reset(Writer out, boolean indentWithSpaces, int tabSpaces, boolean oneAttributePerLine) {
+        this.out = out;
+        this.channel = null;
+        reset(indentWithSpaces, tabSpaces, oneAttributePerLine);
+    }
+
+    /** Prepare to write UTF-8 to the given channel with the given options */
+    void reset(WritableByteChannel channel, boolean indentWithSpaces, int tabSpaces, boolean oneAttributePerLine) {
+        this.out = null;
+        this.channel = channel;
+        if (bytes == null) {
+            bytes = ByteBuffer.allocate(4 * BUFFER_SIZE);
+        }
+        bytes.clear();
+        highSurrogate = 0;
+        reset(indentWithSpaces, tabSpaces, oneAttributePerLine);
+    }
+
+    private void reset(boolean indentWithSpaces, int tabSpaces, boolean oneAttributePerLine) {
+        this.oneAttributePerLine = oneAttributePerLine;
+        this.count = 0;
+        this.flushMode = Flush.FULL;
+        this.depth = 0;
+        this.lineSeparator = System.lineSeparator();
+        if (indentWithSpaces != this.indentWithSpaces || tabSpaces != this.tabSpaces) {
+            this.indentWithSpaces = indentWithSpaces;
+            this.tabSpaces = tabSpaces;
+            Arrays.fill(indents, null);
+        }
+    }
+
+    /** Set when the destination is flushed, until the next reset */
+    void setFlush(Flush flushMode) {
+        this.flushMode = flushMode;
+    }
+
+    /** Write buffered text to the destination and release it */
+    void finish() throws IOException {
+        if (out != null || channel != null) {
+            try {
+                flush();
+            } finally {
+                out = null;
+                channel = null;
+            }
+        }
+    }
+
+    /** Write buffered text to the destination (the destination itself is not flushed) */
+    void flush() throws IOException {
+        flushChars();
+        if (channel != null) {
+            if (highSurrogate != 0) {
+                // unpaired surrogate at the end
+                highSurrogate = 0;
+                bytes.put((byte) '?');
+            }
+            flushBytes();
+        }
+    }
+
+    /** Write buffered text to the destination and flush the destination */
+    private void flushDestination() throws IOException {
+        flush();
+        if (out != null) {
+            out.flush();
+        }
+    }
+
+    /** Write or encode the char buffer */
+    private void flushChars() throws IOException {
+        if (count > 0) {
+            if (channel != null) {
+                encode(buffer, 0, count);
+            } else {
+                out.write(buffer, 0, count);
+            }
+            count = 0;
+        }
+    }
+
+    private void flushBytes() throws IOException {
+        ((Buffer) bytes).flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    /** Encode chars as UTF-8 (unpaired surrogates become '?', as in the JDK encoder) */
+    private void encode(char[] chars, int start, int end) throws IOException {
+        byte[] b = bytes.array();
+        int p = bytes.position();
+        int limit = bytes.limit() - 4;
+        for (int i = start; i < end; i++) {
+            if (p > limit) {
+                ((Buffer) bytes).position(p);
+                flushBytes();
+                p = 0;
+            }
+            char c = chars[i];
+            if (c < 0x80 && highSurrogate == 0) {
+                b[p++] = (byte) c;
+            } else if (highSurrogate != 0) {
+                char high = highSurrogate;
+                highSurrogate = 0;
+                if (Character.isLowSurrogate(c)) {
+                    int cp = Character.toCodePoint(high, c);
+                    b[p++] = (byte) (0xF0 | (cp >> 18));
+                    b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    b[p++] = (byte) (0x80 | (cp & 0x3F));
+                } else {
+                    b[p++] = '?';
+                    // encode c on its own
+                    i--;
+                }
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xC0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c)) {
+                highSurrogate = c;
+            } else if (Character.isLowSurrogate(c)) {
+                b[p++] = '?';
+            } else {
+                b[p++] = (byte) (0xE0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                b[p++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        ((Buffer) bytes).position(p);
+    }
+
+
+    // text --------------------------------------------------------------------
+
+    void write(char c) throws IOException {
+        if (count == BUFFER_SIZE) {
+            flushChars();
+        }
+        buffer[count++] = c;
+    }
+
+    void write(String s) throws IOException {
+        write(s, 0, s.length());
+    }
+
+    /** write the characters of s from start (inclusive) to end (exclusive) */
+    void write(String s, int start, int end) throws IOException {
+        int length = end - start;
+        if (length > BUFFER_SIZE - count) {
+            flushChars();
+            if (length > BUFFER_SIZE) {
+                if (channel != null) {
+                    // encode in buffer sized chunks
+                    for (int i = start; i < end; i += BUFFER_SIZE) {
+                        int n = Math.min(BUFFER_SIZE, end - i);
+                        s.getChars(i, i + n, buffer, 0);
+                        encode(buffer, 0, n);
+                    }
+                } else {
+                    out.write(s, start, length);
+                }
+                return;
+            }
+        }
+        s.getChars(start, end, buffer, count);
+        count += length;
+    }
+
+    /** write the characters of s from start (inclusive) to end (exclusive), e.g. of a mapped snapshot */
+    void write(CharSequence s, int start, int end) throws IOException {
+        if (s instanceof String) {
+            write((String) s, start, end);
+            return;
+        }
+        if (!(s instanceof XSSnapshot.Text)) {
+            write(s.subSequence(start, end).toString());
+            return;
+        }
+        XSSnapshot.Text chars = (XSSnapshot.Text) s;
+        // copy in buffer sized chunks
+        for (int i = start; i < end; ) {
+            if (count == BUFFER_SIZE) {
+                flushChars();
+            }
+            int n = Math.min(BUFFER_SIZE - count, end - i);
+            chars.getChars(i, i + n, buffer, count);
+            count += n;
+            i += n;
+        }
+    }
+
+    /** write the characters of buf from start (inclusive) to end (exclusive) */
+    void write(char[] buf, int start, int end) throws IOException {
+        int length = end - start;
+        if (length > BUFFER_SIZE - count) {
+            flushChars();
+            if (length > BUFFER_SIZE) {
+                if (channel != null) {
+                    encode(buf, start, end);
+                } else {
+                    out.write(buf, start, length);
+                }
+                return;
+            }
+        }
+        System.arraycopy(buf, start, buffer, count, length);
+        count += length;
+    }
+
+    /**
+     *  write bytes of src from start (inclusive) to end (exclusive), only to a byte channel
+     *  (the position and limit of src are cleared afterwards)
+     */
+    void write(ByteBuffer src, int start, int end) throws IOException {
+        flushChars();
+        if (highSurrogate != 0) {
+            highSurrogate = 0;
+            bytes.put((byte) '?');
+        }
+        ((Buffer) src).limit(end);
+        ((Buffer) src).position(start);
+        try {
+            if (src.remaining() > bytes.remaining()) {
+                flushBytes();
+                if (src.remaining() > bytes.remaining()) {
+                    while (src.hasRemaining()) {
+                        channel.write(src);
+                    }
+                    return;
+                }
+            }
+            bytes.put(src);
+        } finally {
+            ((Buffer) src).clear();
+        }
+    }
+
+    void newLine() throws IOException {
+        write(lineSeparator);
+        if (flushMode == Flush.LINE) {
+            flushDestination();
+        }
+    }
+
+    /** write a whole line given as the characters of buf from start to end, followed by the line separator */
+    void line(char[] buf, int start, int end) throws IOException {
+        write(buf, start, end);
+        newLine();
+    }
+
+    /** write a whole line given as UTF-8 bytes, followed by the line separator */
+    void line(ByteBuffer src, int start, int end) throws IOException {
+        write(src, start, end);
+        newLine();
+    }
+
+
+    // XML ---------------------------------------------------------------------
+
+    public void preamble(int indent, char[] buf, int start, int end) throws IOException {
+        line(buf, start, end);
+    }
+
+    public void dtd(int indent, char[] buf, int start, int end) throws IOException {
+        line(buf, start, end);
+    }
+
+    public void comment(int indent, char[] buf, int start, int end) throws IOException {
+        line(buf, start, end);
+    }
+
+    public void text(int indent, char[] buf, int start, int end) throws IOException {
+        line(buf, start, end);
+    }
+
+    /** write an open tag line with attributes */
+    public void startElement(int indent, String tag, XSAttributes atts, boolean empty) throws IOException {
+        startTag(indent, tag);
+        for (int att = 0; att < atts.getLength(); att++) {
+            attributeSeparator(indent, att);
+            atts.writeName(this, att);
+            write("=\"");
+            atts.writeValue(this, att);
+            write('"');
+        }
+        finishTag(empty);
+    }
+
+    /** write the start of an open tag line: indentation, < and tag */
+    void startTag(int indent, String tag) throws IOException {
+        indent(indent);
+        write('<');
+        write(tag);
+    }
+
+    /** write what goes before the given attribute of an open tag: a space or a new line */
+    void attributeSeparator(int indent, int att) throws IOException {
+        if (oneAttributePerLine && att > 0) {
+            newLine();
+            indent(indent + 1);
+        } else {
+            write(' ');
+        }
+    }
+
+    /** write the end of an open tag line */
+    void finishTag(boolean empty) throws IOException {
+        if (empty)
+            write(" /");
+        write('>');
+        newLine();
+        if (!empty) {
+            depth++;
+        } else if (depth == 0) {
+            topLevelElementClosed();
+        }
+    }
+
+    /** write a close tag line */
+    public void endElement(int indent, String tag) throws IOException {
+        indent(indent);
+        write('<');
+        write('/');
+        write(tag);
+        write('>');
+        newLine();
+        if (--depth == 0) {
+            topLevelElementClosed();
+        }
+    }
+
+    private void topLevelElementClosed() throws IOException {
+        if (flushMode == Flush.ELEMENT) {
+            flushDestination();
+        }
+    }
+
+    /** write the indentation for the given depth */
+    void indent(int depth) throws IOException {
+        if (depth > 0) {
+            write(indentString(depth));
+        }
+    }
+
+    private String indentString(int depth) {
+        if (depth >= indents.length) {
+            indents = Arrays.copyOf(indents, Math.max(depth + 1, indents.length * 2));
+        }
+        String indent = indents[depth];
+        if (indent == null) {
+            char c = indentWithSpaces ? ' ' : '\t';
+            char[] chars = new char[indentWithSpaces ? depth * tabSpaces : depth];
+            Arrays.fill(chars, c);
+            indent = new String(chars);
+            indents[depth] = indent;
+        }
+        return indent;
+    }
+
+}
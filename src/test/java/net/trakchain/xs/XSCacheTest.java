@@ -0,0 +1,208 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSCacheTest suite
+ *
+ *  Checks that a caching converter gives the output of an uncached one
+ *  and counts hits, misses and evictions.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSCacheTest {
+
+    private XSConfig config;
+    private XSConverter uncached;
+
+    @Before
+    public void setUp() {
+        config = XSConfig.builder().putAbbreviation("tag", "RootTag").build();
+        uncached = config.compile();
+    }
+
+    @After
+    public void tearDown() {
+        config = null;
+        uncached = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testHitsAndMisses() throws Exception {
+        XSCache cache = new XSCache(1024 * 1024);
+        XSConverter converter = new XSConverter(config, cache);
+        String a = "<$tag\n    <child a \"1\"\n        text\n";
+        String b = "<$tag\n    <other /\n";
+
+        assertEquals(convert(uncached, a), convert(converter, a));
+        assertEquals(convert(uncached, a), convert(converter, a));
+        assertEquals(convert(uncached, b), convert(converter, b));
+        assertEquals(convert(uncached, a), convert(converter, a));
+
+        assertEquals(2, cache.getMisses());
+        assertEquals(2, cache.getHits());
+        assertEquals(0, cache.getEvictions());
+        assertEquals(2, cache.getEntries());
+        assertTrue(cache.getBytes() > 0);
+    }
+
+    @Test
+    public void testConfigurationIsPartOfKey() throws Exception {
+        XSCache cache = new XSCache(1024 * 1024);
+        String input = "<$tag a \"1\" b \"2\"\n    text\n";
+        XSConfig perLine = config.toBuilder().oneAttributePerLine(true).build();
+        XSConfig otherAbv = config.toBuilder().putAbbreviation("tag", "OtherTag").build();
+
+        String expected = convert(uncached, input);
+        assertEquals(expected, convert(new XSConverter(config, cache), input));
+        assertEquals(convert(perLine.compile(), input), convert(new XSConverter(perLine, cache), input));
+        assertEquals(convert(otherAbv.compile(), input), convert(new XSConverter(otherAbv, cache), input));
+        assertEquals(3, cache.getMisses());
+
+        // an equal configuration shares entries
+        XSConfig same = XSConfig.builder().putAbbreviation("tag", "RootTag").build();
+        assertEquals(expected, convert(new XSConverter(same, cache), input));
+        assertEquals(1, cache.getHits());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEviction() throws Exception {
+        String[] inputs = new String[4];
+        for (int i=0; i < inputs.length; i++) {
+            StringBuilder sb = new StringBuilder("<root n \"" + i + "\"\n");
+            for (int j=0; j < 50; j++) {
+                sb.append("    some text line ").append(j).append('\n');
+            }
+            inputs[i] = sb.toString();
+        }
+        // room for about three entries
+        long entry = 2L * convert(uncached, inputs[0]).length();
+        XSCache cache = new XSCache(3 * entry + 2 * entry / 3);
+        XSConverter converter = new XSConverter(config, cache);
+
+        convert(converter, inputs[0]);
+        convert(converter, inputs[1]);
+        convert(converter, inputs[2]);
+        // use 0, so 1 is the least recently used
+        convert(converter, inputs[0]);
+        convert(converter, inputs[3]);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(3, cache.getEntries());
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+
+        long misses = cache.getMisses();
+        convert(converter, inputs[0]);
+        convert(converter, inputs[2]);
+        convert(converter, inputs[3]);
+        assertEquals(misses, cache.getMisses());
+        convert(converter, inputs[1]);
+        assertEquals(misses + 1, cache.getMisses());
+    }
+
+    @Test
+    public void testLargeOutputNotCached() throws Exception {
+        XSCache cache = new XSCache(64);
+        XSConverter converter = new XSConverter(config, cache);
+        String input = "<root\n    a text line longer than the whole cache\n";
+        assertEquals(convert(uncached, input), convert(converter, input));
+        assertEquals(convert(uncached, input), convert(converter, input));
+        assertEquals(0, cache.getEntries());
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testErrorsNotCached() throws Exception {
+        XSCache cache = new XSCache(1024 * 1024);
+        XSConverter converter = new XSConverter(config, cache);
+        String input = "<root\n    text\n    <1tag\n";
+        for (int i=0; i < 2; i++) {
+            StringWriter expected = new StringWriter();
+            StringWriter actual = new StringWriter();
+            try {
+                uncached.convert(new StringReader(input), new PrintWriter(expected));
+                fail("Invalid tag line was accepted");
+            } catch(XSException xse) {
+                try {
+                    converter.convert(new StringReader(input), new PrintWriter(actual));
+                    fail("Invalid tag line was accepted");
+                } catch(XSException cached) {
+                    assertEquals(xse.getMessage(), cached.getMessage());
+                }
+            }
+            // output before the error
+            assertEquals(expected.toString(), actual.toString());
+        }
+        assertEquals(0, cache.getEntries());
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testConcurrentConverters() throws Exception {
+        final XSCache cache = new XSCache(16 * 1024);
+        final XSConverter converter = new XSConverter(config, cache);
+        final List<String> inputs = new ArrayList<String>();
+        final List<String> expected = new ArrayList<String>();
+        for (int i=0; i < 40; i++) {
+            String input = "<$tag n \"" + i + "\"\n    <child\n        text " + i + "\n";
+            inputs.add(input);
+            expected.add(convert(uncached, input));
+        }
+
+        final int threads = 8;
+        final int rounds = 500;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int t=0; t < threads; t++) {
+                final int seed = t;
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        Random random = new Random(seed);
+                        for (int i=0; i < rounds; i++) {
+                            int n = random.nextInt(inputs.size());
+                            assertEquals(expected.get(n), convert(converter, inputs.get(n)));
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(threads * rounds, cache.getHits() + cache.getMisses());
+        assertTrue(cache.getHits() > 0);
+        assertTrue(cache.getBytes() <= cache.getMaxBytes());
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private static String convert(XSConverter converter, String input) throws Exception {
+        StringWriter sw = new StringWriter();
+        converter.convert(new StringReader(input), new PrintWriter(sw));
+        return sw.toString();
+    }
+
+}
@@ -0,0 +1,227 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSConverterTest suite
+ *
+ *  Checks the immutable configuration and that a converter
+ *  shared by threads gives the same output as a sequential XS.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSConverterTest {
+
+    private XS xs;
+
+    @Before
+    public void setUp() {
+        xs = new XS();
+        xs.getAbvMap().put("tag", "RootTag");
+        xs.getAbvMap().put("urn", "urn:expanded");
+        xs.getAbvMap().put("attr1", "Attribute1");
+        xs.getAbvMap().put("a", "Alpha");
+    }
+
+    @After
+    public void tearDown() {
+        xs = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testDefaults() {
+        XSConfig config = XSConfig.builder().build();
+        XS defaults = new XS();
+        assertEquals(defaults.getAbvMap(), config.getAbvMap());
+        assertEquals(defaults.getTabSpaces(), config.getTabSpaces());
+        assertEquals(defaults.optionIndentWithSpaces, config.isIndentWithSpaces());
+        assertEquals(defaults.optionOneAttributePerLine, config.isOneAttributePerLine());
+        assertEquals(config, defaults.getConfig());
+    }
+
+    @Test
+    public void testImmutable() {
+        Map<String,String> abvMap = new HashMap<String,String>();
+        abvMap.put("a", "Alpha");
+        XSConfig.Builder builder = XSConfig.builder().putAbbreviations(abvMap).tabSpaces(2);
+        XSConfig config = builder.build();
+
+        // later changes to the source map and builder are not seen
+        abvMap.put("b", "Beta");
+        builder.putAbbreviation("c", "Gamma").tabSpaces(8);
+        assertEquals("Alpha", config.getAbvMap().get("a"));
+        assertFalse(config.getAbvMap().containsKey("b"));
+        assertFalse(config.getAbvMap().containsKey("c"));
+        assertEquals(2, config.getTabSpaces());
+
+        try {
+            config.getAbvMap().put("d", "Delta");
+            fail("Configuration map was modified");
+        } catch(UnsupportedOperationException uoe) {
+            // expected
+        }
+
+        XSConfig copy = config.toBuilder().oneAttributePerLine(true).build();
+        assertTrue(copy.isOneAttributePerLine());
+        assertFalse(config.isOneAttributePerLine());
+        assertEquals(config.getAbvMap(), copy.getAbvMap());
+        assertFalse(config.equals(copy));
+    }
+
+    @Test
+    public void testInvalidTabSpaces() {
+        try {
+            XSConfig.builder().tabSpaces(-1);
+            fail("Negative tab spaces were accepted");
+        } catch(IllegalArgumentException iae) {
+            assertEquals("The number of spaces equivalent to a tab cannot be -1!", iae.getMessage());
+        }
+    }
+
+    @Test
+    public void testSameOutputAsXS() throws Exception {
+        xs.optionOneAttributePerLine = true;
+        xs.setTabSpaces(2);
+        XSConverter converter = xs.getConfig().compile();
+        for (String key : XSReaderTest.RESOURCES) {
+            String input = XSReaderTest.readResource(key);
+            assertEquals(key, convert(xs, input), convert(converter, input));
+        }
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        XSConverter converter = xs.getConfig().compile();
+        String[] inputs = { "<root\n    <1tag\n", "<$undefined\n", "<root $ \"1\"\n" };
+        for (String input : inputs) {
+            try {
+                convert(xs, input);
+                fail("Invalid input was accepted");
+            } catch(XSException expected) {
+                try {
+                    convert(converter, input);
+                    fail("Invalid input was accepted");
+                } catch(XSException actual) {
+                    assertEquals(expected.getMessage(), actual.getMessage());
+                    assertEquals(expected.getLineNumber(), actual.getLineNumber());
+                }
+            }
+        }
+        // the converter is still usable after errors
+        assertEquals(convert(xs, XSReaderTest.readResource("tree")), convert(converter, XSReaderTest.readResource("tree")));
+    }
+
+    /** Many threads share a converter: every output must equal the sequential one */
+    @Test
+    public void testConcurrentConversions() throws Exception {
+        final int threads = 16;
+        final int rounds = 200;
+
+        final List<String> inputs = new ArrayList<String>();
+        final List<String> expected = new ArrayList<String>();
+        for (String key : XSReaderTest.RESOURCES) {
+            inputs.add(XSReaderTest.readResource(key));
+            expected.add(convert(xs, XSReaderTest.readResource(key)));
+        }
+        // a larger document, so conversions overlap
+        StringBuilder sb = new StringBuilder("<$tag xmlns=\"$urn\"\n");
+        for (int i=0; i < 2000; i++) {
+            sb.append("    <item $attr1 \"").append(i).append("\"\n        text ").append(i).append('\n');
+        }
+        inputs.add(sb.toString());
+        expected.add(convert(xs, sb.toString()));
+
+        final XSConverter converter = xs.getConfig().compile();
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t=0; t < threads; t++) {
+                final int seed = t;
+                results.add(pool.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        Random random = new Random(seed);
+                        barrier.await();
+                        int checked = 0;
+                        for (int i=0; i < rounds; i++) {
+                            int n = random.nextInt(inputs.size());
+                            assertEquals(expected.get(n), convert(converter, inputs.get(n)));
+                            checked++;
+                        }
+                        return checked;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results) {
+                assertEquals(Integer.valueOf(rounds), result.get(60, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentFiles() throws Exception {
+        final File dir = XSTest.createTempDir("XS_converter_");
+        final XSConverter converter = XSConfig.builder().build().compile();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<File>> results = new ArrayList<Future<File>>();
+            for (final String key : new String[] { "doc", "tag", "text", "tree", "xml-comment" }) {
+                final File source = XSTest.copyResource(key + ".xs", dir);
+                for (int copy=0; copy < 4; copy++) {
+                    final File target = new File(dir, key + "-" + copy + ".xml");
+                    target.deleteOnExit();
+                    final boolean mapped = (copy % 2 == 0);
+                    results.add(pool.submit(new Callable<File>() {
+                        @Override
+                        public File call() throws Exception {
+                            return mapped ? converter.convertUTF8(source, target) : converter.convert(source, target);
+                        }
+                    }));
+                }
+            }
+            for (Future<File> result : results) {
+                File target = result.get(60, TimeUnit.SECONDS);
+                String key = target.getName().substring(0, target.getName().lastIndexOf('-'));
+                XSTest.assertReader(XSConverterTest.class.getResourceAsStream("/" + key + ".xml"), target);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private static String convert(XS xs, String input) throws Exception {
+        StringWriter sw = new StringWriter();
+        xs.convert(new StringReader(input), new PrintWriter(sw));
+        return sw.toString();
+    }
+
+    private static String convert(XSConverter converter, String input) throws Exception {
+        StringWriter sw = new StringWriter();
+        converter.convert(new StringReader(input), new PrintWriter(sw));
+        return sw.toString();
+    }
+
+}
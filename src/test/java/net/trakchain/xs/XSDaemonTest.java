@@ -0,0 +1,271 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSDaemonTest suite
+ *
+ *  Runs a daemon on a temporary Unix domain socket
+ *  and checks that its conversions are the local ones.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSDaemonTest {
+
+    private File dir;
+    private Path socket;
+    private XS xs;
+    private Thread daemonThread;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = XSTest.createTempDir("XS_daemon_");
+        socket = new File(dir, "xs.sock").toPath();
+        socket.toFile().deleteOnExit();
+        xs = new XS();
+        xs.getAbvMap().put("tag", "RootTag");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (daemonThread != null && daemonThread.isAlive()) {
+            XSClient client = new XSClient(socket);
+            try {
+                client.stop();
+            } finally {
+                client.close();
+            }
+            daemonThread.join(10000);
+        }
+        xs = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testPingAndStop() throws Exception {
+        startDaemon();
+        XSClient client = new XSClient(socket);
+        try {
+            assertTrue(client.ping());
+            assertTrue(client.ping());
+            client.stop();
+        } finally {
+            client.close();
+        }
+        daemonThread.join(10000);
+        assertFalse(daemonThread.isAlive());
+        assertFalse(Files.exists(socket));
+    }
+
+    @Test
+    public void testSocketPermissions() throws Exception {
+        Assume.assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        startDaemon();
+        // a served request means that the daemon is past bind
+        XSClient client = new XSClient(socket);
+        try {
+            assertTrue(client.ping());
+        } finally {
+            client.close();
+        }
+        assertEquals(PosixFilePermissions.fromString("rw-------"), Files.getPosixFilePermissions(socket));
+        // the private directory it was bound in is removed
+        assertEquals(Arrays.asList("xs.sock"), Arrays.asList(dir.list()));
+    }
+
+    @Test
+    public void testConvertFile() throws Exception {
+        startDaemon();
+        File source = XSTest.copyResource("doc.xs", dir);
+        File missing = new File(dir, "missing.xs");
+
+        XSClient client = new XSClient(socket);
+        try {
+            XSClient.Result result = client.convert(source);
+            assertNull(result.error);
+            assertTrue(result.converted);
+            assertEquals(new File(dir, "doc.xml").getAbsoluteFile(), result.xmlFile);
+            XSTest.assertReader(XSTest.class.getResourceAsStream("/doc.xml"), result.xmlFile);
+            result.xmlFile.deleteOnExit();
+
+            result = client.convert(missing);
+            assertNull(result.xmlFile);
+            assertEquals(missing.getCanonicalPath() + " does not exist!", result.error);
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        startDaemon();
+        String input = "<$tag a \"1\"\n    <child\n        .starts with a dot\n        .\n    text\n";
+        XSClient client = new XSClient(socket);
+        try {
+            // several requests on one connection
+            for (int i=0; i < 3; i++) {
+                StringWriter sw = new StringWriter();
+                client.convert(new StringReader(input), new PrintWriter(sw));
+                assertEquals(convert(input), sw.toString());
+            }
+
+            try {
+                client.convert(new StringReader("<root\n    <1tag\n"), new PrintWriter(new StringWriter()));
+                fail("Invalid tag line was accepted");
+            } catch(XSException xse) {
+                assertEquals("Invalid tag line #2 '    <1tag'", xse.getMessage());
+            }
+            // still usable after an error
+            assertTrue(client.ping());
+        } finally {
+            client.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentClients() throws Exception {
+        startDaemon();
+        final int clients = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (int c=0; c < clients; c++) {
+                final int id = c;
+                results.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        XSClient client = new XSClient(socket);
+                        try {
+                            for (int i=0; i < 50; i++) {
+                                String input = "<$tag client \"" + id + "\"\n    <item n \"" + i + "\"\n        text\n";
+                                StringWriter sw = new StringWriter();
+                                client.convert(new StringReader(input), new PrintWriter(sw));
+                                assertEquals(convert(input), sw.toString());
+                            }
+                        } finally {
+                            client.close();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testProtocolLines() throws Exception {
+        startDaemon();
+        SocketChannel channel = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+        try {
+            Writer out = new OutputStreamWriter(Channels.newOutputStream(channel), "UTF-8");
+            BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), "UTF-8"));
+            out.write("HELLO\nSTREAM\n<root\n..text\n.\n");
+            out.flush();
+            assertEquals("ERROR Unknown command 'HELLO'", in.readLine());
+            assertEquals("OK", in.readLine());
+            assertEquals("<root>", in.readLine());
+            // lines that start with . have an extra .
+            assertEquals("..text", in.readLine());
+            assertEquals("</root>", in.readLine());
+            assertEquals(".", in.readLine());
+        } finally {
+            channel.close();
+        }
+    }
+
+    @Test
+    public void testStaleSocketFile() throws Exception {
+        Files.createFile(socket);
+        startDaemon();
+        XSClient client = new XSClient(socket);
+        try {
+            assertTrue(client.ping());
+        } finally {
+            client.close();
+        }
+
+        // a second daemon on the same socket refuses to start
+        try {
+            new XSDaemon(xs, socket, new PrintStream(new ByteArrayOutputStream())).run();
+            fail("Second daemon started");
+        } catch(IOException ioe) {
+            assertTrue(ioe.getMessage().startsWith("A daemon is already listening"));
+        }
+    }
+
+    @Test
+    public void testRunClient() throws Exception {
+        startDaemon();
+        File source = XSTest.copyResource("tree.xs", dir);
+        File target = new File(dir, "tree.xml");
+        target.deleteOnExit();
+        new XS().run(new String[] { "--client", socket.toString(), source.getPath() });
+        XSTest.assertReader(XSTest.class.getResourceAsStream("/tree.xml"), target);
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private void startDaemon() throws Exception {
+        final XSDaemon daemon = new XSDaemon(xs, socket, new PrintStream(new ByteArrayOutputStream()));
+        daemonThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    daemon.run();
+                } catch(IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+        });
+        daemonThread.setDaemon(true);
+        daemonThread.start();
+        // wait for the socket
+        for (int i=0; i < 500 && !isListening(); i++) {
+            Thread.sleep(10);
+        }
+        assertTrue(isListening());
+    }
+
+    private boolean isListening() {
+        try {
+            new XSClient(socket).close();
+            return true;
+        } catch(IOException ioe) {
+            return false;
+        }
+    }
+
+    private String convert(String input) throws Exception {
+        StringWriter sw = new StringWriter();
+        xs.newWorker().convert(new StringReader(input), new PrintWriter(sw));
+        return sw.toString();
+    }
+
+}
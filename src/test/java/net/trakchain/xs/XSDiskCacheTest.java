@@ -0,0 +1,221 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSDiskCacheTest suite
+ *
+ *  Checks the on-disk conversion cache of the command line.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSDiskCacheTest {
+
+    private File dir;
+    private File cacheDir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = XSTest.createTempDir("XS_cache_");
+        cacheDir = new File(dir, "cache");
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testRunUsesCache() throws Exception {
+        File source = XSTest.copyResource("doc.xs", dir);
+        File target = new File(dir, "doc.xml");
+        String[] args = { "--cache", cacheDir.getPath(), source.getPath() };
+
+        new XS().run(args);
+        XSTest.assertReader(XSTest.class.getResourceAsStream("/doc.xml"), target);
+        List<File> entries = entries();
+        assertEquals(1, entries.size());
+
+        // mark the entry: a second run must copy it instead of converting
+        write(entries.get(0), "<cached />\n");
+        assertTrue(target.delete());
+        new XS().run(args);
+        assertEquals("<cached />\n", read(target));
+
+        // other options: a new entry
+        XS other = new XS();
+        other.optionOneAttributePerLine = true;
+        other.run(args);
+        XSTest.assertReader(XSTest.class.getResourceAsStream("/doc-attr-per-line.xml"), target);
+        assertEquals(2, entries().size());
+    }
+
+    @Test
+    public void testRunParallelWithCache() throws Exception {
+        String[] keys = { "doc", "tag", "text", "tree" };
+        List<String> args = new ArrayList<String>(Arrays.asList("-j", "4", "--cache", cacheDir.getPath()));
+        for (String key : keys) {
+            args.add(XSTest.copyResource(key + ".xs", dir).getPath());
+        }
+        for (int run=0; run < 2; run++) {
+            new XS().run(args.toArray(new String[0]));
+            for (String key : keys) {
+                XSTest.assertReader(XSTest.class.getResourceAsStream("/" + key + ".xml"), new File(dir, key + ".xml"));
+            }
+        }
+        assertEquals(keys.length, entries().size());
+    }
+
+    @Test
+    public void testStoreFailure() throws Exception {
+        File source = XSTest.copyResource("doc.xs", dir);
+        // a file where the cache directory should be: entries cannot be stored
+        write(cacheDir, "not a directory\n");
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        XS xs = new XS();
+        xs.setErr(new PrintStream(buffer, true));
+        xs.run(new String[] { "--cache", cacheDir.getPath(), source.getPath() });
+
+        // converted, with a warning instead of an error
+        XSTest.assertReader(XSTest.class.getResourceAsStream("/doc.xml"), new File(dir, "doc.xml"));
+        String log = buffer.toString();
+        assertTrue(log, log.contains("Warning: Could not store doc.xml in the cache!"));
+        assertFalse(log, log.contains("Error"));
+    }
+
+    @Test
+    public void testCacheSizeLimit() throws Exception {
+        File source = XSTest.copyResource("doc.xs", dir);
+        new XS().run(new String[] { "--cache", cacheDir.getPath(), "--cache-size", "0", source.getPath() });
+        XSTest.assertReader(XSTest.class.getResourceAsStream("/doc.xml"), new File(dir, "doc.xml"));
+        assertEquals(0, entries().size());
+    }
+
+    @Test
+    public void testTrimLeastRecentlyUsed() throws Exception {
+        XSDiskCache cache = new XSDiskCache(cacheDir, 250);
+        File xml = new File(dir, "out.xml");
+        write(xml, repeat('x', 100));
+        String[] keys = new String[3];
+        for (int i=0; i < keys.length; i++) {
+            keys[i] = cache.key("source" + i, "abv", "options");
+            cache.put(keys[i], xml);
+        }
+        // 0 is the most recently used, 1 the least
+        long now = System.currentTimeMillis();
+        setLastModified(keys[1], now - 30000);
+        setLastModified(keys[2], now - 20000);
+        setLastModified(keys[0], now - 10000);
+        assertTrue(cache.get(keys[0], xml, null));
+
+        cache.trim();
+        assertEquals(1, cache.getEvictions());
+        assertFalse(cache.get(keys[1], xml, null));
+        assertTrue(cache.get(keys[2], xml, null));
+        assertTrue(cache.get(keys[0], xml, null));
+        assertEquals(3, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertTrue(cache.stats(), cache.stats().startsWith("Cache: 3 hits, 1 misses, 1 evicted (2 entries, 200 B of 250 B)"));
+    }
+
+    @Test
+    public void testKeys() {
+        XSDiskCache cache = new XSDiskCache(cacheDir, 1);
+        String key = cache.key("source", "abv", "options");
+        assertEquals(64, key.length());
+        assertEquals(key, cache.key("source", "abv", "options"));
+        assertFalse(key.equals(cache.key("source2", "abv", "options")));
+        assertFalse(key.equals(cache.key("source", "abv2", "options")));
+        assertFalse(key.equals(cache.key("source", "abv", "options2")));
+        assertFalse(cache.key("ab", "c", "d").equals(cache.key("a", "bc", "d")));
+
+        // output bytes depend on the platform charset and line separator
+        String options = new XS().optionsKey();
+        assertTrue(options, options.contains(",charset=" + Charset.defaultCharset().name()));
+        assertTrue(options, options.endsWith(",eol=" + XSManifest.toHex(System.lineSeparator().getBytes())));
+        assertTrue(options, options.indexOf(' ') < 0 && options.indexOf('\n') < 0);
+    }
+
+    @Test
+    public void testParseSize() {
+        assertEquals(100, XSDiskCache.parseSize("100"));
+        assertEquals(2048, XSDiskCache.parseSize("2k"));
+        assertEquals(3L * 1024 * 1024, XSDiskCache.parseSize("3M"));
+        assertEquals(1024L * 1024 * 1024, XSDiskCache.parseSize("1G"));
+        assertEquals(-1, XSDiskCache.parseSize(""));
+        assertEquals(-1, XSDiskCache.parseSize("M"));
+        assertEquals(-1, XSDiskCache.parseSize("-1"));
+        assertEquals(-1, XSDiskCache.parseSize("12x"));
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private List<File> entries() {
+        List<File> entries = new ArrayList<File>();
+        File[] subdirs = cacheDir.listFiles();
+        if (subdirs != null) {
+            for (File subdir : subdirs) {
+                for (File file : subdir.listFiles()) {
+                    if (file.getName().endsWith(".xml")) {
+                        entries.add(file);
+                    }
+                }
+            }
+        }
+        return entries;
+    }
+
+    private void setLastModified(String key, long time) {
+        File entry = new File(new File(cacheDir, key.substring(0, 2)), key + ".xml");
+        assertTrue(entry.setLastModified(time));
+    }
+
+    private static String repeat(char c, int n) {
+        char[] chars = new char[n];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    private static void write(File file, String text) throws IOException {
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            w.write(text);
+        } finally {
+            w.close();
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        return XSReaderTest.readAll(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
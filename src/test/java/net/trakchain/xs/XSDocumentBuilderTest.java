@@ -0,0 +1,179 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.*;
+
+import org.w3c.dom.*;
+import org.xml.sax.InputSource;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSDocumentBuilderTest suite
+ *
+ *  Checks that the DOM built from XS is the one
+ *  a DocumentBuilder parses from the converted XML.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSDocumentBuilderTest {
+
+    private XS xs;
+
+    @Before
+    public void setUp() {
+        xs = new XS();
+    }
+
+    @After
+    public void tearDown() {
+        xs = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testDoc() throws Exception {
+        assertSameResource("doc");
+    }
+
+    @Test
+    public void testDocAbv() throws Exception {
+        xs.getAbvMap().put("tag", "RootTag");
+        xs.getAbvMap().put("urn", "urn:expanded");
+        xs.getAbvMap().put("attr1", "Attribute1");
+        xs.getAbvMap().put("a", "Alpha");
+        assertSameResource("doc-abv");
+    }
+
+    @Test
+    public void testTagXsd() throws Exception {
+        assertSameResource("tag-xsd");
+    }
+
+    @Test
+    public void testTree() throws Exception {
+        assertSameResource("tree");
+    }
+
+    @Test
+    public void testTreeTabs() throws Exception {
+        xs.optionIndentWithSpaces = false;
+        assertSameResource("tree");
+    }
+
+    @Test
+    public void testXmlCommentTree() throws Exception {
+        assertSameResource("tree-xml-comment");
+    }
+
+    @Test
+    public void testReferencesCDATAAndNamespaces() throws Exception {
+        String input = "<?xml version=\"1.0\"?>\n"
+            + "<?app some data?>\n"
+            + "<p:root xmlns:p=\"urn:p\" xmlns=\"urn:default\" a=\"&lt;&amp;&#65;&#x42;\"\n"
+            + "    Tom &amp; Jerry &gt; 1\n"
+            + "    <![CDATA[ <raw> ]]>\n"
+            + "    <p:child p:att \"1\" /\n"
+            + "    <child /\n";
+        Document actual = assertSameDocument(input);
+
+        Element root = actual.getDocumentElement();
+        assertEquals("urn:p", root.getNamespaceURI());
+        assertEquals("urn:p", root.getAttributeNodeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, "p").getValue());
+        assertEquals("<&AB", root.getAttribute("a"));
+        Element child = (Element) root.getElementsByTagNameNS("urn:default", "child").item(0);
+        assertNotNull(child);
+    }
+
+    @Test
+    public void testInlineMarkup() throws Exception {
+        String input = "<p:root xmlns:p=\"urn:p\"\n"
+            + "    Hello <b>world</b> and <i class='x' p:a = \"1 &amp; 2\">it<br/>al</i>!\n"
+            + "    a <!-- inline comment --> b <?app data?> c <![CDATA[ <raw> ]]> d\n"
+            + "    <child\n"
+            + "        start <em>across\n"
+            + "        lines</em> end <!-- comment\n"
+            + "        on two lines --> after <p:x/>\n"
+            + "    last\n";
+        Document actual = assertSameDocument(input);
+
+        Element b = (Element) actual.getElementsByTagName("b").item(0);
+        assertNotNull(b);
+        assertEquals("world", b.getTextContent());
+        Element i = (Element) actual.getElementsByTagName("i").item(0);
+        assertEquals("1 & 2", i.getAttributeNS("urn:p", "a"));
+        assertEquals(1, actual.getElementsByTagNameNS("urn:p", "x").getLength());
+    }
+
+    @Test
+    public void testInternedNames() throws Exception {
+        Document first = xs.toDocument(new StringReader("<root\n    <item id \"1\"\n"));
+        Document second = xs.toDocument(new StringReader("<root\n    <item id \"2\"\n"));
+        Element item = (Element) first.getElementsByTagName("item").item(0);
+        assertSame("item", item.getTagName());
+        assertSame(item.getTagName(), second.getElementsByTagName("item").item(0).getNodeName());
+        assertSame("id", item.getAttributes().item(0).getNodeName());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        try {
+            xs.toDocument(new StringReader("<root\n    <1tag\n"));
+            fail("Invalid tag line was accepted");
+        } catch(XSException xse) {
+            // same message as convert
+            assertEquals("Invalid tag line #2 '    <1tag'", xse.getMessage());
+        }
+
+        try {
+            xs.toDocument(new StringReader("<a\n<b\n"));
+            fail("Second root element was accepted");
+        } catch(XSException xse) {
+            assertEquals("Only one root element is allowed, found 'b'", xse.getMessage());
+            assertEquals(Integer.valueOf(2), xse.getLineNumber());
+        }
+
+        // still usable after an error
+        assertEquals("root", xs.toDocument(new StringReader("<root\n")).getDocumentElement().getTagName());
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private void assertSameResource(String key) throws Exception {
+        InputStream input = XSDocumentBuilderTest.class.getResourceAsStream("/" + key + ".xs");
+        assertNotNull(input);
+        assertSameDocument(XSReaderTest.readAll(new InputStreamReader(input, "UTF-8")));
+    }
+
+    private Document assertSameDocument(String input) throws Exception {
+        StringWriter xml = new StringWriter();
+        PrintWriter pw = new PrintWriter(xml);
+        xs.convert(new StringReader(input), pw);
+        pw.flush();
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        Document expected = dbf.newDocumentBuilder().parse(new InputSource(new StringReader(xml.toString())));
+
+        Document actual = xs.toDocument(new StringReader(input));
+        XSReaderTest.assertSameNode(expected, actual);
+        assertTrue(expected.isEqualNode(actual));
+        return actual;
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSDocumentTest suite
+ *
+ *  Checks the navigation of the compact document tree
+ *  and that writing it gives the XML of XS.convert.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSDocumentTest {
+
+    private XS xs;
+
+    @Before
+    public void setUp() {
+        xs = new XS();
+        xs.getAbvMap().put("tag", "RootTag");
+        xs.getAbvMap().put("urn", "urn:expanded");
+        xs.getAbvMap().put("attr1", "Attribute1");
+        xs.getAbvMap().put("a", "Alpha");
+    }
+
+    @After
+    public void tearDown() {
+        xs = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testWriteAsConvert() throws Exception {
+        for (String key : XSReaderTest.RESOURCES) {
+            assertSameOutput(key);
+        }
+    }
+
+    @Test
+    public void testWriteWithOptions() throws Exception {
+        String input = XSReaderTest.readResource("doc");
+        XSDocument document = xs.parseDocument(new StringReader(input));
+
+        // options are the ones of the writer, not of the parser
+        xs.optionIndentWithSpaces = false;
+        xs.optionOneAttributePerLine = true;
+        assertEquals(convert(input), write(document));
+        xs.setTabSpaces(2);
+        xs.optionIndentWithSpaces = true;
+        xs.optionOneAttributePerLine = false;
+        String nl = System.lineSeparator();
+        assertTrue(write(document).contains(nl + "  <subtag>" + nl + "    <subsubtag attr1=\"a\" attr2=\"b\" attr3=\"c\">" + nl));
+    }
+
+    @Test
+    public void testNavigation() throws Exception {
+        String input = "<?xml version=\"1.0\"?>\n"
+            + "<$tag xmlns \"urn\" $a=\"$urn\"\n"
+            + "    <!-- note -->\n"
+            + "    <item id \"1\" /\n"
+            + "    <item id \"2\"\n"
+            + "        two\n"
+            + "    last\n";
+        XSDocument document = xs.parseDocument(new StringReader(input));
+
+        int root = document.getRoot();
+        assertEquals(XSDocument.Kind.DOCUMENT, document.getKind(root));
+        assertEquals(XSDocument.NONE, document.getParent(root));
+        int preamble = document.getFirstChild(root);
+        assertEquals(XSDocument.Kind.PREAMBLE, document.getKind(preamble));
+        assertEquals("<?xml version=\"1.0\"?>", document.getText(preamble));
+
+        int element = document.getDocumentElement();
+        assertEquals(element, document.getNextSibling(preamble));
+        assertEquals("RootTag", document.getName(element));
+        assertEquals(2, document.getAttributeCount(element));
+        assertEquals("xmlns", document.getAttributeName(element, 0));
+        assertEquals("Alpha", document.getAttributeName(element, 1));
+        assertEquals("urn:expanded", document.getAttribute(element, "Alpha"));
+        assertNull(document.getAttribute(element, "missing"));
+
+        int comment = document.getFirstChild(element);
+        assertEquals(XSDocument.Kind.COMMENT, document.getKind(comment));
+        int first = document.getChild(element, "item");
+        assertEquals(first, document.getNextSibling(comment));
+        assertTrue(document.isEmptyElement(first));
+        assertEquals("1", document.getAttribute(first, "id"));
+        assertEquals(1, document.getIndent(first));
+
+        int second = document.getNextSibling(first);
+        assertFalse(document.isEmptyElement(second));
+        assertEquals("2", document.getAttribute(second, "id"));
+        int two = document.getFirstChild(second);
+        assertEquals(XSDocument.Kind.TEXT, document.getKind(two));
+        assertEquals("        two", document.getText(two));
+        assertEquals(second, document.getParent(two));
+        assertNull(document.getName(two));
+        assertEquals(0, document.getAttributeCount(two));
+
+        // text lines belong to the innermost open element
+        int last = document.getNextSibling(two);
+        assertEquals("    last", document.getText(last));
+        assertEquals(XSDocument.NONE, document.getNextSibling(last));
+        assertEquals(XSDocument.NONE, document.getNextSibling(second));
+        assertEquals(8, document.size());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        try {
+            xs.parseDocument(new StringReader("<root\n    <1tag\n"));
+            fail("Invalid tag line was accepted");
+        } catch(XSException xse) {
+            assertEquals("Invalid tag line #2 '    <1tag'", xse.getMessage());
+        }
+        try {
+            xs.parseDocument(new StringReader("<$missing\n"));
+            fail("Missing abbreviation was accepted");
+        } catch(XSException xse) {
+            assertEquals(convertError("<$missing\n"), xse.getMessage());
+        }
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private void assertSameOutput(String key) throws Exception {
+        String input = XSReaderTest.readResource(key);
+        assertEquals(key, convert(input), write(xs.parseDocument(new StringReader(input))));
+    }
+
+    private String convert(String input) throws Exception {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        xs.convert(new StringReader(input), pw);
+        pw.flush();
+        return sw.toString();
+    }
+
+    private String convertError(String input) throws Exception {
+        try {
+            convert(input);
+        } catch(XSException xse) {
+            return xse.getMessage();
+        }
+        fail("No error converting " + input);
+        return null;
+    }
+
+    private String write(XSDocument document) throws Exception {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        xs.write(document, pw);
+        pw.flush();
+        return sw.toString();
+    }
+
+}
@@ -0,0 +1,221 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.util.*;
+import java.util.regex.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSLexerTest suite
+ *
+ *  Checks the tag line scanner against the regular expressions it replaced
+ *  and the indentation scan against the two scans it replaced.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSLexerTest {
+
+    // former regular expressions ----------------------------------------------
+
+    private static final String TAG_REGEX = "[\\$a-zA-Z_:][a-zA-Z0-9_:.]+|\\$?[a-zA-Z]";
+    private static final String STR_REGEX = "\"(.*?)\"";
+    private static final Pattern TAG_PATTERN = Pattern.compile("<(" + TAG_REGEX + ")\\s*");
+    private static final Pattern ATT_PATTERN = Pattern.compile("\\s*(" + TAG_REGEX + ")[=|\\s+]?\\s*" + STR_REGEX + "\\s*");
+
+    /** characters that are significant to the scanner, plus some that are not */
+    private static final String ALPHABET = "<<<\"\"\"==   \t\t$$aZb_:.09|+/x-#\u000B\f\u0085 \u2028\u00e9";
+
+    private XSLexer lexer;
+
+    @Before
+    public void setUp() {
+        lexer = new XSLexer();
+    }
+
+    @After
+    public void tearDown() {
+        lexer = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testTag() {
+        assertTag("<tag", "tag");
+        assertTag("<tag   ", "tag");
+        assertTag("<a", "a");
+        assertTag("<$a", "$a");
+        assertTag("<ns:tag.x_1 att=\"v\"", "ns:tag.x_1");
+        assertTag("<<tag", "tag");
+        assertNoTag("<");
+        assertNoTag("< tag");
+        assertNoTag("<1");
+        assertNoTag("<_");
+        assertNoTag("<$");
+    }
+
+    @Test
+    public void testAttribute() {
+        assertAttribute(" a=\"1\"", "a", "1");
+        assertAttribute("att \"value\"", "att", "value");
+        assertAttribute("att|\"value\"", "att", "value");
+        assertAttribute("att+\"value\"", "att", "value");
+        assertAttribute("att=  \"\"  ", "att", "");
+        assertAttribute("### $att=\"$v\"", "$att", "$v");
+        assertNoAttribute("att = \"value\"");
+        assertNoAttribute("att=\"value");
+        assertNoAttribute("att=value");
+    }
+
+    @Test
+    public void testRandomLinesMatchRegex() {
+        Random random = new Random(42);
+        for (int i=0; i < 200000; i++) {
+            String s = randomLine(random);
+            int from = random.nextInt(s.length() + 1);
+            assertSameTag(s, from);
+            assertSameAttribute(s, from);
+        }
+    }
+
+    @Test
+    public void testGeneratedTagLinesMatchRegex() {
+        Random random = new Random(7);
+        String[] names = { "a", "$a", "tag", "$tag", "ns:t.x", "_x", ":", "1a", "" };
+        String[] seps = { "=", " ", "", "|", "+", " = ", "\t" };
+        String[] values = { "\"v\"", "\"\"", "\"a b\"", "\"x", "v", "\" \"", "\"\u2028\"" };
+        for (int i=0; i < 50000; i++) {
+            StringBuilder sb = new StringBuilder("<");
+            sb.append(names[random.nextInt(names.length)]);
+            int atts = random.nextInt(4);
+            for (int j=0; j < atts; j++) {
+                sb.append(random.nextBoolean() ? " " : "  ");
+                sb.append(names[random.nextInt(names.length)]);
+                sb.append(seps[random.nextInt(seps.length)]);
+                sb.append(values[random.nextInt(values.length)]);
+            }
+            String s = sb.toString();
+            for (int from=0; from <= s.length(); from++) {
+                assertSameTag(s, from);
+                assertSameAttribute(s, from);
+            }
+        }
+    }
+
+    @Test
+    public void testIndentMatchesTwoScans() {
+        Random random = new Random(13);
+        String whitespace = "    \t";
+        for (int i=0; i < 100000; i++) {
+            int length = random.nextInt(16);
+            StringBuilder sb = new StringBuilder("#");
+            for (int j=0; j < length; j++) {
+                sb.append(whitespace.charAt(random.nextInt(whitespace.length())));
+            }
+            sb.append(random.nextBoolean() ? "<tag" : "");
+            char[] line = sb.toString().toCharArray();
+            int tabSpaces = random.nextInt(5);
+
+            // the line starts after the leading #
+            lexer.scanIndent(line, 1, line.length, tabSpaces);
+            int indent = checkIndent(line, 1, tabSpaces);
+            assertEquals(sb.toString(), indent, lexer.indent);
+            assertEquals(sb.toString(), skipIndent(line, 1, tabSpaces, indent), lexer.contentStart);
+        }
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    /** former indentation level scan */
+    private static int checkIndent(char[] line, int start, int tabSpaces) {
+        int spc = 0;
+        int tab = 0;
+        for (int idx = start; idx < line.length; idx++) {
+            if (line[idx] == ' ') spc++;
+            else if (line[idx] == '\t') tab++;
+            else break;
+        }
+        return tabSpaces == 0 ? tab : tab + spc/tabSpaces;
+    }
+
+    /** former indentation skip scan */
+    private static int skipIndent(char[] line, int start, int tabSpaces, int indent) {
+        if (indent == 0)
+            return start;
+        int spc = 0;
+        int tab = 0;
+        int idx;
+        for (idx = start; idx < line.length; idx++) {
+            if (line[idx] == ' ') spc++;
+            else tab++;
+            if ((tabSpaces == 0 ? tab : tab + spc/tabSpaces) == indent)
+                break;
+        }
+        return idx + 1;
+    }
+
+    private void assertTag(String s, String expectedTag) {
+        assertTrue(lexer.findTag(s.toCharArray(), 0, s.length()));
+        assertEquals(expectedTag, s.substring(lexer.nameStart, lexer.nameEnd));
+    }
+
+    private void assertAttribute(String s, String expectedName, String expectedValue) {
+        assertTrue(lexer.findAttribute(s.toCharArray(), 0, s.length()));
+        assertEquals(expectedName, s.substring(lexer.nameStart, lexer.nameEnd));
+        assertEquals(expectedValue, s.substring(lexer.valueStart, lexer.valueEnd));
+    }
+
+    private void assertNoTag(String s) {
+        assertFalse(lexer.findTag(s.toCharArray(), 0, s.length()));
+    }
+
+    private void assertNoAttribute(String s) {
+        assertFalse(lexer.findAttribute(s.toCharArray(), 0, s.length()));
+    }
+
+    private void assertSameTag(String s, int from) {
+        Matcher m = TAG_PATTERN.matcher(s);
+        boolean found = m.find(from);
+        assertEquals(s, found, lexer.findTag(s.toCharArray(), from, s.length()));
+        if (found) {
+            assertEquals(s, m.start(1), lexer.nameStart);
+            assertEquals(s, m.end(1), lexer.nameEnd);
+            assertEquals(s, m.end(), lexer.end);
+        }
+    }
+
+    private void assertSameAttribute(String s, int from) {
+        Matcher m = ATT_PATTERN.matcher(s);
+        boolean found = m.find(from);
+        assertEquals(s, found, lexer.findAttribute(s.toCharArray(), from, s.length()));
+        if (found) {
+            assertEquals(s, m.start(1), lexer.nameStart);
+            assertEquals(s, m.end(1), lexer.nameEnd);
+            assertEquals(s, m.start(2), lexer.valueStart);
+            assertEquals(s, m.end(2), lexer.valueEnd);
+            assertEquals(s, m.end(), lexer.end);
+        }
+    }
+
+    private static String randomLine(Random random) {
+        int length = random.nextInt(24);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i=0; i < length; i++) {
+            sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+        }
+        return sb.toString();
+    }
+
+}
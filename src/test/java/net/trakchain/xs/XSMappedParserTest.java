@@ -0,0 +1,211 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSMappedParserTest suite
+ *
+ *  Checks that the conversion of memory-mapped UTF-8 files
+ *  gives the same bytes as the Reader-based conversion.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSMappedParserTest {
+
+    private XS xs;
+    private File dir;
+
+    @Before
+    public void setUp() throws IOException {
+        xs = new XS();
+        dir = XSTest.createTempDir("XS_mapped_");
+    }
+
+    @After
+    public void tearDown() {
+        xs = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testResources() throws Exception {
+        xs.getAbvMap().put("tag", "RootTag");
+        xs.getAbvMap().put("urn", "urn:expanded");
+        xs.getAbvMap().put("attr1", "Attribute1");
+        xs.getAbvMap().put("a", "Alpha");
+        for (String key : XSReaderTest.RESOURCES) {
+            assertSameBytes(XSReaderTest.readResource(key));
+        }
+    }
+
+    @Test
+    public void testOptions() throws Exception {
+        String input = "<root a \"1\" b \"2\"\n\t<child c \"3\"\n\t\ttext\n  <other /\n";
+        xs.optionOneAttributePerLine = true;
+        assertSameBytes(input);
+        xs.optionIndentWithSpaces = false;
+        assertSameBytes(input);
+        xs.setTabSpaces(2);
+        assertSameBytes(input);
+        xs.setTabSpaces(0);
+        assertSameBytes(input);
+    }
+
+    @Test
+    public void testLineTerminators() throws Exception {
+        assertSameBytes("<root\r\n    <a\r    text\n\n    <b x \"1\" \\\r\n      y \"2\"\r\n");
+        assertSameBytes("<root\n    last line without terminator");
+        assertSameBytes("<root\n    continued at the end \\");
+        assertSameBytes("");
+    }
+
+    @Test
+    public void testNonAscii() throws Exception {
+        xs.getAbvMap().put("t", "\u00e9l\u00e9ment");
+        assertSameBytes("<$t attr \"caf\u00e9 \u20ac \ud83d\ude00\"\n"
+            + "    texte accentu\u00e9 \u4e2d\u6587 \ud83d\ude00\n"
+            + "    <!-- coment\u00e1rio -->\n"
+            + "    <e attr \"\u00e9\" /\n");
+    }
+
+    @Test
+    public void testWindows() throws Exception {
+        StringBuilder sb = new StringBuilder("<root\r\n");
+        for (int i = 0; i < 200; i++) {
+            sb.append("    <item n \"").append(i).append("\"\r\n        text \u00e9 ").append(i).append("\r\n");
+        }
+        String input = sb.toString();
+        byte[] expected = readerConversion(input);
+
+        // small windows split lines and \r\n terminators
+        for (int window : new int[] { 64, 65, 100, 4096 }) {
+            File source = write(input);
+            File target = new File(dir, "windows.xml");
+            target.deleteOnExit();
+            XSWriter out = new XSWriter();
+            FileInputStream fis = new FileInputStream(source);
+            FileOutputStream fos = new FileOutputStream(target);
+            try {
+                FileChannel in = fis.getChannel();
+                out.reset(Channels.newChannel(fos), xs.optionIndentWithSpaces, xs.getTabSpaces(), xs.optionOneAttributePerLine);
+                new XSMappedParser(new XSParser(), window).parse(in, out, xs.getAbvMap(), xs.getTabSpaces());
+                out.finish();
+            } finally {
+                fis.close();
+                fos.close();
+            }
+            assertTrue("window " + window, Arrays.equals(expected, readBytes(target)));
+        }
+    }
+
+    @Test
+    public void testInvalidTagLine() throws Exception {
+        File source = write("<root\n    text\n    <1tag\n");
+        File target = new File(dir, "invalid.xml");
+        target.deleteOnExit();
+        try {
+            xs.convertUTF8(source, target);
+            fail("Invalid tag line was accepted");
+        } catch(XSException xse) {
+            assertEquals(Integer.valueOf(3), xse.getLineNumber());
+            assertEquals("Invalid tag line #3 '    <1tag'", xse.getMessage());
+        }
+        // output before the error is written
+        assertEquals("<root>" + System.lineSeparator() + "    text" + System.lineSeparator(),
+            new String(readBytes(target), "UTF-8"));
+    }
+
+    @Test
+    public void testMalformedInput() throws Exception {
+        byte[] input = { '<', 'r', 'o', 'o', 't', '\n', ' ', ' ', ' ', ' ', 'c', 'a', 'f', (byte) 0xFF, '\n' };
+        File source = write(input);
+        File target = new File(dir, "malformed.xml");
+        target.deleteOnExit();
+
+        // convert decodes with the platform charset, whatever it is
+        xs.convert(source, target);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(bytes));
+        xs.convert(new InputStreamReader(new ByteArrayInputStream(input)), pw);
+        pw.close();
+        assertTrue(Arrays.equals(bytes.toByteArray(), readBytes(target)));
+
+        // convertUTF8 copies the bytes of text lines as they are
+        xs.convertUTF8(source, target);
+        String nl = System.lineSeparator();
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        expected.write(("<root>" + nl + "    caf").getBytes("UTF-8"));
+        expected.write(0xFF);
+        expected.write((nl + "</root>" + nl).getBytes("UTF-8"));
+        assertTrue(Arrays.equals(expected.toByteArray(), readBytes(target)));
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private void assertSameBytes(String input) throws Exception {
+        File source = write(input);
+        File target = new File(dir, "mapped.xml");
+        target.deleteOnExit();
+        xs.convertUTF8(source, target);
+        assertEquals(new String(readerConversion(input), "UTF-8"), new String(readBytes(target), "UTF-8"));
+        assertTrue(Arrays.equals(readerConversion(input), readBytes(target)));
+    }
+
+    private byte[] readerConversion(String input) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintWriter pw = new PrintWriter(new OutputStreamWriter(bytes, "UTF-8"));
+        xs.convert(new InputStreamReader(new ByteArrayInputStream(input.getBytes("UTF-8")), "UTF-8"), pw);
+        pw.close();
+        return bytes.toByteArray();
+    }
+
+    private File write(String input) throws IOException {
+        return write(input.getBytes("UTF-8"));
+    }
+
+    private File write(byte[] input) throws IOException {
+        File file = new File(dir, "input.xs");
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(input);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static byte[] readBytes(File file) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                bytes.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+        }
+        return bytes.toByteArray();
+    }
+
+}
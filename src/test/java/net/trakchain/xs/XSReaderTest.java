@@ -0,0 +1,322 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.*;
+import javax.xml.transform.*;
+import javax.xml.transform.dom.*;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.*;
+
+import org.w3c.dom.*;
+import org.xml.sax.*;
+import org.xml.sax.ext.DefaultHandler2;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSReaderTest suite
+ *
+ *  Checks that the SAX events fired from XS are the ones
+ *  an XML parser fires for the converted XML.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSReaderTest {
+
+    private XS xs;
+
+    @Before
+    public void setUp() {
+        xs = new XS();
+    }
+
+    @After
+    public void tearDown() {
+        xs = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testDoc() throws Exception {
+        assertSameDocument("doc");
+    }
+
+    @Test
+    public void testDocAbv() throws Exception {
+        xs.getAbvMap().put("tag", "RootTag");
+        xs.getAbvMap().put("urn", "urn:expanded");
+        xs.getAbvMap().put("attr1", "Attribute1");
+        xs.getAbvMap().put("a", "Alpha");
+        assertSameDocument("doc-abv");
+    }
+
+    @Test
+    public void testTagXsd() throws Exception {
+        assertSameDocument("tag-xsd");
+    }
+
+    @Test
+    public void testTree() throws Exception {
+        assertSameDocument("tree");
+    }
+
+    @Test
+    public void testTreeTabs() throws Exception {
+        xs.optionIndentWithSpaces = false;
+        assertSameDocument("tree");
+    }
+
+    @Test
+    public void testTreeEmpty() throws Exception {
+        assertSameDocument("tree-empty");
+    }
+
+    @Test
+    public void testTreeSpc2() throws Exception {
+        xs.setTabSpaces(2);
+        assertSameDocument("tree-spc2");
+    }
+
+    @Test
+    public void testXmlCommentTree() throws Exception {
+        assertSameDocument("tree-xml-comment");
+    }
+
+    @Test
+    public void testXsComment() throws Exception {
+        assertSameDocument("xs-comment");
+    }
+
+    @Test
+    public void testReferencesAndProcessingInstruction() throws Exception {
+        String input = "<?xml version=\"1.0\"?>\n"
+            + "<?app some data?>\n"
+            + "<p:root xmlns:p=\"urn:p\" a=\"&lt;&amp;&#65;&#x42;\"\n"
+            + "    Tom &amp; Jerry &gt; 1\n"
+            + "    <![CDATA[ <raw> ]]>\n"
+            + "    <p:child /\n";
+        assertSameDocument(input, xs);
+    }
+
+    @Test
+    public void testInlineMarkup() throws Exception {
+        String input = "<p:root xmlns:p=\"urn:p\"\n"
+            + "    Hello <b>world</b> and <i class='x' p:a = \"1 &amp; 2\">it<br/>al</i>!\n"
+            + "    a <!-- inline comment --> b <?app data?> c <![CDATA[ <raw> ]]> d\n"
+            + "    <child\n"
+            + "        start <em>across\n"
+            + "        lines</em> end <!-- comment\n"
+            + "        on two lines --> after <p:x/>\n"
+            + "    last\n";
+        assertSameDocument(input, xs);
+    }
+
+    @Test
+    public void testInlineMarkupErrors() throws Exception {
+        String[] inputs = {
+            "<root\n    a </b>\n",
+            "<root\n    a <b>\n",
+            "<root\n    a <b>\n    <child\n        text</b>\n",
+            "<root\n    a < b\n",
+            "<root\n    a <b c=\"1\" c=\"2\">x</b>\n",
+            "<root\n    a <?xml version=\"1.0\"?>\n",
+        };
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        for (String input : inputs) {
+            // the output of convert is not well-formed either
+            StringWriter xml = new StringWriter();
+            PrintWriter pw = new PrintWriter(xml);
+            xs.convert(new StringReader(input), pw);
+            pw.flush();
+            DocumentBuilder db = dbf.newDocumentBuilder();
+            db.setErrorHandler(null);
+            try {
+                db.parse(new InputSource(new StringReader(xml.toString())));
+                fail("Converted XML was parsed: " + input);
+            } catch(SAXParseException spe) {
+                // expected
+            }
+
+            XSReader reader = new XSReader(xs);
+            reader.setContentHandler(new DefaultHandler2());
+            try {
+                reader.parse(new InputSource(new StringReader(input)));
+                fail("Invalid markup was accepted: " + input);
+            } catch(SAXParseException spe) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testValidation() throws Exception {
+        String xsd = "<xs:schema xmlns:xs=\"http://www.w3.org/2001/XMLSchema\" targetNamespace=\"urn\""
+            + " elementFormDefault=\"qualified\">"
+            + "<xs:element name=\"tag\"><xs:complexType>"
+            + "<xs:attribute name=\"id\" type=\"xs:int\" use=\"required\"/>"
+            + "</xs:complexType></xs:element></xs:schema>";
+        Schema schema = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI)
+            .newSchema(new StreamSource(new StringReader(xsd)));
+
+        Validator validator = schema.newValidator();
+        validator.validate(new SAXSource(new XSReader(xs), new InputSource(new StringReader("<tag xmlns=\"urn\" id=\"1\" /\n"))));
+
+        try {
+            validator.validate(new SAXSource(new XSReader(xs), new InputSource(new StringReader("<tag xmlns=\"urn\" id=\"x\" /\n"))));
+            fail("Invalid document was accepted");
+        } catch(SAXParseException spe) {
+            assertEquals(1, spe.getLineNumber());
+        }
+    }
+
+    @Test
+    public void testInvalidTagLine() throws Exception {
+        XSReader reader = new XSReader(xs);
+        reader.setContentHandler(new DefaultHandler2());
+        try {
+            reader.parse(new InputSource(new StringReader("<root\n    <1tag\n")));
+            fail("Invalid tag line was accepted");
+        } catch(SAXParseException spe) {
+            assertEquals(2, spe.getLineNumber());
+            assertTrue(spe.getMessage().startsWith("Invalid tag line #2"));
+        }
+    }
+
+    @Test
+    public void testTextOutsideRoot() throws Exception {
+        XSReader reader = new XSReader(xs);
+        try {
+            reader.parse(new InputSource(new StringReader("text\n")));
+            fail("Text outside the root element was accepted");
+        } catch(SAXParseException spe) {
+            assertEquals(1, spe.getLineNumber());
+        }
+    }
+
+    @Test
+    public void testByteStreamClosedOnStartError() throws Exception {
+        final boolean[] closed = { false };
+        InputStream in = new ByteArrayInputStream("<root\n".getBytes("UTF-8")) {
+            @Override
+            public void close() {
+                closed[0] = true;
+            }
+        };
+        XSReader reader = new XSReader(xs);
+        reader.setContentHandler(new DefaultHandler2() {
+            @Override
+            public void startDocument() throws SAXException {
+                throw new SAXException("refused");
+            }
+        });
+        try {
+            reader.parse(new InputSource(in));
+            fail("startDocument error was not reported");
+        } catch(SAXException se) {
+            assertEquals("refused", se.getMessage());
+        }
+        // the reader opened on the byte stream is closed
+        assertTrue(closed[0]);
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private void assertSameDocument(String key) throws Exception {
+        assertSameDocument(readResource(key), xs);
+    }
+
+    /** DOM built from XSReader events must equal DOM parsed from converted XML */
+    static void assertSameDocument(String input, XS xs) throws Exception {
+        StringWriter xml = new StringWriter();
+        PrintWriter pw = new PrintWriter(xml);
+        xs.convert(new StringReader(input), pw);
+        pw.flush();
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        dbf.setNamespaceAware(true);
+        // the identity transformer does not keep CDATA sections
+        dbf.setCoalescing(true);
+        Document expected = dbf.newDocumentBuilder().parse(new InputSource(new StringReader(xml.toString())));
+
+        DOMResult result = new DOMResult();
+        TransformerFactory.newInstance().newTransformer().transform(
+            new SAXSource(new XSReader(xs), new InputSource(new StringReader(input))), result);
+        Document actual = (Document) result.getNode();
+
+        assertSameNode(expected, actual);
+    }
+
+    static void assertSameNode(Node expected, Node actual) {
+        assertEquals(expected.getNodeType(), actual.getNodeType());
+        assertEquals(expected.getNodeName(), actual.getNodeName());
+        assertEquals(expected.getNamespaceURI(), actual.getNamespaceURI());
+        assertEquals(expected.getLocalName(), actual.getLocalName());
+        if (expected.getNodeType() == Node.TEXT_NODE
+                || expected.getNodeType() == Node.CDATA_SECTION_NODE
+                || expected.getNodeType() == Node.COMMENT_NODE
+                || expected.getNodeType() == Node.PROCESSING_INSTRUCTION_NODE) {
+            assertEquals(expected.getNodeValue(), actual.getNodeValue());
+        }
+        if (expected.getNodeType() == Node.ELEMENT_NODE) {
+            NamedNodeMap expectedAtts = expected.getAttributes();
+            NamedNodeMap actualAtts = actual.getAttributes();
+            assertEquals(expected.getNodeName(), expectedAtts.getLength(), actualAtts.getLength());
+            for (int i=0; i < expectedAtts.getLength(); i++) {
+                Attr att = (Attr) expectedAtts.item(i);
+                assertEquals(att.getName(), att.getValue(), ((Element) actual).getAttribute(att.getName()));
+            }
+        }
+        expected.normalize();
+        actual.normalize();
+        NodeList expectedChildren = expected.getChildNodes();
+        NodeList actualChildren = actual.getChildNodes();
+        assertEquals(expected.getNodeName() + " children", expectedChildren.getLength(), actualChildren.getLength());
+        for (int i=0; i < expectedChildren.getLength(); i++) {
+            assertSameNode(expectedChildren.item(i), actualChildren.item(i));
+        }
+    }
+
+    /**
+     *  Keys of the XS resources that suites convert and compare with another output
+     *  (doc-abv needs the abbreviations tag, urn, attr1 and a)
+     */
+    static final String[] RESOURCES = { "doc", "doc-abv", "line-continuation", "preamble",
+        "tag", "tag-attr-alternative", "tag-empty", "tag-xsd", "text", "tree", "tree-empty",
+        "tree-spc2", "tree-xml-comment", "xml-comment", "xs-comment" };
+
+    /** Read the XS resource with the given key */
+    static String readResource(String key) throws IOException {
+        InputStream input = XSReaderTest.class.getResourceAsStream("/" + key + ".xs");
+        assertNotNull(key, input);
+        return readAll(new InputStreamReader(input, "UTF-8"));
+    }
+
+    static String readAll(Reader reader) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        char[] buffer = new char[4096];
+        int n;
+        while ((n = reader.read(buffer)) > 0) {
+            sb.append(buffer, 0, n);
+        }
+        reader.close();
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSSnapshotTest suite
+ *
+ *  Checks that a document loaded from a snapshot file
+ *  has the nodes of the saved one and writes the same XML.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSSnapshotTest {
+
+    private XS xs;
+    private File dir;
+    private int files;
+
+    @Before
+    public void setUp() throws IOException {
+        xs = new XS();
+        dir = XSTest.createTempDir("XS_snapshot_");
+        xs.getAbvMap().put("tag", "RootTag");
+        xs.getAbvMap().put("urn", "urn:expanded");
+        xs.getAbvMap().put("attr1", "Attribute1");
+        xs.getAbvMap().put("a", "Alpha");
+    }
+
+    @After
+    public void tearDown() {
+        xs = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testWriteAsConvert() throws Exception {
+        for (String key : XSReaderTest.RESOURCES) {
+            String text = XSReaderTest.readResource(key);
+            XSDocument loaded = saveAndLoad(xs.parseDocument(new StringReader(text)));
+            assertEquals(key, convert(text), write(loaded));
+        }
+    }
+
+    @Test
+    public void testSameNodes() throws Exception {
+        String input = "<?xml version=\"1.0\"?>\n"
+            + "<$tag xmlns \"urn\" $a=\"$urn\"\n"
+            + "    <!-- note -->\n"
+            + "    <item id \"1\" /\n"
+            + "    <item id \"2\" name \"ção 中文\"\n"
+            + "        two 😀\n"
+            + "    last\n";
+        XSDocument document = xs.parseDocument(new StringReader(input));
+        XSDocument loaded = saveAndLoad(document);
+
+        assertEquals(document.size(), loaded.size());
+        for (int node = 0; node < document.size(); node++) {
+            assertEquals(document.getKind(node), loaded.getKind(node));
+            assertEquals(document.getParent(node), loaded.getParent(node));
+            assertEquals(document.getFirstChild(node), loaded.getFirstChild(node));
+            assertEquals(document.getNextSibling(node), loaded.getNextSibling(node));
+            assertEquals(document.getIndent(node), loaded.getIndent(node));
+            assertEquals(document.getName(node), loaded.getName(node));
+            assertEquals(document.isEmptyElement(node), loaded.isEmptyElement(node));
+            assertEquals(document.getText(node), loaded.getText(node));
+            assertEquals(document.getAttributeCount(node), loaded.getAttributeCount(node));
+            for (int i = 0; i < document.getAttributeCount(node); i++) {
+                assertEquals(document.getAttributeName(node, i), loaded.getAttributeName(node, i));
+                assertEquals(document.getAttributeValue(node, i), loaded.getAttributeValue(node, i));
+            }
+        }
+
+        int element = loaded.getDocumentElement();
+        assertEquals("RootTag", loaded.getName(element));
+        assertEquals("urn:expanded", loaded.getAttribute(element, "Alpha"));
+        int second = loaded.getNextSibling(loaded.getChild(element, "item"));
+        assertEquals("ção 中文", loaded.getAttribute(second, "name"));
+        assertEquals("        two 😀", loaded.getText(loaded.getFirstChild(second)));
+
+        // a loaded document can be saved again
+        assertEquals(write(document), write(saveAndLoad(loaded)));
+    }
+
+    @Test
+    public void testTextEncodings() throws Exception {
+        String latin1 = "<root a=\"ção\"\n    texto em português\n";
+        String other = "<root a=\"ção\"\n    中文 😀\n";
+        File file = newFile("latin1.xsds");
+        xs.parseDocument(new StringReader(latin1)).save(file);
+        assertEquals(XSSnapshot.LATIN_1, header(file, 28));
+        assertEquals(convert(latin1), write(XSDocument.load(file)));
+        file = newFile("utf16.xsds");
+        xs.parseDocument(new StringReader(other)).save(file);
+        assertEquals(XSSnapshot.UTF_16LE, header(file, 28));
+        assertEquals(convert(other), write(XSDocument.load(file)));
+
+        // text split in small regions
+        for (String input : new String[] { latin1, other, XSReaderTest.readResource("doc") }) {
+            XSDocument document = xs.parseDocument(new StringReader(input));
+            document.save(file);
+            for (int regionBytes : new int[] { 2, 4, 16, 1024 }) {
+                XSDocument loaded = XSSnapshot.load(file, regionBytes);
+                assertEquals(write(document), write(loaded));
+                for (int node = 0; node < document.size(); node++) {
+                    assertEquals(document.getText(node), loaded.getText(node));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testInvalidFiles() throws Exception {
+        File file = newFile("doc.xsds");
+        xs.parseDocument(new StringReader("<root\n    text\n")).save(file);
+
+        // other version
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(4);
+            raf.write(new byte[] { 3, 0, 0, 0 });
+        } finally {
+            raf.close();
+        }
+        try {
+            XSDocument.load(file);
+            fail("Other version was loaded");
+        } catch(IOException ioe) {
+            assertTrue(ioe.getMessage(), ioe.getMessage().startsWith("Unsupported document snapshot version 3 (expected 2)"));
+        }
+
+        // truncated
+        xs.parseDocument(new StringReader("<root\n    text\n")).save(file);
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(raf.length() - 2);
+        } finally {
+            raf.close();
+        }
+        try {
+            XSDocument.load(file);
+            fail("Truncated file was loaded");
+        } catch(IOException ioe) {
+            assertTrue(ioe.getMessage(), ioe.getMessage().startsWith("Corrupt document snapshot"));
+        }
+
+        // XS text
+        File other = newFile("doc.xs");
+        Writer w = new OutputStreamWriter(new FileOutputStream(other), "UTF-8");
+        try {
+            w.write("<root\n    some text that is long enough for a header\n");
+        } finally {
+            w.close();
+        }
+        try {
+            XSDocument.load(other);
+            fail("XS file was loaded");
+        } catch(IOException ioe) {
+            assertTrue(ioe.getMessage(), ioe.getMessage().startsWith("Not a document snapshot"));
+        }
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private XSDocument saveAndLoad(XSDocument document) throws IOException {
+        File file = newFile("doc" + (++files) + ".xsds");
+        document.save(file);
+        return XSDocument.load(file);
+    }
+
+    /** int of the snapshot header at the given offset */
+    private static int header(File file, int offset) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.seek(offset);
+            return Integer.reverseBytes(raf.readInt());
+        } finally {
+            raf.close();
+        }
+    }
+
+    private File newFile(String name) {
+        File file = new File(dir, name);
+        file.deleteOnExit();
+        return file;
+    }
+
+    private String convert(String input) throws Exception {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        xs.convert(new StringReader(input), pw);
+        pw.flush();
+        return sw.toString();
+    }
+
+    private String write(XSDocument document) throws Exception {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        xs.write(document, pw);
+        pw.flush();
+        return sw.toString();
+    }
+
+}
@@ -0,0 +1,275 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.stream.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSStreamReaderTest suite
+ *
+ *  Checks that the StAX events pulled from XS are the ones
+ *  an XML stream reader gives for the converted XML.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSStreamReaderTest {
+
+    private XS xs;
+
+    @Before
+    public void setUp() {
+        xs = new XS();
+    }
+
+    @After
+    public void tearDown() {
+        xs = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testDoc() throws Exception {
+        assertSameEvents("doc");
+    }
+
+    @Test
+    public void testDocAbv() throws Exception {
+        xs.getAbvMap().put("tag", "RootTag");
+        xs.getAbvMap().put("urn", "urn:expanded");
+        xs.getAbvMap().put("attr1", "Attribute1");
+        xs.getAbvMap().put("a", "Alpha");
+        assertSameEvents("doc-abv");
+    }
+
+    @Test
+    public void testTagXsd() throws Exception {
+        assertSameEvents("tag-xsd");
+    }
+
+    @Test
+    public void testTree() throws Exception {
+        assertSameEvents("tree");
+    }
+
+    @Test
+    public void testTreeSpc2() throws Exception {
+        xs.setTabSpaces(2);
+        assertSameEvents("tree-spc2");
+    }
+
+    @Test
+    public void testXmlCommentTree() throws Exception {
+        assertSameEvents("tree-xml-comment");
+    }
+
+    @Test
+    public void testNamespacesAndReferences() throws Exception {
+        String input = "<?app some data?>\n"
+            + "<p:root xmlns:p=\"urn:p\" xmlns=\"urn:d\" a=\"&lt;&amp;&#65;\"\n"
+            + "    Tom &amp; Jerry\n"
+            + "    <p:child p:b \"1\" /\n"
+            + "    <child\n";
+        assertSameEvents(input, xs);
+
+        XMLStreamReader reader = new XSStreamReader(xs, new StringReader(input));
+        assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+        assertEquals("urn:p", reader.getNamespaceURI());
+        assertEquals(2, reader.getNamespaceCount());
+        assertEquals("urn:d", reader.getNamespaceContext().getNamespaceURI(""));
+        assertEquals("<&A", reader.getAttributeValue(null, "a"));
+        assertEquals(XMLStreamConstants.CHARACTERS, reader.next());
+        assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+        assertEquals("1", reader.getAttributeValue("urn:p", "b"));
+        reader.close();
+    }
+
+    @Test
+    public void testInlineMarkup() throws Exception {
+        String input = "<p:root xmlns:p=\"urn:p\"\n"
+            + "    Hello <b>world</b> and <i class='x' p:a = \"1 &amp; 2\">it<br/>al</i>!\n"
+            + "    a <!-- inline comment --> b <?app data?> c <![CDATA[ <raw> ]]> d\n"
+            + "    <child\n"
+            + "        start <em>across\n"
+            + "        lines</em> end <!-- comment\n"
+            + "        on two lines --> after <p:x/>\n"
+            + "    last\n";
+        assertSameEvents(input, xs);
+
+        XMLStreamReader reader = new XSStreamReader(xs, new StringReader(input));
+        assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+        assertEquals(XMLStreamConstants.CHARACTERS, reader.next());
+        assertEquals(XMLStreamConstants.START_ELEMENT, reader.next());
+        assertEquals("b", reader.getLocalName());
+        assertEquals("world", reader.getElementText());
+        reader.close();
+    }
+
+    @Test
+    public void testElementText() throws Exception {
+        XMLStreamReader reader = new XSStreamReader(xs, new StringReader("<root\n    <name\n        Tom &amp; Jerry\n    <other\n"));
+        reader.nextTag();
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "root");
+        reader.nextTag();
+        reader.require(XMLStreamConstants.START_ELEMENT, null, "name");
+        assertEquals("\n        Tom & Jerry\n    ", reader.getElementText());
+        reader.require(XMLStreamConstants.END_ELEMENT, null, "name");
+        assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+        assertEquals("other", reader.getLocalName());
+        assertEquals(XMLStreamConstants.END_ELEMENT, reader.nextTag());
+        assertEquals(XMLStreamConstants.END_ELEMENT, reader.nextTag());
+        assertEquals(XMLStreamConstants.END_DOCUMENT, reader.next());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void testReadsOnlyWhatIsPulled() throws Exception {
+        // endless input: <root followed by items
+        CountingReader input = new CountingReader();
+        XMLStreamReader reader = new XSStreamReader(xs, input);
+        int started = 0;
+        while (started < 3) {
+            if (reader.nextTag() == XMLStreamConstants.START_ELEMENT) {
+                started++;
+            }
+        }
+        assertEquals("item", reader.getLocalName());
+        assertEquals("1", reader.getAttributeValue(null, "n"));
+        reader.close();
+        // only the first buffer of input was read
+        assertTrue("read " + input.count, input.count <= 64 * 1024);
+    }
+
+    @Test
+    public void testInvalidTagLine() throws Exception {
+        XMLStreamReader reader = new XSStreamReader(xs, new StringReader("<root\n    <1tag\n"));
+        assertEquals(XMLStreamConstants.START_ELEMENT, reader.nextTag());
+        try {
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            fail("Invalid tag line was accepted");
+        } catch(XMLStreamException xse) {
+            assertEquals(2, xse.getLocation().getLineNumber());
+            assertTrue(xse.getMessage().contains("Invalid tag line #2"));
+        }
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private void assertSameEvents(String key) throws Exception {
+        InputStream input = XSStreamReaderTest.class.getResourceAsStream("/" + key + ".xs");
+        assertNotNull(input);
+        assertSameEvents(XSReaderTest.readAll(new InputStreamReader(input, "UTF-8")), xs);
+    }
+
+    /** events pulled from XS must equal events pulled from converted XML */
+    static void assertSameEvents(String input, XS xs) throws Exception {
+        StringWriter xml = new StringWriter();
+        PrintWriter pw = new PrintWriter(xml);
+        xs.convert(new StringReader(input), pw);
+        pw.flush();
+
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        List<String> expected = events(factory.createXMLStreamReader(new StringReader(xml.toString())));
+        List<String> actual = events(new XSStreamReader(xs, new StringReader(input)));
+        assertEquals(expected, actual);
+    }
+
+    /** event list, with adjacent text merged and whitespace outside the root element left out */
+    static List<String> events(XMLStreamReader reader) throws XMLStreamException {
+        List<String> events = new ArrayList<String>();
+        StringBuilder text = new StringBuilder();
+        int depth = 0;
+        while (reader.hasNext()) {
+            int type = reader.next();
+            if (type == XMLStreamConstants.CHARACTERS || type == XMLStreamConstants.CDATA
+                    || type == XMLStreamConstants.SPACE) {
+                if (depth > 0) {
+                    text.append(reader.getText());
+                }
+                continue;
+            }
+            if (type == XMLStreamConstants.DTD) {
+                continue;
+            }
+            if (text.length() > 0) {
+                events.add("text " + text);
+                text.setLength(0);
+            }
+            switch (type) {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    StringBuilder sb = new StringBuilder("start " + reader.getName() + " " + reader.getPrefix());
+                    SortedSet<String> atts = new TreeSet<String>();
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        atts.add(reader.getAttributeName(i) + "=" + reader.getAttributeValue(i));
+                    }
+                    SortedSet<String> ns = new TreeSet<String>();
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        ns.add(reader.getNamespacePrefix(i) + "=" + reader.getNamespaceURI(i));
+                    }
+                    events.add(sb.append(" ").append(atts).append(" ").append(ns).toString());
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    events.add("end " + reader.getName() + " " + reader.getNamespaceCount());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    events.add("comment " + reader.getText());
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    events.add("pi " + reader.getPITarget() + " " + reader.getPIData());
+                    break;
+                default:
+                    events.add("event " + type);
+            }
+        }
+        reader.close();
+        return events;
+    }
+
+    /** Endless XS input that counts the characters read */
+    static class CountingReader extends Reader {
+        private final StringBuilder line = new StringBuilder("<root\n");
+        private int pos;
+        private int n;
+        long count;
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            int i = 0;
+            while (i < len) {
+                if (pos == line.length()) {
+                    line.setLength(0);
+                    line.append("    <item n \"").append(n++).append("\"\n");
+                    pos = 0;
+                }
+                cbuf[off + i++] = line.charAt(pos++);
+            }
+            count += i;
+            return i;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
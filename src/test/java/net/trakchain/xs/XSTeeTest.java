@@ -0,0 +1,157 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSTeeTest suite
+ *
+ *  Checks that each output of a tee conversion
+ *  is the XML of convert with the options of the output.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSTeeTest {
+
+    private XS xs;
+
+    /** destinations of the outputs */
+    private List<StringWriter> results;
+
+    @Before
+    public void setUp() {
+        xs = new XS();
+        xs.getAbvMap().put("tag", "RootTag");
+        xs.getAbvMap().put("urn", "urn:expanded");
+        xs.getAbvMap().put("attr1", "Attribute1");
+        xs.getAbvMap().put("a", "Alpha");
+        results = new ArrayList<StringWriter>();
+    }
+
+    @After
+    public void tearDown() {
+        xs = null;
+        results = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testOutputsAsConvert() throws Exception {
+        for (String key : XSReaderTest.RESOURCES) {
+            String input = XSReaderTest.readResource(key);
+            results.clear();
+            List<XSOutput> outputs = new ArrayList<XSOutput>();
+            outputs.add(output(true, 4, false));
+            outputs.add(output(false, 4, false));
+            outputs.add(output(true, 4, true));
+            xs.convertTee(new StringReader(input), outputs);
+
+            assertEquals(key, convert(input, true, false), results.get(0).toString());
+            assertEquals(key, convert(input, false, false), results.get(1).toString());
+            assertEquals(key, convert(input, true, true), results.get(2).toString());
+        }
+    }
+
+    @Test
+    public void testOutputTabSpaces() throws Exception {
+        String input = XSReaderTest.readResource("doc");
+        List<XSOutput> outputs = new ArrayList<XSOutput>();
+        outputs.add(output(true, 2, false));
+        outputs.add(output(true, 8, true));
+        xs.convertTee(new StringReader(input), outputs);
+
+        // input indentation is read with the tab spaces of the converter
+        XSDocument document = xs.parseDocument(new StringReader(input));
+        xs.setTabSpaces(2);
+        assertEquals(write(document), results.get(0).toString());
+        xs.setTabSpaces(8);
+        xs.optionOneAttributePerLine = true;
+        assertEquals(write(document), results.get(1).toString());
+    }
+
+    @Test
+    public void testConverter() throws Exception {
+        String input = XSReaderTest.readResource("tree");
+        XSConverter converter = XSConfig.builder().tabSpaces(2).build().compile();
+        List<XSOutput> outputs = new ArrayList<XSOutput>();
+        outputs.add(output(true, 2, false));
+        outputs.add(output(false, 2, false));
+        converter.convertTee(new StringReader(input), outputs);
+
+        xs.setTabSpaces(2);
+        assertEquals(convert(input, true, false), results.get(0).toString());
+        assertEquals(convert(input, false, false), results.get(1).toString());
+    }
+
+    @Test
+    public void testErrors() throws Exception {
+        String input = "<root\n    <item\n        text\n    <$missing\n";
+        List<XSOutput> outputs = new ArrayList<XSOutput>();
+        outputs.add(output(true, 4, false));
+        outputs.add(output(false, 4, false));
+        try {
+            xs.convertTee(new StringReader(input), outputs);
+            fail("Missing abbreviation was accepted");
+        } catch(XSException xse) {
+            assertEquals("Abbreviation 'missing' not defined!", xse.getMessage());
+        }
+        // each output has the lines before the error
+        assertEquals(convert(input, true, false), results.get(0).toString());
+        assertEquals(convert(input, false, false), results.get(1).toString());
+
+        try {
+            new XSOutput(new PrintWriter(new StringWriter()), true, -1, false);
+            fail("Negative tab spaces were accepted");
+        } catch(IllegalArgumentException iae) {
+            assertEquals("The number of spaces equivalent to a tab cannot be -1!", iae.getMessage());
+        }
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private XSOutput output(boolean indentWithSpaces, int tabSpaces, boolean oneAttributePerLine) {
+        StringWriter sw = new StringWriter();
+        results.add(sw);
+        return new XSOutput(new PrintWriter(sw), indentWithSpaces, tabSpaces, oneAttributePerLine);
+    }
+
+    /** output of convert with the given options, up to the error if there is one */
+    private String convert(String input, boolean indentWithSpaces, boolean oneAttributePerLine) throws Exception {
+        xs.optionIndentWithSpaces = indentWithSpaces;
+        xs.optionOneAttributePerLine = oneAttributePerLine;
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        try {
+            xs.convert(new StringReader(input), pw);
+        } catch(XSException xse) {
+            // compare the output before the error
+        }
+        pw.flush();
+        return sw.toString();
+    }
+
+    private String write(XSDocument document) throws Exception {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        xs.write(document, pw);
+        pw.flush();
+        return sw.toString();
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSTemplateTest suite
+ *
+ *  Checks that rendering a template with an abbreviation map
+ *  gives the XML (and the errors) of converting its source with that map.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSTemplateTest {
+
+    private XS xs;
+
+    @Before
+    public void setUp() {
+        xs = new XS();
+    }
+
+    @After
+    public void tearDown() {
+        xs = null;
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testRenderAsConvert() throws Exception {
+        for (String key : XSReaderTest.RESOURCES) {
+            String input = XSReaderTest.readResource(key);
+            XSTemplate template = xs.compileTemplate(new StringReader(input));
+            for (Map<String,String> abvMap : Arrays.asList(map("One"), map("Two"))) {
+                xs.setAbvMap(abvMap);
+                assertEquals(key, convert(input), render(template));
+            }
+        }
+    }
+
+    @Test
+    public void testRenderWithOptions() throws Exception {
+        String input = XSReaderTest.readResource("doc-abv");
+        XSTemplate template = xs.compileTemplate(new StringReader(input));
+        xs.setAbvMap(map("One"));
+        xs.optionIndentWithSpaces = false;
+        xs.optionOneAttributePerLine = true;
+        assertEquals(convert(input), render(template));
+
+        // a converter renders with its configuration
+        XSConverter converter = XSConfig.builder().putAbbreviations(map("Two")).oneAttributePerLine(true).build().compile();
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        converter.render(template, pw);
+        pw.flush();
+        StringWriter expected = new StringWriter();
+        pw = new PrintWriter(expected);
+        converter.convert(new StringReader(input), pw);
+        pw.flush();
+        assertEquals(expected.toString(), sw.toString());
+    }
+
+    @Test
+    public void testMissingAbbreviations() throws Exception {
+        String[] inputs = {
+            "<root\n    <$tag\n",
+            "<root a=\"1\"\n    <item $attr1=\"2\"\n",
+            "<root\n    <item a=\"$urn\"\n",
+            // first one in the order of the parser
+            "<$tag $attr1=\"$urn\"\n",
+            "<root $attr1=\"$urn\"\n    <$tag\n",
+        };
+        for (String input : inputs) {
+            XSTemplate template = xs.compileTemplate(new StringReader(input));
+            Map<String,String> abvMap = new LinkedHashMap<String,String>();
+            abvMap.put("a", "Alpha");
+            xs.setAbvMap(abvMap);
+            String expected = convertError(input);
+            assertNotNull(input, expected);
+            try {
+                render(template);
+                fail("Missing abbreviation was rendered: " + input);
+            } catch(XSException xse) {
+                assertEquals(input, expected, xse.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testSyntaxErrors() throws Exception {
+        try {
+            xs.compileTemplate(new StringReader("<root\n    <1tag\n"));
+            fail("Invalid tag line was accepted");
+        } catch(XSException xse) {
+            assertEquals("Invalid tag line #2 '    <1tag'", xse.getMessage());
+        }
+        try {
+            xs.compileTemplate(new StringReader("<root a=\"$\"\n"));
+            fail("Invalid abbreviation was accepted");
+        } catch(XSException xse) {
+            assertEquals("Invalid abbreviation '$'!", xse.getMessage());
+        }
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    /** built-in abbreviations and the ones of doc-abv */
+    private static Map<String,String> map(String suffix) {
+        Map<String,String> abvMap = new LinkedHashMap<String,String>(new XS().getAbvMap());
+        abvMap.put("tag", "RootTag" + suffix);
+        abvMap.put("urn", "urn:expanded:" + suffix);
+        abvMap.put("attr1", "Attribute1" + suffix);
+        abvMap.put("a", "Alpha" + suffix);
+        return abvMap;
+    }
+
+    private String convert(String input) throws Exception {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        xs.convert(new StringReader(input), pw);
+        pw.flush();
+        return sw.toString();
+    }
+
+    private String convertError(String input) throws Exception {
+        try {
+            convert(input);
+        } catch(XSException xse) {
+            return xse.getMessage();
+        }
+        return null;
+    }
+
+    private String render(XSTemplate template) throws Exception {
+        StringWriter sw = new StringWriter();
+        PrintWriter pw = new PrintWriter(sw);
+        xs.render(template, pw);
+        pw.flush();
+        return sw.toString();
+    }
+
+}
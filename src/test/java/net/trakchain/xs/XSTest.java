@@ -11,6 +11,8 @@
 package net.trakchain.xs;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.util.*;
 
 import org.junit.*;
 import static org.junit.Assert.*;
@@ -130,6 +132,274 @@ public class XSTest {
         testHelper("xs-comment");
     }
 
+    @Test
+    public void testRunParallel() throws Exception {
+        String[] keys = { "doc", "line-continuation", "preamble", "tag", "tag-empty", "text", "tree", "xml-comment" };
+        File dir = createTempDir("XS_run_");
+        String[] args = new String[keys.length + 2];
+        args[0] = "-j";
+        args[1] = "4";
+        for (int i=0; i < keys.length; i++) {
+            args[i + 2] = copyResource(keys[i] + ".xs", dir).getPath();
+        }
+
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        xs.setErr(new PrintStream(console, true, "UTF-8"));
+        xs.run(args);
+
+        for (String key : keys) {
+            File actual = new File(dir, key + ".xml");
+            actual.deleteOnExit();
+            assertTrue(actual.exists());
+            assertReader(XSTest.class.getResourceAsStream("/" + key + ".xml"), actual);
+        }
+
+        // reports in command line order (files are converted largest first)
+        List<String> reports = new ArrayList<String>();
+        for (String line : console.toString("UTF-8").split("\\R")) {
+            if (line.contains(" -> ")) {
+                reports.add(line);
+            }
+        }
+        List<String> expected = new ArrayList<String>();
+        for (String key : keys) {
+            expected.add(key + ".xs -> " + key + ".xml");
+        }
+        assertEquals(expected, reports);
+    }
+
+    @Test
+    public void testRunJobsOption() throws Exception {
+        File dir = createTempDir("XS_jobs_");
+        File jobsFile = new File(dir, "-jobs.xs");
+        jobsFile.deleteOnExit();
+        new File(dir, "-jobs.xml").deleteOnExit();
+        copyResource("doc.xs", dir).renameTo(jobsFile);
+
+        ByteArrayOutputStream console = new ByteArrayOutputStream();
+        xs.setErr(new PrintStream(console, true, "UTF-8"));
+        // -j2 is a number of jobs, other arguments starting with -j are files
+        xs.run(new String[] { "-j2", jobsFile.getPath() });
+        assertTrue(console.toString("UTF-8"), console.toString("UTF-8").contains("-jobs.xs -> -jobs.xml"));
+
+        console.reset();
+        xs.run(new String[] { "-jx" });
+        assertFalse(console.toString("UTF-8").contains("Invalid number of jobs"));
+        console.reset();
+        xs.run(new String[] { "-j0", jobsFile.getPath() });
+        assertTrue(console.toString("UTF-8").contains("Error: Invalid number of jobs '0'!"));
+    }
+
+    @Test
+    public void testRunDirectory() throws Exception {
+        File dir = createTempDir("XS_dir_");
+        File sub = new File(dir, "sub");
+        File deep = new File(sub, "deep");
+        File hidden = new File(dir, ".hidden");
+        assertTrue(deep.mkdirs());
+        assertTrue(hidden.mkdir());
+        sub.deleteOnExit();
+        deep.deleteOnExit();
+        hidden.deleteOnExit();
+        copyResource("doc.xs", dir);
+        copyResource("tree.xs", sub);
+        copyResource("text.xs", deep);
+        copyResource("tag.xs", hidden);
+        copyResource("doc.xml", sub).renameTo(new File(sub, "other.txt"));
+        new File(sub, "other.txt").deleteOnExit();
+
+        List<String> files = xs.expandFileArgs(Arrays.asList(dir.getPath()));
+        assertEquals(Arrays.asList(
+            new File(dir, "doc.xs").getPath(),
+            new File(deep, "text.xs").getPath(),
+            new File(sub, "tree.xs").getPath()), files);
+
+        xs.run(new String[] { "-j", "2", dir.getPath() });
+        for (File xml : new File[] { new File(dir, "doc.xml"), new File(sub, "tree.xml"), new File(deep, "text.xml") }) {
+            xml.deleteOnExit();
+            String key = xml.getName().substring(0, xml.getName().length() - 4);
+            assertReader(XSTest.class.getResourceAsStream("/" + key + ".xml"), xml);
+        }
+        assertFalse(new File(hidden, "tag.xml").exists());
+    }
+
+    @Test
+    public void testUpdateIncremental() throws Exception {
+        File dir = createTempDir("XS_update_");
+        File source = copyResource("doc.xs", dir);
+        File target = new File(dir, "doc.xml");
+        target.deleteOnExit();
+        File manifest = new File(dir, XSManifest.FILE_NAME);
+        manifest.deleteOnExit();
+        xs.optionIncremental = true;
+
+        xs.update(source);
+        assertReader(XSTest.class.getResourceAsStream("/doc.xml"), target);
+        assertTrue(manifest.exists());
+
+        // touched source: same content, not converted
+        assertTrue(target.setLastModified(1000));
+        assertTrue(source.setLastModified(System.currentTimeMillis()));
+        xs.update(source);
+        assertEquals(1000, target.lastModified());
+
+        // changed abbreviations: converted
+        xs.getAbvMap().put("other", "Other");
+        xs.update(source);
+        assertTrue(target.lastModified() != 1000);
+
+        // changed options: converted
+        assertTrue(target.setLastModified(1000));
+        xs.optionOneAttributePerLine = true;
+        xs.update(source);
+        assertTrue(target.lastModified() != 1000);
+        assertReader(XSTest.class.getResourceAsStream("/doc-attr-per-line.xml"), target);
+
+        // modified output: converted
+        FileWriter fw = new FileWriter(target, /*append*/ true);
+        fw.write("<!-- edited -->");
+        fw.close();
+        xs.update(source);
+        assertReader(XSTest.class.getResourceAsStream("/doc-attr-per-line.xml"), target);
+
+        // a new converter reads the manifest
+        XS other = new XS();
+        other.getAbvMap().put("other", "Other");
+        other.optionOneAttributePerLine = true;
+        other.optionIncremental = true;
+        assertTrue(target.setLastModified(1000));
+        other.update(source);
+        assertEquals(1000, target.lastModified());
+    }
+
+    @Test
+    public void testUpdateIncrementalWorkers() throws Exception {
+        File dir = createTempDir("XS_update_");
+        File doc = copyResource("doc.xs", dir);
+        File tag = copyResource("tag.xs", dir);
+        File docTarget = new File(dir, "doc.xml");
+        docTarget.deleteOnExit();
+        new File(dir, "tag.xml").deleteOnExit();
+        File manifest = new File(dir, XSManifest.FILE_NAME);
+        manifest.deleteOnExit();
+        xs.optionIncremental = true;
+
+        // workers share the manifest of the directory
+        XS first = xs.newWorker();
+        XS second = xs.newWorker();
+        second.update(tag);
+        first.update(doc);
+        assertTrue(docTarget.setLastModified(1000));
+        second.update(doc);
+        assertEquals(1000, docTarget.lastModified());
+
+        // replaced records are compacted when the manifest is loaded
+        xs.getAbvMap().put("other", "Other");
+        XS third = xs.newWorker();
+        third.update(doc);
+        XS other = new XS();
+        other.getAbvMap().put("other", "Other");
+        other.optionIncremental = true;
+        other.update(tag);
+        assertTrue(docTarget.setLastModified(1000));
+        other.update(doc);
+        assertEquals(1000, docTarget.lastModified());
+        BufferedReader br = new BufferedReader(new FileReader(manifest));
+        int lines = 0;
+        try {
+            while (br.readLine() != null) {
+                lines++;
+            }
+        } finally {
+            br.close();
+        }
+        // header, doc and tag after compaction, and the new tag record
+        assertEquals(4, lines);
+    }
+
+    /**
+     *  Steady-state conversion of tag lines should not allocate per line:
+     *  the line is parsed from the read buffer and names are shared symbols.
+     *  The budget covers buffers allocated once per conversion.
+     */
+    @Test
+    public void testTagLineAllocation() throws Exception {
+        final int lines = 10000;
+        final int maxBytesPerLine = 16;
+
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocBean = (com.sun.management.ThreadMXBean) threadBean;
+        Assume.assumeTrue(allocBean.isThreadAllocatedMemorySupported());
+        allocBean.setThreadAllocatedMemoryEnabled(true);
+
+        StringBuilder sb = new StringBuilder("<root xmlns=\"urn\"\n");
+        for (int i=0; i < lines; i++) {
+            sb.append("    <item id=\"1\" name=\"item\" type=\"entry\" enabled=\"true\" ref=\"r\" /\n");
+        }
+        String input = sb.toString();
+
+        // warm up
+        for (int i=0; i < 20; i++) {
+            xs.convert(new StringReader(input), new PrintWriter(new NullWriter()));
+        }
+
+        long threadId = Thread.currentThread().getId();
+        PrintWriter pw = new PrintWriter(new NullWriter());
+        long before = allocBean.getThreadAllocatedBytes(threadId);
+        xs.convert(new StringReader(input), pw);
+        long allocated = allocBean.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("Allocated " + (allocated / lines) + " bytes per line", allocated / lines < maxBytesPerLine);
+    }
+
+    @Test
+    public void testConvertStreamFlush() throws Exception {
+        String input = "<a\n    <b\n<c /\n<d\n    text\n";
+        String nl = System.lineSeparator();
+        String a = "<a>" + nl + "    <b>" + nl + "    </b>" + nl + "</a>" + nl;
+        String c = "<c />" + nl;
+        String d = "<d>" + nl + "    text" + nl + "</d>" + nl;
+
+        // the same output in every mode
+        for (XSWriter.Flush flush : XSWriter.Flush.values()) {
+            FlushRecorder os = new FlushRecorder();
+            xs.convertStream(new StringReader(input), os, flush);
+            assertEquals(a + c + d, os.toString());
+        }
+
+        // full: only at the end
+        FlushRecorder os = new FlushRecorder();
+        xs.convertStream(new StringReader(input), os, XSWriter.Flush.FULL);
+        assertEquals(Arrays.asList(a + c + d), os.flushed);
+
+        // element: after each top-level element
+        os = new FlushRecorder();
+        xs.convertStream(new StringReader(input), os, XSWriter.Flush.ELEMENT);
+        assertEquals(Arrays.asList(a, a + c, a + c + d), os.flushed);
+
+        // line: after each line
+        os = new FlushRecorder();
+        xs.convertStream(new StringReader(input), os, XSWriter.Flush.LINE);
+        assertEquals(8, os.flushed.size());
+        assertEquals("<a>" + nl, os.flushed.get(0));
+    }
+
+    @Test
+    public void testConvertStreamFile() throws Exception {
+        File dir = createTempDir("XS_stream_");
+        File source = copyResource("doc.xs", dir);
+        File target = new File(dir, "doc.xml");
+        target.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(target);
+        try {
+            xs.convertStream(new FileReader(source), fos, XSWriter.Flush.ELEMENT);
+        } finally {
+            fos.close();
+        }
+        assertReader(XSTest.class.getResourceAsStream("/doc.xml"), target);
+    }
+
     @Test
     public void testHasXSExt() {
         String fileName;
@@ -205,6 +475,19 @@ public class XSTest {
 
     // closeQuietly methods inspired by org.apache.commons.io.IOUtil
 
+    /** Output stream that records the content at each flush that added output */
+    private static class FlushRecorder extends ByteArrayOutputStream {
+        final List<String> flushed = new ArrayList<String>();
+
+        @Override
+        public void flush() {
+            String content = toString();
+            if (flushed.isEmpty() ? content.length() > 0 : !content.equals(flushed.get(flushed.size() - 1))) {
+                flushed.add(content);
+            }
+        }
+    }
+
     public static void closeQuietly(Reader r) {
         if (r != null) {
             try {
@@ -225,6 +508,45 @@ public class XSTest {
         }
     }
 
+    // temporary files -------------------------------------
+
+    public static File createTempDir(String prefix) throws IOException {
+        File dir = File.createTempFile(prefix, "");
+        assertTrue(dir.delete());
+        assertTrue(dir.mkdir());
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    /** copies a test resource to the given directory, returning the new file */
+    public static File copyResource(String name, File dir) throws IOException {
+        File file = new File(dir, name);
+        file.deleteOnExit();
+        InputStream in = XSTest.class.getResourceAsStream("/" + name);
+        assertNotNull(in);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return file;
+    }
+
+    /** Writer that discards everything */
+    public static class NullWriter extends Writer {
+        @Override public void write(char[] cbuf, int off, int len) { }
+        @Override public void write(String str, int off, int len) { }
+        @Override public void write(int c) { }
+        @Override public void flush() { }
+        @Override public void close() { }
+    }
+
     // text file comparison --------------------------------
 
     public static void assertReader(InputStream expectedIS, File actualFile) throws IOException {
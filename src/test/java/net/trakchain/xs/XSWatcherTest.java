@@ -0,0 +1,187 @@
+/*
+ *  XS - XML Shorthand
+ *  https://github.com/miguelpardal/xs
+ *
+ *  Copyright (c) 2015 Miguel L. Pardal
+ *  All rights reserved. This program and the accompanying materials
+ *  are made available under the terms of the MIT License
+ *  which accompanies this distribution, and is available at
+ *  http://opensource.org/licenses/MIT
+ */
+package net.trakchain.xs;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.*;
+import static org.junit.Assert.*;
+
+
+/**
+ *  XSWatcherTest suite
+ *
+ *  Checks that watched files are converted again when they change
+ *  and that new files in watched directories are converted.
+ *
+ *  @author Miguel L. Pardal
+ */
+public class XSWatcherTest {
+
+    private static final long TIMEOUT_MILLIS = 20000;
+
+    private File dir;
+    private XSWatcher watcher;
+    private Thread thread;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = XSTest.createTempDir("XS_watch_");
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (watcher != null) {
+            watcher.close();
+            thread.join(TIMEOUT_MILLIS);
+            assertFalse(thread.isAlive());
+        }
+    }
+
+    // tests -------------------------------------------------------------------
+
+    @Test
+    public void testChangedFileIsConverted() throws Exception {
+        File a = write("a.xs", "<a\n");
+        File b = write("b.xs", "<b\n");
+        File aXml = new File(dir, "a.xml");
+        File bXml = new File(dir, "b.xml");
+        aXml.deleteOnExit();
+        bXml.deleteOnExit();
+        startWatcher(a, b);
+        assertEquals(1, watcher.getDirectoryCount());
+
+        write("a.xs", "<a\n    <changed /\n");
+        assertEventually(aXml, "<a>" + System.lineSeparator() + "    <changed />" + System.lineSeparator() + "</a>" + System.lineSeparator());
+        // other watched files are not converted
+        assertFalse(bXml.exists());
+
+        // a burst of writes ends with the last content
+        for (int i=0; i < 10; i++) {
+            write("b.xs", "<b n \"" + i + "\"\n");
+        }
+        assertEventually(bXml, "<b n=\"9\">" + System.lineSeparator() + "</b>" + System.lineSeparator());
+    }
+
+    @Test
+    public void testAtomicSave() throws Exception {
+        File a = write("a.xs", "<a\n");
+        File aXml = new File(dir, "a.xml");
+        aXml.deleteOnExit();
+        startWatcher(a);
+        assertEquals(1, watcher.getDirectoryCount());
+
+        // editors often write a temporary file and rename it
+        File temp = write("a.xs.tmp", "<saved\n");
+        Files.move(temp.toPath(), a.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        assertEventually(aXml, "<saved>" + System.lineSeparator() + "</saved>" + System.lineSeparator());
+    }
+
+    @Test
+    public void testCreatedFileIsConverted() throws Exception {
+        File a = write("a.xs", "<a\n");
+        File sub = new File(dir, "sub");
+        assertTrue(sub.mkdir());
+        sub.deleteOnExit();
+        startWatcher(dir);
+        assertEquals(2, watcher.getDirectoryCount());
+        assertEquals(1, watcher.getFileCount());
+
+        // new XS file in a watched directory
+        write("b.xs", "<b\n");
+        File bXml = new File(dir, "b.xml");
+        bXml.deleteOnExit();
+        assertEventually(bXml, "<b>" + System.lineSeparator() + "</b>" + System.lineSeparator());
+
+        // in a subdirectory and in a new subdirectory
+        write("sub/c.xs", "<c\n");
+        File newSub = new File(dir, "new");
+        assertTrue(newSub.mkdir());
+        newSub.deleteOnExit();
+        write("new/d.xs", "<d\n");
+        File cXml = new File(sub, "c.xml");
+        File dXml = new File(newSub, "d.xml");
+        cXml.deleteOnExit();
+        dXml.deleteOnExit();
+        assertEventually(cXml, "<c>" + System.lineSeparator() + "</c>" + System.lineSeparator());
+        assertEventually(dXml, "<d>" + System.lineSeparator() + "</d>" + System.lineSeparator());
+
+        // created files are watched for changes
+        write("new/d.xs", "<d2\n");
+        assertEventually(dXml, "<d2>" + System.lineSeparator() + "</d2>" + System.lineSeparator());
+
+        // other files and hidden directories are left alone
+        File hidden = new File(dir, ".hidden");
+        assertTrue(hidden.mkdir());
+        hidden.deleteOnExit();
+        write(".hidden/e.xs", "<e\n");
+        write("f.txt", "<f\n");
+        write("g.xs", "<g\n");
+        File gXml = new File(dir, "g.xml");
+        gXml.deleteOnExit();
+        assertEventually(gXml, "<g>" + System.lineSeparator() + "</g>" + System.lineSeparator());
+        assertFalse(new File(hidden, "e.xml").exists());
+        assertFalse(new File(dir, "f.xml").exists());
+        assertFalse(new File(dir, "a.xml").exists());
+    }
+
+    // helpers -----------------------------------------------------------------
+
+    private void startWatcher(File... files) throws IOException {
+        List<String> fileArgs = new ArrayList<String>();
+        for (File file : files) {
+            fileArgs.add(file.getPath());
+        }
+        watcher = new XSWatcher(new XS(), fileArgs, 2);
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    watcher.run();
+                } catch(IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private File write(String name, String text) throws IOException {
+        File file = new File(dir, name);
+        file.deleteOnExit();
+        Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            w.write(text);
+        } finally {
+            w.close();
+        }
+        return file;
+    }
+
+    private static void assertEventually(File file, String expected) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        String actual = null;
+        while (System.currentTimeMillis() < deadline) {
+            if (file.exists()) {
+                actual = XSReaderTest.readAll(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+                if (expected.equals(actual)) {
+                    return;
+                }
+            }
+            Thread.sleep(20);
+        }
+        assertEquals(expected, actual);
+    }
+
+}